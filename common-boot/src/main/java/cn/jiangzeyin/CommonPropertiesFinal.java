@@ -63,6 +63,18 @@ public final class CommonPropertiesFinal {
      * 预加载指定包下面的class
      */
     public static final String PRELOAD_PACKAGE_NAME = PRELOAD + ".packageName";
+    /**
+     * 缓存快照文件路径 配置后关闭程序时保存缓存 启动时加载
+     */
+    public static final String CACHE_SNAPSHOT_PATH = "cache.snapshotPath";
+    /**
+     * 是否使用ObjectCache 作为spring 的CacheManager 默认false
+     */
+    public static final String CACHE_SPRING_CACHE_MANAGER = "cache.springCacheManager";
+    /**
+     * 线程池任务保存目录 配置后关闭程序时保存超时没有执行的任务 启动完成后重新执行
+     */
+    public static final String POOL_TASK_STORE_PATH = "pool.taskStorePath";
     // 预加载class的 方法名
     //public static final String PRELOAD_METHOD_NAME = PRELOAD + ".methodName";
 }
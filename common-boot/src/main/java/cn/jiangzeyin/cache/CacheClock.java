@@ -0,0 +1,42 @@
+package cn.jiangzeyin.cache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存时钟
+ * <p>
+ * 后台线程每毫秒刷新一次 读缓存时只读取一个volatile 字段 避免每次读都调用系统时间
+ *
+ * @author jiangzeyin
+ * data 2018/9/5
+ */
+final class CacheClock {
+    private static volatile long now = System.currentTimeMillis();
+
+    static {
+        Thread thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                now = System.currentTimeMillis();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "ObjectCache-clock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private CacheClock() {
+    }
+
+    /**
+     * 当前时间
+     *
+     * @return 毫秒
+     */
+    static long currentTimeMillis() {
+        return now;
+    }
+}
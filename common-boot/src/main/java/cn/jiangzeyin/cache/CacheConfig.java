@@ -13,4 +13,67 @@ public @interface CacheConfig {
     int value() default ObjectCache.DEFAULT_CACHE_TIME;
 
     TimeUnit UNIT() default TimeUnit.SECONDS;
+
+    /**
+     * 过期方式
+     *
+     * @return 默认false 写入后开始计时  true 每次访问后重新计时
+     */
+    boolean expireAfterAccess() default false;
+
+    /**
+     * 负缓存(数据不存在)的缓存时间 单位同UNIT
+     *
+     * @return 默认0 不缓存不存在的数据
+     */
+    long negativeTime() default 0;
+
+    /**
+     * 缓存最大条数
+     *
+     * @return 默认0 不限制
+     */
+    long maximumSize() default 0;
+
+    /**
+     * 缓存最大权重 不能和maximumSize 同时配置
+     *
+     * @return 默认0 不限制
+     */
+    long maximumWeight() default 0;
+
+    /**
+     * 权重计算
+     *
+     * @return 默认按估算的堆内存字节数
+     */
+    Class<? extends Weigher> WEIGHER() default DefaultWeigher.class;
+
+    /**
+     * 缓存时间超过该比例后 通过ObjectCache.get(key, loader) 读取时异步刷新
+     *
+     * @return 默认0 不刷新 如：0.8
+     */
+    double refreshAhead() default 0;
+
+    /**
+     * 缓存区域的并发写线程数预估
+     *
+     * @return 默认16
+     */
+    int concurrencyLevel() default 16;
+
+    /**
+     * 堆外存储最大直接内存 字节 最小4M
+     *
+     * @return 默认0 不使用堆外存储
+     */
+    long offHeapCapacity() default 0;
+
+    /**
+     * 序列化后大于等于该值的缓存写入时直接放入堆外
+     *
+     * @return 默认0 只存放被淘汰的缓存
+     */
+    int offHeapThreshold() default 0;
 }
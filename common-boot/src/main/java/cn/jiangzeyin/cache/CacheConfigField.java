@@ -13,4 +13,18 @@ public @interface CacheConfigField {
     int value() default ObjectCache.DEFAULT_CACHE_TIME;
 
     TimeUnit UNIT() default TimeUnit.SECONDS;
+
+    /**
+     * 过期方式
+     *
+     * @return 默认false 写入后开始计时  true 每次访问后重新计时
+     */
+    boolean expireAfterAccess() default false;
+
+    /**
+     * 负缓存(数据不存在)的缓存时间 单位同UNIT
+     *
+     * @return 默认-1 使用类上{@link CacheConfig#negativeTime()} 的配置  0 不缓存
+     */
+    long negativeTime() default -1;
 }
@@ -0,0 +1,176 @@
+package cn.jiangzeyin.cache;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 缓存信息
+ *
+ * @author jiangzeyin
+ * data 2017/12/1
+ */
+class CacheEntity implements Map.Entry<String, Object> {
+    /**
+     * 还未加入淘汰队列
+     */
+    static final int QUEUE_NONE = 0;
+    static final int QUEUE_WINDOW = 1;
+    static final int QUEUE_PROBATION = 2;
+    static final int QUEUE_PROTECTED = 3;
+    /**
+     * 值已经转移到堆外 不在淘汰队列中
+     */
+    static final int QUEUE_OFF_HEAP = 4;
+    /**
+     * 已经被移除
+     */
+    static final int QUEUE_DEAD = -1;
+    /**
+     * 负缓存的值 表示数据不存在
+     */
+    static final Object NEGATIVE = new Object();
+
+    private static final AtomicReferenceFieldUpdater<CacheEntity, Object> VALUE_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(CacheEntity.class, Object.class, "value");
+
+    final String key;
+    final CacheInfo cacheInfo;
+    /**
+     * 值 转移到堆外后为{@link OffHeapStore.OffHeapValue}
+     */
+    volatile Object value;
+    /**
+     * 最后写入时间 毫秒
+     */
+    volatile long writeTime;
+    /**
+     * 当前缓存的缓存时长 毫秒
+     */
+    volatile long cacheTime;
+    /**
+     * 到期时间点 毫秒
+     */
+    volatile long expireTime;
+    /**
+     * 标签 用于批量删除
+     */
+    volatile String[] tags;
+    /**
+     * 版本 每次写入后增加 在写入锁中修改
+     */
+    volatile long version;
+    /**
+     * 写入时计算的权重
+     */
+    volatile int weight = 1;
+    /**
+     * 淘汰队列相关字段 只在淘汰锁中读写
+     */
+    CacheEntity queuePrev;
+    CacheEntity queueNext;
+    int queueType = QUEUE_NONE;
+    /**
+     * 已经计入淘汰队列的权重
+     */
+    int policyWeight;
+    /**
+     * 过期时间轮相关字段 只在时间轮锁中读写
+     */
+    CacheEntity timerPrev;
+    CacheEntity timerNext;
+
+    CacheEntity(String key, Object value, CacheInfo cacheInfo, long cacheTime) {
+        this.key = key;
+        this.value = value;
+        this.cacheInfo = cacheInfo;
+        this.cacheTime = cacheTime;
+        long now = CacheClock.currentTimeMillis();
+        this.writeTime = now;
+        this.expireTime = now + cacheTime;
+    }
+
+    @Override
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public Object getValue() {
+        long now = CacheClock.currentTimeMillis();
+        // 判断缓存时间
+        if (now >= expireTime) {
+            return null;
+        }
+        if (cacheInfo.isExpireAfterAccess()) {
+            // 访问后顺延 时间轮到期时发现未过期会重新放入
+            long expire = now + cacheTime;
+            if (expire > expireTime) {
+                expireTime = expire;
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public Object setValue(Object value) {
+        return setValue(value, cacheTime);
+    }
+
+    /**
+     * 添加缓存的值 并且修改缓存时间
+     *
+     * @param value     object
+     * @param cacheTime 缓存时间 单位毫秒
+     * @return 修改之前的值
+     */
+    Object setValue(Object value, long cacheTime) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        long now = CacheClock.currentTimeMillis();
+        Object val = VALUE_UPDATER.getAndSet(this, value);
+        this.cacheTime = cacheTime;
+        this.writeTime = now;
+        this.expireTime = now + cacheTime;
+        return val;
+    }
+
+    /**
+     * 值没有被修改时替换
+     *
+     * @param expect 当前值
+     * @param update 新值
+     * @return 是否成功
+     */
+    boolean casValue(Object expect, Object update) {
+        return VALUE_UPDATER.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * 缓存移除后清空值
+     *
+     * @return 之前的值
+     */
+    Object clearValue() {
+        return VALUE_UPDATER.getAndSet(this, null);
+    }
+
+    /**
+     * 获取过期时间点
+     *
+     * @return 毫秒
+     */
+    long getExpireTime() {
+        return expireTime;
+    }
+
+    /**
+     * 缓存时间是否已经超过指定比例
+     *
+     * @param ratio 比例 0-1
+     * @return true 需要刷新
+     */
+    boolean needRefresh(double ratio) {
+        return CacheClock.currentTimeMillis() - writeTime >= cacheTime * ratio;
+    }
+}
@@ -4,6 +4,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static cn.jiangzeyin.cache.ObjectCache.DEFAULT_CACHE_TIME;
 
@@ -16,17 +17,66 @@ import static cn.jiangzeyin.cache.ObjectCache.DEFAULT_CACHE_TIME;
 class CacheInfo {
     private final String key;
     /**
-     * 缓存时间 单位秒
+     * 缓存时间 单位毫秒
      */
-    private long cacheTime;
+    private final long cacheTime;
+    /**
+     * 是否在访问后顺延过期时间
+     */
+    private boolean expireAfterAccess;
+    /**
+     * 提前刷新的比例 0 不刷新
+     */
+    private double refreshAhead;
+    /**
+     * 负缓存时间 单位毫秒 0 不缓存
+     */
+    private long negativeTime;
+    private CacheStats stats = new CacheStats();
 
     CacheInfo(String key, long cacheTime) {
         this.key = key;
         this.cacheTime = cacheTime;
     }
 
-    void setCacheTime(long cacheTime) {
-        this.cacheTime = cacheTime;
+    CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * 重复配置时沿用之前的统计
+     *
+     * @param old 之前的配置
+     */
+    void inheritStats(CacheInfo old) {
+        this.stats = old.stats;
+    }
+
+    void setRefreshAhead(double refreshAhead) {
+        this.refreshAhead = refreshAhead;
+    }
+
+    double getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    void setNegativeTime(long negativeTime) {
+        if (negativeTime < 0) {
+            throw new IllegalArgumentException("negativeTime must >=0");
+        }
+        this.negativeTime = negativeTime;
+    }
+
+    long getNegativeTime() {
+        return negativeTime;
+    }
+
+    void setExpireAfterAccess(boolean expireAfterAccess) {
+        this.expireAfterAccess = expireAfterAccess;
+    }
+
+    boolean isExpireAfterAccess() {
+        return expireAfterAccess;
     }
 
     String getKey() {
@@ -38,12 +88,41 @@ class CacheInfo {
     }
 
 
+    /**
+     * 根据配置类的{@link CacheConfig} 创建区域中未配置key 共用的缓存信息
+     *
+     * @param cls 配置类 可以为null
+     * @return 缓存信息
+     */
+    static CacheInfo loadDefault(Class cls) {
+        CacheConfig cacheConfig = cls == null ? null : (CacheConfig) cls.getAnnotation(CacheConfig.class);
+        if (cacheConfig == null) {
+            return new CacheInfo(null, TimeUnit.SECONDS.toMillis(DEFAULT_CACHE_TIME));
+        }
+        CacheInfo cacheInfo = new CacheInfo(null, cacheConfig.UNIT().toMillis(cacheConfig.value()));
+        if (cacheInfo.getCacheTime() <= 0) {
+            throw new IllegalArgumentException(cls + " cacheTime must >0");
+        }
+        cacheInfo.setExpireAfterAccess(cacheConfig.expireAfterAccess());
+        if (cacheConfig.refreshAhead() < 0 || cacheConfig.refreshAhead() >= 1) {
+            throw new IllegalArgumentException("refreshAhead must >=0 and <1");
+        }
+        cacheInfo.setRefreshAhead(cacheConfig.refreshAhead());
+        cacheInfo.setNegativeTime(cacheConfig.UNIT().toMillis(cacheConfig.negativeTime()));
+        return cacheInfo;
+    }
+
     static Map<String, CacheInfo> loadClass(Class cls) throws IllegalAccessException {
         if (cls == null) {
             throw new NullPointerException();
         }
         Map<String, CacheInfo> map = new HashMap<>();
         CacheConfig cacheConfig = (CacheConfig) cls.getAnnotation(CacheConfig.class);
+        double refreshAhead = cacheConfig != null ? cacheConfig.refreshAhead() : 0;
+        long negativeTime = cacheConfig != null ? cacheConfig.UNIT().toMillis(cacheConfig.negativeTime()) : 0;
+        if (refreshAhead < 0 || refreshAhead >= 1) {
+            throw new IllegalArgumentException("refreshAhead must >=0 and <1");
+        }
         Field[] fields = cls.getFields();
         for (Field field : fields) {
             if (field.getType() != String.class) {
@@ -57,16 +136,28 @@ class CacheInfo {
             }
             CacheConfigField cacheConfigField = field.getAnnotation(CacheConfigField.class);
             String key = (String) field.get(null);
+            CacheInfo cacheInfo;
             if (cacheConfigField == null) {
-                // 秒
-                long cacheTime = cacheConfig != null ? cacheConfig.UNIT().toSeconds(cacheConfig.value()) : DEFAULT_CACHE_TIME;
-                CacheInfo cacheInfo = new CacheInfo(key, cacheTime);
-                map.put(key, cacheInfo);
+                // 毫秒
+                long cacheTime = cacheConfig != null ? cacheConfig.UNIT().toMillis(cacheConfig.value()) : TimeUnit.SECONDS.toMillis(DEFAULT_CACHE_TIME);
+                cacheInfo = new CacheInfo(key, cacheTime);
+                cacheInfo.setExpireAfterAccess(cacheConfig != null && cacheConfig.expireAfterAccess());
+                cacheInfo.setNegativeTime(negativeTime);
             } else {
-                // 秒
-                CacheInfo cacheInfo = new CacheInfo(key, cacheConfigField.UNIT().toSeconds(cacheConfigField.value()));
-                map.put(key, cacheInfo);
+                // 毫秒
+                cacheInfo = new CacheInfo(key, cacheConfigField.UNIT().toMillis(cacheConfigField.value()));
+                cacheInfo.setExpireAfterAccess(cacheConfigField.expireAfterAccess());
+                if (cacheConfigField.negativeTime() >= 0) {
+                    cacheInfo.setNegativeTime(cacheConfigField.UNIT().toMillis(cacheConfigField.negativeTime()));
+                } else {
+                    cacheInfo.setNegativeTime(negativeTime);
+                }
+            }
+            if (cacheInfo.getCacheTime() <= 0) {
+                throw new IllegalArgumentException(key + " cacheTime must >0");
             }
+            cacheInfo.setRefreshAhead(refreshAhead);
+            map.put(key, cacheInfo);
         }
         return map;
     }
@@ -0,0 +1,1355 @@
+package cn.jiangzeyin.cache;
+
+import cn.jiangzeyin.common.DefaultSystemLog;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 缓存区域
+ * <p>
+ * 每个区域拥有独立的存储、容量、过期配置和统计 区域之间互不影响
+ * 通过{@link ObjectCache#config(Class)} 根据{@link CacheConfig} 创建 使用{@link ObjectCache#region(Class)} 获取
+ *
+ * @author jiangzeyin
+ * data 2018/9/7
+ */
+public final class CacheRegion {
+    /**
+     * 计算结果表示不修改缓存
+     */
+    private static final Object UNCHANGED = new Object();
+    private final String name;
+    private final ConcurrentHashMap<String, CacheEntity> cacheMap;
+    private final ConcurrentHashMap<String, CacheInfo> cacheInfoMap = new ConcurrentHashMap<>();
+    /**
+     * 未配置的key 共用的缓存信息
+     */
+    private final CacheInfo defaultCacheInfo;
+    private final TimerWheel timerWheel = new TimerWheel(CacheClock.currentTimeMillis());
+    /**
+     * 有序的key 索引 用于按前缀删除
+     */
+    private final ConcurrentSkipListMap<String, CacheEntity> keyIndex = new ConcurrentSkipListMap<>();
+    /**
+     * 标签对应的缓存 只在compute 中修改
+     */
+    private final ConcurrentHashMap<String, Set<CacheEntity>> tagIndex = new ConcurrentHashMap<>();
+    /**
+     * 正在加载的key  同一个key 同时只有一个线程加载
+     */
+    private final ConcurrentHashMap<String, Loading> loadingMap = new ConcurrentHashMap<>();
+    /**
+     * 缓存淘汰策略 为null 时不限制缓存条数
+     */
+    private volatile TinyLfuPolicy evictionPolicy;
+    /**
+     * 堆外存储 为null 时不使用堆外
+     */
+    private volatile OffHeapStore offHeapStore;
+    /**
+     * 权重计算 为null 时每个缓存权重为1
+     */
+    private volatile Weigher weigher;
+    /**
+     * 异步写入 为null 时不写入
+     */
+    private volatile WriteBehind writeBehind;
+    /**
+     * 缓存版本序号
+     */
+    private final AtomicLong versionSequence = new AtomicLong();
+
+    CacheRegion(String name, CacheInfo defaultCacheInfo, int concurrencyLevel) {
+        this.name = name;
+        this.defaultCacheInfo = defaultCacheInfo;
+        this.cacheMap = new ConcurrentHashMap<>(100, 0.75f, concurrencyLevel);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 加载区域中key 的配置
+     *
+     * @param cacheInfos 配置
+     */
+    void config(Collection<CacheInfo> cacheInfos) {
+        for (CacheInfo cacheInfo : cacheInfos) {
+            CacheInfo old = cacheInfoMap.put(cacheInfo.getKey(), cacheInfo);
+            if (old != null) {
+                cacheInfo.inheritStats(old);
+            }
+        }
+    }
+
+    /**
+     * 设置缓存最大条数 超出后按W-TinyLFU 策略淘汰
+     *
+     * @param maximumSize 最大条数
+     */
+    public synchronized void setMaximumSize(long maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must >0");
+        }
+        setMaximum(maximumSize, null);
+    }
+
+    /**
+     * 设置缓存最大权重 权重总和超出后按W-TinyLFU 策略淘汰
+     *
+     * @param maximumWeight 最大权重
+     * @param weigher       权重计算 如{@link DefaultWeigher} 按估算的字节数计算
+     */
+    public synchronized void setMaximumWeight(long maximumWeight, Weigher weigher) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("maximumWeight must >0");
+        }
+        Objects.requireNonNull(weigher);
+        setMaximum(maximumWeight, weigher);
+    }
+
+    private void setMaximum(long maximum, Weigher weigher) {
+        TinyLfuPolicy policy = evictionPolicy;
+        if (policy != null) {
+            if (policy.isWeighted() != (weigher != null)) {
+                throw new IllegalStateException(name + " maximumSize and maximumWeight cannot be combined");
+            }
+            if (weigher != null && weigher != this.weigher) {
+                throw new IllegalStateException(name + " weigher already config");
+            }
+            policy.setMaximum(maximum);
+            return;
+        }
+        policy = new TinyLfuPolicy(maximum, weigher != null, entity -> {
+            boolean remove = cacheMap.remove(entity.getKey(), entity);
+            if (remove) {
+                entity.cacheInfo.getStats().evictionCount.increment();
+                onRemoved(entity);
+            }
+            // 从时间轮中移除
+            timerWheel.reschedule(entity);
+            return remove;
+        });
+        if (offHeapStore != null) {
+            policy.setDemoter(this::demote);
+        }
+        this.weigher = weigher;
+        evictionPolicy = policy;
+        // 已经存在的缓存加入淘汰队列
+        for (CacheEntity cacheEntity : cacheMap.values()) {
+            if (weigher != null) {
+                Object value = readValue(cacheEntity);
+                if (value == null) {
+                    continue;
+                }
+                cacheEntity.weight = weigh(weigher, cacheEntity.getKey(), value);
+            }
+            policy.afterWrite(cacheEntity);
+        }
+    }
+
+    /**
+     * 开启堆外存储
+     * <p>
+     * 被淘汰的缓存和序列化后超过阈值的缓存会保存到直接内存中 读取时反序列化 只支持实现了{@link java.io.Serializable} 的值
+     * 只能开启一次
+     *
+     * @param capacity  最大直接内存 字节 最小4M
+     * @param threshold 序列化后大于等于该值的缓存写入时直接放入堆外 0 只存放淘汰的缓存
+     */
+    public synchronized void setOffHeap(long capacity, int threshold) {
+        if (offHeapStore != null) {
+            throw new IllegalStateException(name + " off heap already config");
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must >=0");
+        }
+        offHeapStore = new OffHeapStore(capacity, threshold);
+        TinyLfuPolicy policy = evictionPolicy;
+        if (policy != null) {
+            policy.setDemoter(this::demote);
+        }
+    }
+
+    public boolean isOffHeap() {
+        return offHeapStore != null;
+    }
+
+    /**
+     * 配置异步写入
+     * <p>
+     * put、putIfAbsent、compute、merge、replace、compareAndSet 修改缓存后 同一个key 的多次修改合并为最新的值
+     * 每隔delay 或者积累到batchSize 条时批量调用写入接口 加载接口加载的值和负缓存不会写入 删除缓存不会调用写入接口
+     * 只能配置一次
+     *
+     * @param writer    写入接口
+     * @param delay     写入间隔
+     * @param unit      时间单位
+     * @param batchSize 每批最大条数
+     */
+    public synchronized void setWriter(CacheWriter writer, long delay, TimeUnit unit, int batchSize) {
+        Objects.requireNonNull(writer);
+        Objects.requireNonNull(unit);
+        if (writeBehind != null) {
+            throw new IllegalStateException(name + " writer already config");
+        }
+        if (delay <= 0) {
+            throw new IllegalArgumentException("delay must >0");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must >0");
+        }
+        writeBehind = new WriteBehind(name, writer, unit.toMillis(delay), batchSize);
+    }
+
+    /**
+     * 立即写入所有等待异步写入的数据
+     *
+     * @return 写入失败剩余的条数
+     */
+    public int flushWriter() {
+        WriteBehind writeBehindQueue = writeBehind;
+        return writeBehindQueue == null ? 0 : writeBehindQueue.flush();
+    }
+
+    /**
+     * 获取缓存最大条数
+     *
+     * @return 0 不限制
+     */
+    public long getMaximumSize() {
+        TinyLfuPolicy policy = evictionPolicy;
+        return policy == null || policy.isWeighted() ? 0 : policy.getMaximum();
+    }
+
+    /**
+     * 获取缓存最大权重
+     *
+     * @return 0 不限制
+     */
+    public long getMaximumWeight() {
+        TinyLfuPolicy policy = evictionPolicy;
+        return policy != null && policy.isWeighted() ? policy.getMaximum() : 0;
+    }
+
+    /**
+     * 当前缓存的权重总和 未限制容量时为0 按条数限制时为条数
+     * <p>
+     * 已经转移到堆外的缓存不计算
+     *
+     * @return 权重
+     */
+    public long getWeightedSize() {
+        TinyLfuPolicy policy = evictionPolicy;
+        return policy == null ? 0 : policy.weightedSize();
+    }
+
+    /**
+     * 当前缓存条数
+     *
+     * @return 条数
+     */
+    public int size() {
+        return cacheMap.size();
+    }
+
+    /**
+     * 添加缓存信息 缓存时间使用config 中配置的时间 未配置默认10分钟
+     *
+     * @param key   键
+     * @param value 值
+     * @return 上传缓存对象
+     */
+    public Object put(String key, Object value) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return putEntity(key, value, getCacheTime(key), false, true);
+    }
+
+    /**
+     * 添加缓存信息
+     *
+     * @param key       键
+     * @param value     值
+     * @param cacheTime 缓存时间 秒
+     * @return 上传缓存对象
+     */
+    public Object put(String key, Object value, long cacheTime) {
+        return put(key, value, cacheTime, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 添加缓存信息
+     *
+     * @param key       键
+     * @param value     值
+     * @param cacheTime 缓存时间
+     * @param unit      时间单位
+     * @return 上传缓存对象
+     */
+    public Object put(String key, Object value, long cacheTime, TimeUnit unit) {
+        if (unit == null) {
+            throw new NullPointerException();
+        }
+        if (cacheTime <= 0) {
+            throw new IllegalArgumentException("cacheTime must >0");
+        }
+        return putEntity(key, value, unit.toMillis(cacheTime), false, true);
+    }
+
+    private Object putEntity(String key, Object value, long cacheTime) {
+        return putEntity(key, value, cacheTime, false, false);
+    }
+
+    /**
+     * 添加缓存
+     *
+     * @param key          键
+     * @param value        值
+     * @param cacheTime    缓存时间 毫秒
+     * @param onlyIfAbsent 已经存在时不修改
+     * @param external     是否是业务修改 业务修改会异步写入和同步到其他节点
+     * @return 原值
+     */
+    private Object putEntity(String key, Object value, long cacheTime, boolean onlyIfAbsent, boolean external) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        if (cacheTime <= 0) {
+            throw new IllegalArgumentException("cacheTime must >0");
+        }
+        WriteResult result = write(key, cacheTime, external, (current, version) -> {
+            if (onlyIfAbsent && current != null && current != CacheEntity.NEGATIVE) {
+                return UNCHANGED;
+            }
+            return value;
+        });
+        return onlyIfAbsent && result.written ? null : unwrap(result.old);
+    }
+
+    /**
+     * 修改缓存 在key 所在的map 节点锁中执行
+     * <p>
+     * 同一个key 的写入互斥 不同key 互不影响 读取不加锁
+     *
+     * @param key       键
+     * @param cacheTime 缓存时间 毫秒 小于等于0 时已经存在的缓存保留原缓存时长 否则使用配置的缓存时间
+     * @param external  是否是业务修改 业务修改会异步写入和同步到其他节点 加载、恢复快照和负缓存不是业务修改
+     * @param remapping 计算新值
+     * @return 结果
+     */
+    private WriteResult write(String key, long cacheTime, boolean external, Remapping remapping) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (external) {
+            staleLoading(key);
+        }
+        if (!cacheMap.containsKey(key)) {
+            // 先从快照中恢复 保证修改基于快照中的值
+            restore(key);
+        }
+        WriteResult result = new WriteResult();
+        cacheMap.compute(key, (entityKey, entity) -> {
+            Object current = null;
+            long version = 0;
+            if (entity != null && entity.getExpireTime() > CacheClock.currentTimeMillis()) {
+                version = entity.version;
+                current = readValue(entity);
+            }
+            result.old = current;
+            Object value = remapping.apply(current, version);
+            if (value == UNCHANGED) {
+                result.value = current;
+                return entity;
+            }
+            if (value == null) {
+                result.entity = entity;
+                return null;
+            }
+            long time = cacheTime;
+            if (time <= 0) {
+                time = current == null || current == CacheEntity.NEGATIVE ? getCacheTime(key) : entity.cacheTime;
+            }
+            Weigher weigher = this.weigher;
+            int weight = weigher == null ? 1 : weigh(weigher, key, unwrap(value));
+            Object storeValue = toStoreValue(value);
+            if (entity == null) {
+                CacheInfo cacheInfo = getCacheInfo(key);
+                cacheInfo.getStats().size.increment();
+                entity = new CacheEntity(key, storeValue, cacheInfo, time);
+                keyIndex.put(key, entity);
+                result.created = true;
+            } else {
+                result.oldExpireTime = entity.getExpireTime();
+                releaseValue(entity.setValue(storeValue, time));
+            }
+            entity.weight = weight;
+            // 值写入后再修改版本 先读取版本再读取值时版本不会比值新
+            entity.version = versionSequence.incrementAndGet();
+            result.entity = entity;
+            result.value = value;
+            result.written = true;
+            return entity;
+        });
+        CacheEntity entity = result.entity;
+        if (entity == null) {
+            return result;
+        }
+        if (!result.written) {
+            // 新值为null 删除缓存
+            entity.cacheInfo.getStats().invalidateCount.increment();
+            onRemoved(entity);
+            TinyLfuPolicy policy = evictionPolicy;
+            if (policy != null) {
+                policy.afterRemove(entity);
+            }
+            timerWheel.reschedule(entity);
+            result.entity = null;
+            if (external) {
+                CacheReplicator replicator = ObjectCache.getReplicator();
+                if (replicator != null) {
+                    replicator.publishInvalidate(key);
+                }
+            }
+            return result;
+        }
+        if (result.created || entity.getExpireTime() < result.oldExpireTime) {
+            // 新的缓存或者过期时间提前
+            timerWheel.reschedule(entity);
+        }
+        TinyLfuPolicy policy = evictionPolicy;
+        if (policy != null) {
+            policy.afterWrite(entity);
+        }
+        if (external && result.value != CacheEntity.NEGATIVE) {
+            WriteBehind writeBehindQueue = this.writeBehind;
+            if (writeBehindQueue != null) {
+                writeBehindQueue.offer(key, result.value);
+            }
+            CacheReplicator replicator = ObjectCache.getReplicator();
+            if (replicator != null) {
+                replicator.publishWrite(key, result.value, entity.getExpireTime());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 写入其他节点同步的值 不会异步写入和再次同步
+     *
+     * @param key       键
+     * @param value     值
+     * @param cacheTime 剩余缓存时间 毫秒
+     */
+    void putReplicated(String key, Object value, long cacheTime) {
+        staleLoading(key);
+        putEntity(key, value, cacheTime, false, false);
+    }
+
+    /**
+     * 原子计算缓存的值
+     * <p>
+     * 计算在key 的写锁中执行 同一个key 的compute、merge、replace、put 依次执行 不会丢失修改
+     * 计算函数应该简短 不能修改当前区域的其他缓存
+     *
+     * @param key       键
+     * @param remapping 参数为key 和当前值(不存在、已经过期或者负缓存时为null) 返回null 删除缓存
+     * @return 新值
+     */
+    public Object compute(String key, BiFunction<String, Object, Object> remapping) {
+        Objects.requireNonNull(remapping);
+        return unwrap(write(key, 0, true, (current, version) -> remapping.apply(key, unwrap(current))).value);
+    }
+
+    /**
+     * 原子合并缓存的值 不存在时使用value 否则使用合并函数的结果
+     *
+     * @param key       键
+     * @param value     值
+     * @param remapping 参数为当前值和value 返回null 删除缓存
+     * @return 新值
+     * @see #compute(String, BiFunction)
+     */
+    public Object merge(String key, Object value, BiFunction<Object, Object, Object> remapping) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remapping);
+        return unwrap(write(key, 0, true, (current, version) -> {
+            Object old = unwrap(current);
+            return old == null ? value : remapping.apply(old, value);
+        }).value);
+    }
+
+    /**
+     * 当前值等于expected 时替换 使用equals 比较
+     *
+     * @param key      键
+     * @param expected 期望的当前值
+     * @param value    新值
+     * @return 是否替换
+     */
+    public boolean replace(String key, Object expected, Object value) {
+        Objects.requireNonNull(expected);
+        Objects.requireNonNull(value);
+        return write(key, 0, true, (current, version) -> expected.equals(unwrap(current)) ? value : UNCHANGED).written;
+    }
+
+    /**
+     * 获取缓存的版本 每次修改后版本都会增加 删除后重新添加的缓存版本也不会重复
+     * <p>
+     * 需要先获取版本再读取值 配合{@link #compareAndSet(String, long, Object)} 实现乐观更新
+     *
+     * @param key 键
+     * @return 0 不存在、已经过期或者负缓存
+     */
+    public long getVersion(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        CacheEntity entity = cacheMap.get(key);
+        if (entity == null) {
+            entity = restore(key);
+        }
+        if (entity == null || entity.getExpireTime() <= CacheClock.currentTimeMillis()) {
+            return 0;
+        }
+        long version = entity.version;
+        Object value = entity.value;
+        return value == null || value == CacheEntity.NEGATIVE ? 0 : version;
+    }
+
+    /**
+     * 缓存版本没有变化时修改
+     *
+     * @param key     键
+     * @param version {@link #getVersion(String)} 获取的版本 0 表示缓存不存在时添加
+     * @param value   新值
+     * @return 是否修改
+     */
+    public boolean compareAndSet(String key, long version, Object value) {
+        Objects.requireNonNull(value);
+        return write(key, 0, true, (current, currentVersion) -> {
+            long expected = current == null || current == CacheEntity.NEGATIVE ? 0 : currentVersion;
+            return expected == version ? value : UNCHANGED;
+        }).written;
+    }
+
+    /**
+     * 根据当前值计算新值
+     */
+    @FunctionalInterface
+    private interface Remapping {
+        /**
+         * @param current 当前未过期的值 可能为负缓存 不存在时为null
+         * @param version 当前版本
+         * @return 新值 null 删除缓存 {@link #UNCHANGED} 不修改
+         */
+        Object apply(Object current, long version);
+    }
+
+    /**
+     * 正在进行的加载 加载期间key 被删除或者修改后标记为过时 过时的结果不写入缓存
+     */
+    private static final class Loading extends CompletableFuture<Object> {
+        private volatile boolean stale;
+    }
+
+    /**
+     * 写入结果
+     */
+    private static final class WriteResult {
+        private CacheEntity entity;
+        private Object old;
+        private Object value;
+        private boolean created;
+        private boolean written;
+        private long oldExpireTime;
+    }
+
+    /**
+     * 获取缓存
+     *
+     * @param key 键
+     * @return null 不存在、已经过期或者命中负缓存
+     */
+    public Object get(String key) {
+        CacheEntity cacheEntity = getEntity(key);
+        return cacheEntity == null ? null : unwrap(readValue(cacheEntity));
+    }
+
+    /**
+     * 获取缓存 区分未命中和命中负缓存
+     *
+     * @param key 键
+     * @return null 未命中  {@link Optional#empty()} 命中负缓存 数据不存在
+     */
+    public Optional<Object> lookup(String key) {
+        CacheEntity cacheEntity = getEntity(key);
+        Object value = cacheEntity == null ? null : readValue(cacheEntity);
+        if (value == null) {
+            return null;
+        }
+        return value == CacheEntity.NEGATIVE ? Optional.empty() : Optional.of(value);
+    }
+
+    /**
+     * 缓存不存在、已经过期或者是负缓存时添加
+     *
+     * @param key   键
+     * @param value 值
+     * @return null 添加成功 否则返回已经存在的值
+     */
+    public Object putIfAbsent(String key, Object value) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return putEntity(key, value, getCacheTime(key), true, true);
+    }
+
+    /**
+     * 添加负缓存 表示数据不存在 缓存时间使用配置的negativeTime
+     *
+     * @param key 键
+     */
+    public void putNegative(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        long negativeTime = getCacheInfo(key).getNegativeTime();
+        if (negativeTime <= 0) {
+            throw new IllegalArgumentException(key + " negativeTime not config");
+        }
+        staleLoading(key);
+        putEntity(key, CacheEntity.NEGATIVE, negativeTime);
+    }
+
+    /**
+     * 添加负缓存 表示数据不存在
+     *
+     * @param key       键
+     * @param cacheTime 缓存时间
+     * @param unit      时间单位
+     */
+    public void putNegative(String key, long cacheTime, TimeUnit unit) {
+        if (unit == null) {
+            throw new NullPointerException();
+        }
+        if (cacheTime <= 0) {
+            throw new IllegalArgumentException("cacheTime must >0");
+        }
+        staleLoading(key);
+        putEntity(key, CacheEntity.NEGATIVE, unit.toMillis(cacheTime));
+    }
+
+    private static Object unwrap(Object value) {
+        return value == CacheEntity.NEGATIVE ? null : value;
+    }
+
+    /**
+     * 获取缓存 缓存不存在时调用加载接口
+     * <p>
+     * 同一个key 同时只会有一个线程执行加载 其他线程等待加载结果
+     * 如果配置了{@link CacheConfig#refreshAhead()} 缓存时间超过比例后会异步刷新 刷新期间返回旧值
+     * 命中负缓存时直接返回null 不调用加载接口
+     *
+     * @param key    键
+     * @param loader 加载接口 返回null 时如果配置了negativeTime 添加负缓存
+     * @return 值
+     */
+    public Object get(String key, Function<String, Object> loader) {
+        return get(key, loader, getCacheTime(key));
+    }
+
+    /**
+     * 获取缓存 缓存不存在时调用加载接口 加载的值使用指定的缓存时间
+     *
+     * @param key       键
+     * @param loader    加载接口
+     * @param cacheTime 缓存时间
+     * @param unit      时间单位
+     * @return 值
+     * @see #get(String, Function)
+     */
+    public Object get(String key, Function<String, Object> loader, long cacheTime, TimeUnit unit) {
+        if (unit == null) {
+            throw new NullPointerException();
+        }
+        if (cacheTime <= 0) {
+            throw new IllegalArgumentException("cacheTime must >0");
+        }
+        return get(key, loader, unit.toMillis(cacheTime));
+    }
+
+    private Object get(String key, Function<String, Object> loader, long cacheTime) {
+        Objects.requireNonNull(loader);
+        CacheEntity cacheEntity = getEntity(key);
+        Object value = cacheEntity == null ? null : readValue(cacheEntity);
+        if (value == CacheEntity.NEGATIVE) {
+            return null;
+        }
+        if (value != null) {
+            double refreshAhead = cacheEntity.cacheInfo.getRefreshAhead();
+            if (refreshAhead > 0 && cacheEntity.needRefresh(refreshAhead)) {
+                refreshAsync(key, loader, cacheTime);
+            }
+            return value;
+        }
+        Loading future = new Loading();
+        Loading loading = loadingMap.putIfAbsent(key, future);
+        if (loading != null) {
+            return join(loading);
+        }
+        try {
+            value = load(key, loader, cacheTime, future);
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadingMap.remove(key, future);
+        }
+    }
+
+    /**
+     * 批量获取缓存 不存在的key 合并后调用一次批量加载接口
+     * <p>
+     * 其他线程正在加载的key 等待其结果 不会重复加载
+     *
+     * @param keys       键
+     * @param bulkLoader 批量加载接口 参数为需要加载的key 没有返回的key 如果配置了negativeTime 添加负缓存
+     * @return 存在值的key 和值
+     */
+    public Map<String, Object> getAll(Collection<String> keys, Function<Set<String>, Map<String, Object>> bulkLoader) {
+        Objects.requireNonNull(keys);
+        Objects.requireNonNull(bulkLoader);
+        Map<String, Object> result = new LinkedHashMap<>(keys.size());
+        Map<String, CompletableFuture<Object>> waits = new HashMap<>();
+        Map<String, Loading> loads = new LinkedHashMap<>();
+        for (String key : keys) {
+            Optional<Object> value = lookup(key);
+            if (value != null) {
+                value.ifPresent(o -> result.put(key, o));
+                continue;
+            }
+            if (loads.containsKey(key) || waits.containsKey(key)) {
+                continue;
+            }
+            Loading future = new Loading();
+            Loading loading = loadingMap.putIfAbsent(key, future);
+            if (loading == null) {
+                loads.put(key, future);
+            } else {
+                waits.put(key, loading);
+            }
+        }
+        if (!loads.isEmpty()) {
+            long startTime = System.nanoTime();
+            try {
+                Map<String, Object> loaded;
+                try {
+                    loaded = bulkLoader.apply(Collections.unmodifiableSet(loads.keySet()));
+                } finally {
+                    // 批量加载的耗时平均到每个key
+                    long loadTime = (System.nanoTime() - startTime) / loads.size();
+                    for (String key : loads.keySet()) {
+                        getCacheInfo(key).getStats().totalLoadTime.add(loadTime);
+                    }
+                }
+                for (Map.Entry<String, Loading> entry : loads.entrySet()) {
+                    String key = entry.getKey();
+                    Object value = loaded == null ? null : loaded.get(key);
+                    getCacheInfo(key).getStats().recordLoad(value != null, 0);
+                    if (value != null) {
+                        putLoaded(key, value, getCacheTime(key), entry.getValue());
+                        result.put(key, value);
+                    } else {
+                        putNegativeIfConfig(key, entry.getValue());
+                    }
+                    entry.getValue().complete(value);
+                }
+            } catch (RuntimeException | Error e) {
+                for (Map.Entry<String, Loading> entry : loads.entrySet()) {
+                    getCacheInfo(entry.getKey()).getStats().loadFailureCount.increment();
+                    entry.getValue().completeExceptionally(e);
+                }
+                throw e;
+            } finally {
+                for (Map.Entry<String, Loading> entry : loads.entrySet()) {
+                    loadingMap.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        for (Map.Entry<String, CompletableFuture<Object>> entry : waits.entrySet()) {
+            Object value = join(entry.getValue());
+            if (value != null) {
+                result.put(entry.getKey(), value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 异步刷新缓存 已经在加载的key 不再重复刷新
+     * <p>
+     * 线程池已经关闭时在当前线程刷新 保证等待加载结果的线程不会一直阻塞
+     */
+    private void refreshAsync(String key, Function<String, Object> loader, long cacheTime) {
+        Loading future = new Loading();
+        if (loadingMap.putIfAbsent(key, future) != null) {
+            return;
+        }
+        Runnable refresh = () -> {
+            try {
+                future.complete(load(key, loader, cacheTime, future));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+                DefaultSystemLog.ERROR().error("刷新缓存异常:" + key, e);
+            } finally {
+                loadingMap.remove(key, future);
+            }
+        };
+        PoolTask.execute(ObjectCache.class, refresh, refresh);
+    }
+
+    private Object load(String key, Function<String, Object> loader, long cacheTime, Loading loading) {
+        CacheStats stats = getCacheInfo(key).getStats();
+        long startTime = System.nanoTime();
+        Object value;
+        try {
+            value = loader.apply(key);
+        } catch (RuntimeException | Error e) {
+            stats.recordLoad(false, System.nanoTime() - startTime);
+            throw e;
+        }
+        stats.recordLoad(value != null, System.nanoTime() - startTime);
+        if (value != null) {
+            putLoaded(key, value, cacheTime, loading);
+        } else {
+            putNegativeIfConfig(key, loading);
+        }
+        return value;
+    }
+
+    private void putNegativeIfConfig(String key, Loading loading) {
+        long negativeTime = getCacheInfo(key).getNegativeTime();
+        if (negativeTime > 0) {
+            putLoaded(key, CacheEntity.NEGATIVE, negativeTime, loading);
+        }
+    }
+
+    /**
+     * 写入加载的值 加载期间key 被删除或者修改时不写入 避免旧值覆盖
+     * <p>
+     * 删除先标记再删除缓存 写入后标记的由删除方删除 写入后才看到标记的在这里删除刚写入的版本
+     */
+    private void putLoaded(String key, Object value, long cacheTime, Loading loading) {
+        if (loading.stale) {
+            return;
+        }
+        WriteResult result = write(key, cacheTime, false, (current, version) -> loading.stale ? UNCHANGED : value);
+        if (result.written && loading.stale) {
+            long loadedVersion = result.entity.version;
+            write(key, 0, false, (current, version) -> version == loadedVersion ? null : UNCHANGED);
+        }
+    }
+
+    /**
+     * 标记正在加载的key 为过时
+     */
+    private void staleLoading(Predicate<String> predicate) {
+        for (Map.Entry<String, Loading> entry : loadingMap.entrySet()) {
+            if (predicate.test(entry.getKey())) {
+                entry.getValue().stale = true;
+            }
+        }
+    }
+
+    private void staleLoading(String key) {
+        Loading loading = loadingMap.get(key);
+        if (loading != null) {
+            loading.stale = true;
+        }
+    }
+
+    private static Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 获取key 配置的缓存时间
+     *
+     * @param key 键
+     * @return 毫秒
+     */
+    private long getCacheTime(String key) {
+        return getCacheInfo(key).getCacheTime();
+    }
+
+    private CacheInfo getCacheInfo(String key) {
+        return cacheInfoMap.getOrDefault(key, defaultCacheInfo);
+    }
+
+    /**
+     * 获取未过期的缓存 并记录命中统计
+     *
+     * @param key 键
+     * @return null 不存在或者已经过期
+     */
+    private CacheEntity getEntity(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        CacheEntity cacheEntity = cacheMap.get(key);
+        if (cacheEntity == null) {
+            cacheEntity = restore(key);
+        }
+        if (cacheEntity == null) {
+            getCacheInfo(key).getStats().missCount.increment();
+            return null;
+        }
+        if (cacheEntity.getValue() == null) {
+            cacheEntity.cacheInfo.getStats().missCount.increment();
+            return null;
+        }
+        if (cacheEntity.value == CacheEntity.NEGATIVE) {
+            cacheEntity.cacheInfo.getStats().negativeHitCount.increment();
+        } else {
+            cacheEntity.cacheInfo.getStats().hitCount.increment();
+        }
+        TinyLfuPolicy policy = evictionPolicy;
+        if (policy != null) {
+            policy.afterRead(cacheEntity);
+        }
+        return cacheEntity;
+    }
+
+    /**
+     * 从启动时加载的快照中恢复缓存 已经存在的缓存不会被覆盖
+     *
+     * @param key 键
+     * @return null 快照中不存在
+     */
+    private CacheEntity restore(String key) {
+        CacheSnapshot snapshot = ObjectCache.getSnapshot();
+        if (snapshot == null) {
+            return null;
+        }
+        CacheSnapshot.Entry entry = snapshot.take(key);
+        if (entry == null) {
+            return null;
+        }
+        long cacheTime = entry.expireTime - CacheClock.currentTimeMillis();
+        if (cacheTime > 0) {
+            putEntity(key, entry.value, cacheTime, true, false);
+            if (entry.tags.length > 0) {
+                tag(key, entry.tags);
+            }
+        }
+        return cacheMap.get(key);
+    }
+
+    /**
+     * 当前所有缓存 用于保存快照
+     *
+     * @return 缓存
+     */
+    Collection<CacheEntity> entities() {
+        return cacheMap.values();
+    }
+
+    /**
+     * 获取权重计算实例 已经使用相同类型时复用
+     *
+     * @param cls 权重计算类 需要无参构造
+     * @return 实例
+     */
+    Weigher getWeigher(Class<? extends Weigher> cls) {
+        Weigher current = this.weigher;
+        if (current != null && current.getClass() == cls) {
+            return current;
+        }
+        try {
+            return cls.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalArgumentException("weigher create fail:" + cls, e);
+        }
+    }
+
+    private static int weigh(Weigher weigher, String key, Object value) {
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight must >=0:" + key);
+        }
+        return weight;
+    }
+
+    /**
+     * 写入前判断是否直接放入堆外
+     *
+     * @param value 值
+     * @return 原值或者堆外位置
+     */
+    private Object toStoreValue(Object value) {
+        OffHeapStore store = offHeapStore;
+        if (store == null || store.getThreshold() <= 0) {
+            return value;
+        }
+        byte[] bytes = OffHeapStore.serialize(value);
+        if (bytes == null || bytes.length < store.getThreshold()) {
+            return value;
+        }
+        OffHeapStore.OffHeapValue offHeapValue = store.write(bytes);
+        return offHeapValue == null ? value : offHeapValue;
+    }
+
+    /**
+     * 读取缓存的值 堆外的值反序列化后返回
+     *
+     * @param entity 缓存
+     * @return null 已经被移除
+     */
+    Object readValue(CacheEntity entity) {
+        while (true) {
+            Object value = entity.value;
+            if (!(value instanceof OffHeapStore.OffHeapValue)) {
+                return value;
+            }
+            Object read = offHeapStore.read((OffHeapStore.OffHeapValue) value);
+            if (read != null) {
+                return read;
+            }
+            if (entity.value == value) {
+                return null;
+            }
+            // 读取期间值被修改 重新读取
+        }
+    }
+
+    /**
+     * 释放被替换或者移除的堆外值
+     *
+     * @param value 值
+     */
+    private void releaseValue(Object value) {
+        if (value instanceof OffHeapStore.OffHeapValue) {
+            offHeapStore.free((OffHeapStore.OffHeapValue) value);
+        }
+    }
+
+    /**
+     * 淘汰时把值转移到堆外 在淘汰锁中调用
+     *
+     * @param entity 缓存
+     * @return true 缓存保留
+     */
+    private boolean demote(CacheEntity entity) {
+        Object value = entity.value;
+        if (value instanceof OffHeapStore.OffHeapValue) {
+            return true;
+        }
+        if (value == null) {
+            return false;
+        }
+        byte[] bytes = OffHeapStore.serialize(value);
+        if (bytes == null) {
+            return false;
+        }
+        OffHeapStore.OffHeapValue offHeapValue = offHeapStore.write(bytes);
+        if (offHeapValue == null) {
+            return false;
+        }
+        if (!entity.casValue(value, offHeapValue)) {
+            // 期间被重新写入 由写入线程重新加入淘汰队列
+            offHeapStore.free(offHeapValue);
+        }
+        return true;
+    }
+
+    /**
+     * 给缓存添加标签 可以通过{@link #invalidateTag(String)} 批量删除 缓存被移除后标签同时失效
+     *
+     * @param key  键
+     * @param tags 标签
+     * @return false 缓存不存在
+     */
+    public boolean tag(String key, String... tags) {
+        Objects.requireNonNull(tags);
+        CacheEntity entity = cacheMap.get(key);
+        if (entity == null) {
+            return false;
+        }
+        synchronized (entity) {
+            Set<String> tagSet = new LinkedHashSet<>();
+            if (entity.tags != null) {
+                Collections.addAll(tagSet, entity.tags);
+            }
+            Collections.addAll(tagSet, tags);
+            entity.tags = tagSet.toArray(new String[0]);
+        }
+        for (String tag : tags) {
+            tagIndex.compute(tag, (t, entities) -> {
+                if (entities == null) {
+                    entities = new HashSet<>();
+                }
+                entities.add(entity);
+                return entities;
+            });
+        }
+        if (cacheMap.get(key) != entity) {
+            // 添加期间缓存被移除
+            untag(entity);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 删除缓存
+     *
+     * @param key 键
+     * @return 是否存在
+     */
+    public boolean invalidate(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        CacheReplicator replicator = ObjectCache.getReplicator();
+        if (replicator != null) {
+            replicator.publishInvalidate(key);
+        }
+        staleLoading(key);
+        CacheSnapshot snapshot = ObjectCache.getSnapshot();
+        boolean remove = snapshot != null && snapshot.remove(key);
+        CacheEntity entity = cacheMap.get(key);
+        return (entity != null && invalidateEntity(entity)) || remove;
+    }
+
+    /**
+     * 删除指定前缀的缓存 耗时和匹配的条数成正比
+     *
+     * @param prefix 前缀
+     * @return 删除的条数
+     */
+    public int invalidatePrefix(String prefix) {
+        if (prefix == null) {
+            throw new NullPointerException();
+        }
+        CacheReplicator replicator = ObjectCache.getReplicator();
+        if (replicator != null) {
+            replicator.publishInvalidatePrefix(name, prefix);
+        }
+        staleLoading(key -> key.startsWith(prefix));
+        int count = removeSnapshot((key, tags) -> key.startsWith(prefix));
+        for (Map.Entry<String, CacheEntity> entry : keyIndex.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            if (invalidateEntity(entry.getValue())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 删除指定标签的缓存
+     *
+     * @param tag 标签
+     * @return 删除的条数
+     * @see #tag(String, String...)
+     */
+    public int invalidateTag(String tag) {
+        if (tag == null) {
+            throw new NullPointerException();
+        }
+        CacheReplicator replicator = ObjectCache.getReplicator();
+        if (replicator != null) {
+            replicator.publishInvalidateTag(name, tag);
+        }
+        // 加载完成前不知道key 的标签
+        staleLoading(key -> true);
+        int count = removeSnapshot((key, tags) -> Arrays.asList(tags).contains(tag));
+        Set<CacheEntity> entities = tagIndex.remove(tag);
+        if (entities != null) {
+            for (CacheEntity entity : entities) {
+                if (invalidateEntity(entity)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 删除区域中所有缓存
+     *
+     * @return 删除的条数
+     */
+    public int invalidateAll() {
+        CacheReplicator replicator = ObjectCache.getReplicator();
+        if (replicator != null) {
+            replicator.publishInvalidateAll(name);
+        }
+        staleLoading(key -> true);
+        int count = removeSnapshot((key, tags) -> true);
+        for (CacheEntity entity : cacheMap.values()) {
+            if (invalidateEntity(entity)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean invalidateEntity(CacheEntity entity) {
+        if (!cacheMap.remove(entity.getKey(), entity)) {
+            return false;
+        }
+        entity.cacheInfo.getStats().invalidateCount.increment();
+        onRemoved(entity);
+        TinyLfuPolicy policy = evictionPolicy;
+        if (policy != null) {
+            policy.afterRemove(entity);
+        }
+        // 从时间轮中移除
+        timerWheel.reschedule(entity);
+        return true;
+    }
+
+    /**
+     * 删除启动快照中属于当前区域并且符合条件的缓存
+     */
+    private int removeSnapshot(BiPredicate<String, String[]> predicate) {
+        CacheSnapshot snapshot = ObjectCache.getSnapshot();
+        if (snapshot == null) {
+            return 0;
+        }
+        return snapshot.removeIf((key, tags) -> ObjectCache.getRegion(key) == this && predicate.test(key, tags));
+    }
+
+    /**
+     * 缓存从map 中移除后 释放值和索引
+     *
+     * @param entity 缓存
+     */
+    private void onRemoved(CacheEntity entity) {
+        entity.cacheInfo.getStats().size.decrement();
+        releaseValue(entity.clearValue());
+        keyIndex.remove(entity.getKey(), entity);
+        untag(entity);
+    }
+
+    private void untag(CacheEntity entity) {
+        String[] tags = entity.tags;
+        if (tags == null) {
+            return;
+        }
+        for (String tag : tags) {
+            tagIndex.computeIfPresent(tag, (t, entities) -> {
+                entities.remove(entity);
+                return entities.isEmpty() ? null : entities;
+            });
+        }
+    }
+
+    /**
+     * 推进时间轮 清理过期的缓存 并检查异步写入 由后台清理线程调用
+     *
+     * @param now 当前时间
+     */
+    void expire(long now) {
+        timerWheel.advance(now, entity -> cacheMap.get(entity.getKey()) == entity, this::expireEntity);
+        WriteBehind writeBehindQueue = writeBehind;
+        if (writeBehindQueue != null) {
+            writeBehindQueue.tick(now);
+        }
+    }
+
+    private void expireEntity(CacheEntity entity) {
+        if (cacheMap.remove(entity.getKey(), entity)) {
+            entity.cacheInfo.getStats().expireCount.increment();
+            onRemoved(entity);
+            TinyLfuPolicy policy = evictionPolicy;
+            if (policy != null) {
+                policy.afterRemove(entity);
+            }
+        }
+    }
+
+    /**
+     * 获取区域的统计信息 按key 分组
+     *
+     * @return json
+     */
+    public JSONObject getStatusInfo() {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("name", name);
+        jsonObject.put("maximumSize", getMaximumSize());
+        jsonObject.put("maximumWeight", getMaximumWeight());
+        jsonObject.put("weightedSize", getWeightedSize());
+        OffHeapStore store = offHeapStore;
+        if (store != null) {
+            JSONObject offHeap = new JSONObject();
+            offHeap.put("capacity", store.getCapacity());
+            offHeap.put("allocatedBytes", store.getAllocatedBytes());
+            offHeap.put("usedBytes", store.getUsedBytes());
+            offHeap.put("count", store.getCount());
+            offHeap.put("threshold", store.getThreshold());
+            jsonObject.put("offHeap", offHeap);
+        }
+        WriteBehind writeBehindQueue = writeBehind;
+        if (writeBehindQueue != null) {
+            JSONObject writer = new JSONObject();
+            writer.put("delay", writeBehindQueue.getDelay());
+            writer.put("batchSize", writeBehindQueue.getBatchSize());
+            writer.put("pendingCount", writeBehindQueue.getPendingCount());
+            writer.put("writeCount", writeBehindQueue.getWriteCount());
+            writer.put("batchCount", writeBehindQueue.getBatchCount());
+            writer.put("failureCount", writeBehindQueue.getFailureCount());
+            jsonObject.put("writer", writer);
+        }
+        JSONArray groups = new JSONArray();
+        List<CacheInfo> cacheInfos = new ArrayList<>(cacheInfoMap.size() + 1);
+        cacheInfos.add(defaultCacheInfo);
+        cacheInfos.addAll(cacheInfoMap.values());
+        for (CacheInfo cacheInfo : cacheInfos) {
+            JSONObject group = new JSONObject();
+            group.put("name", cacheInfo.getKey() == null ? "default" : cacheInfo.getKey());
+            group.put("cacheTime", cacheInfo.getCacheTime());
+            group.put("expireAfterAccess", cacheInfo.isExpireAfterAccess());
+            group.put("negativeTime", cacheInfo.getNegativeTime());
+            cacheInfo.getStats().sumTo(group);
+            CacheStats.computeRate(group);
+            groups.add(group);
+            cacheInfo.getStats().sumTo(jsonObject);
+        }
+        CacheStats.computeRate(jsonObject);
+        jsonObject.put("groups", groups);
+        return jsonObject;
+    }
+}
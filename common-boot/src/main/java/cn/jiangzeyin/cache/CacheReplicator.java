@@ -0,0 +1,790 @@
+package cn.jiangzeyin.cache;
+
+import cn.jiangzeyin.common.DefaultSystemLog;
+import cn.jiangzeyin.util.AllowedObjectInputStream;
+import com.alibaba.fastjson.JSONObject;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ObjectCache 节点间同步
+ * <p>
+ * 业务修改和删除缓存后通过UDP 通知其他节点 其他节点删除本地缓存 或者直接写入序列化后不超过阈值的值
+ * 过期和淘汰不会同步 加载接口加载的值也不会同步
+ * <p>
+ * 发送线程每{@link #FLUSH_INTERVAL} 毫秒把积累的操作按key 合并后打包发送 每个包有递增的序号
+ * 接收方记录每个节点连续收到的最大序号(版本向量) 发现缺少的序号后请求重发
+ * 发送方只保留最近{@link #LOG_SIZE} 个包 请求的包已经不存在时通知接收方清空本地缓存
+ * 发送方定时发送心跳 带上最新的序号 用于发现最后几个包丢失
+ * <p>
+ * 节点地址可以是单播地址或者组播地址 所有节点的区域名称需要一致
+ * <p>
+ * 每个包末尾带有共享密钥计算的HMAC-SHA256 校验失败的包丢弃 单播时只接收和回复配置的节点
+ * 同步的值通过{@link AllowedObjectInputStream} 只反序列化允许的类：字符串、基本类型的包装类、常用集合、java.math、java.time 和指定包下的类
+ *
+ * @author jiangzeyin
+ * data 2018/9/17
+ */
+public final class CacheReplicator implements Closeable {
+    private static final int MAGIC = 0x4F424352;
+    private static final byte TYPE_DATA = 1;
+    private static final byte TYPE_HEARTBEAT = 2;
+    private static final byte TYPE_NACK = 3;
+    private static final byte TYPE_RESET = 4;
+
+    private static final byte OP_INVALIDATE = 1;
+    private static final byte OP_VALUE = 2;
+    private static final byte OP_PREFIX = 3;
+    private static final byte OP_TAG = 4;
+    private static final byte OP_ALL = 5;
+    /**
+     * 单个包最大字节数
+     */
+    private static final int MAX_PACKET = 8 * 1024;
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 8 + 4;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_SIZE = 32;
+    private static final int MIN_SECRET_SIZE = 16;
+    /**
+     * 批量发送间隔 毫秒
+     */
+    private static final long FLUSH_INTERVAL = 10;
+    private static final long HEARTBEAT_INTERVAL = 1000;
+    /**
+     * 发送方保留用于重发的包数
+     */
+    private static final int LOG_SIZE = 1024;
+    /**
+     * 接收方缓存的乱序包数 超出后清空本地缓存
+     */
+    private static final int MAX_BUFFERED = 256;
+    /**
+     * 超过该时间没有收到消息的节点会被移除
+     */
+    private static final long PEER_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    private final long nodeId = new Random().nextLong();
+    private final DatagramChannel channel;
+    private final List<InetSocketAddress> peers;
+    /**
+     * 单播节点 只接收这些地址发送的包
+     */
+    private final Set<InetSocketAddress> unicastPeers = new HashSet<>();
+    /**
+     * 组播地址 无法确定来源 只依靠HMAC 校验
+     */
+    private final List<InetSocketAddress> multicastPeers = new ArrayList<>();
+    private final int valueThreshold;
+    private final Mac mac;
+    private final String[] allowedPackages;
+    private final ConcurrentLinkedQueue<Op> queue = new ConcurrentLinkedQueue<>();
+    /**
+     * 最近发送的包 下标为序号取余
+     */
+    private final byte[][] log = new byte[LOG_SIZE][];
+    private final long[] logSequence = new long[LOG_SIZE];
+    private final Map<Long, PeerState> peerStateMap = new HashMap<>();
+    private final Thread senderThread;
+    private final Thread receiverThread;
+    private long sequence;
+    private volatile boolean closed;
+
+    private final AtomicLong sendCount = new AtomicLong();
+    private final AtomicLong receiveCount = new AtomicLong();
+    private final AtomicLong resendCount = new AtomicLong();
+    private final AtomicLong resetCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong dropCount = new AtomicLong();
+
+    private CacheReplicator(DatagramChannel channel, List<InetSocketAddress> peers, int valueThreshold, Mac mac, String[] allowedPackages) {
+        this.channel = channel;
+        this.peers = peers;
+        for (InetSocketAddress peer : peers) {
+            if (peer.getAddress().isMulticastAddress()) {
+                multicastPeers.add(peer);
+            } else {
+                unicastPeers.add(peer);
+            }
+        }
+        this.valueThreshold = valueThreshold;
+        this.mac = mac;
+        this.allowedPackages = allowedPackages;
+        this.senderThread = new Thread(this::sendLoop, "ObjectCache-replicator-send");
+        this.senderThread.setDaemon(true);
+        this.receiverThread = new Thread(this::receiveLoop, "ObjectCache-replicator-receive");
+        this.receiverThread.setDaemon(true);
+    }
+
+    /**
+     * 开启节点间同步 同时只能开启一个
+     *
+     * @param bindAddress     本节点监听的地址
+     * @param peers           其他节点的地址 可以是组播地址
+     * @param valueThreshold  序列化后不超过该字节数的值直接同步 0 只同步删除 最大4096
+     * @param secret          所有节点相同的共享密钥 至少16字节
+     * @param allowedPackages 同步的值中允许反序列化的业务类所在的包 如：com.example.model
+     * @return 同步对象
+     * @throws IOException 端口绑定失败
+     */
+    public static synchronized CacheReplicator start(InetSocketAddress bindAddress, List<InetSocketAddress> peers, int valueThreshold,
+                                                     String secret, String... allowedPackages) throws IOException {
+        if (ObjectCache.getReplicator() != null) {
+            throw new IllegalStateException("replicator already start");
+        }
+        CacheReplicator replicator = open(bindAddress, peers, valueThreshold, secret, allowedPackages);
+        ObjectCache.setReplicator(replicator);
+        DefaultSystemLog.LOG().info("开启缓存同步:" + bindAddress + " 节点:" + peers);
+        return replicator;
+    }
+
+    /**
+     * 创建并启动同步 不注册到{@link ObjectCache}
+     */
+    static CacheReplicator open(InetSocketAddress bindAddress, List<InetSocketAddress> peers, int valueThreshold,
+                                String secret, String... allowedPackages) throws IOException {
+        Objects.requireNonNull(bindAddress);
+        Objects.requireNonNull(peers);
+        Objects.requireNonNull(allowedPackages);
+        if (valueThreshold < 0 || valueThreshold > MAX_PACKET / 2) {
+            throw new IllegalArgumentException("valueThreshold must >=0 and <=" + MAX_PACKET / 2);
+        }
+        Mac mac = createMac(secret);
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(bindAddress);
+            for (InetSocketAddress peer : peers) {
+                if (peer.getAddress().isMulticastAddress()) {
+                    channel.join(peer.getAddress(), multicastInterface(bindAddress));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        CacheReplicator replicator = new CacheReplicator(channel, new ArrayList<>(peers), valueThreshold, mac, allowedPackages.clone());
+        replicator.receiverThread.start();
+        replicator.senderThread.start();
+        return replicator;
+    }
+
+    private static Mac createMac(String secret) {
+        if (secret == null || secret.getBytes(StandardCharsets.UTF_8).length < MIN_SECRET_SIZE) {
+            throw new IllegalArgumentException("secret must >=" + MIN_SECRET_SIZE + " bytes");
+        }
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(MAC_ALGORITHM + " not support", e);
+        }
+    }
+
+    private static NetworkInterface multicastInterface(InetSocketAddress bindAddress) throws IOException {
+        NetworkInterface networkInterface = null;
+        if (!bindAddress.getAddress().isAnyLocalAddress()) {
+            networkInterface = NetworkInterface.getByInetAddress(bindAddress.getAddress());
+        }
+        if (networkInterface == null) {
+            networkInterface = NetworkInterface.getByInetAddress(InetAddress.getLocalHost());
+        }
+        if (networkInterface == null) {
+            throw new SocketException("multicast network interface not found:" + bindAddress);
+        }
+        return networkInterface;
+    }
+
+    /**
+     * 实际监听的地址
+     *
+     * @return 地址
+     * @throws IOException io
+     */
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    /**
+     * 停止同步 未发送的操作会先发送
+     */
+    @Override
+    public void close() {
+        synchronized (CacheReplicator.class) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (ObjectCache.getReplicator() == this) {
+                ObjectCache.setReplicator(null);
+            }
+        }
+        senderThread.interrupt();
+        try {
+            senderThread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            DefaultSystemLog.ERROR().error("关闭缓存同步失败", e);
+        }
+    }
+
+    void publishWrite(String key, Object value, long expireTime) {
+        if (isReceiving()) {
+            return;
+        }
+        if (valueThreshold > 0) {
+            byte[] bytes = OffHeapStore.serialize(value);
+            if (bytes != null && bytes.length <= valueThreshold) {
+                queue.offer(new Op(OP_VALUE, null, key, bytes, expireTime));
+                return;
+            }
+        }
+        queue.offer(new Op(OP_INVALIDATE, null, key, null, 0));
+    }
+
+    void publishInvalidate(String key) {
+        if (!isReceiving()) {
+            queue.offer(new Op(OP_INVALIDATE, null, key, null, 0));
+        }
+    }
+
+    void publishInvalidatePrefix(String region, String prefix) {
+        if (!isReceiving()) {
+            queue.offer(new Op(OP_PREFIX, region, prefix, null, 0));
+        }
+    }
+
+    void publishInvalidateTag(String region, String tag) {
+        if (!isReceiving()) {
+            queue.offer(new Op(OP_TAG, region, tag, null, 0));
+        }
+    }
+
+    void publishInvalidateAll(String region) {
+        if (!isReceiving()) {
+            queue.offer(new Op(OP_ALL, region, "", null, 0));
+        }
+    }
+
+    /**
+     * 接收线程应用其他节点的操作时不再同步
+     */
+    private boolean isReceiving() {
+        return Thread.currentThread() == receiverThread;
+    }
+
+    private void sendLoop() {
+        long lastHeartbeat = 0;
+        while (true) {
+            boolean interrupted = false;
+            try {
+                TimeUnit.MILLISECONDS.sleep(FLUSH_INTERVAL);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            try {
+                flush();
+                long now = System.currentTimeMillis();
+                if (now - lastHeartbeat >= HEARTBEAT_INTERVAL) {
+                    lastHeartbeat = now;
+                    sendHeartbeat();
+                    removeTimeoutPeers(now);
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                errorCount.incrementAndGet();
+                DefaultSystemLog.ERROR().error("缓存同步发送异常", e);
+            }
+            if (interrupted || closed) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 合并队列中的操作 同一个key 只保留最后一个 按包大小拆分发送
+     */
+    private void flush() throws IOException {
+        if (queue.isEmpty()) {
+            return;
+        }
+        LinkedHashMap<String, Op> compacted = new LinkedHashMap<>();
+        Op op;
+        while ((op = queue.poll()) != null) {
+            String compactKey = op.compactKey();
+            compacted.remove(compactKey);
+            compacted.put(compactKey, op);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(MAX_PACKET);
+        DataOutputStream out = new DataOutputStream(body);
+        int count = 0;
+        for (Op item : compacted.values()) {
+            byte[] encoded = item.encode();
+            if (HEADER_SIZE + MAC_SIZE + encoded.length > MAX_PACKET) {
+                DefaultSystemLog.ERROR().error("缓存同步key 过长:" + item.key);
+                continue;
+            }
+            if (HEADER_SIZE + MAC_SIZE + body.size() + encoded.length > MAX_PACKET) {
+                sendData(body.toByteArray(), count);
+                body.reset();
+                count = 0;
+            }
+            out.write(encoded);
+            count++;
+        }
+        if (count > 0) {
+            sendData(body.toByteArray(), count);
+        }
+    }
+
+    private void sendData(byte[] body, int count) throws IOException {
+        long seq;
+        byte[] packet;
+        synchronized (log) {
+            seq = ++sequence;
+            packet = packet(TYPE_DATA, seq, body, count);
+            int index = (int) (seq % LOG_SIZE);
+            log[index] = packet;
+            logSequence[index] = seq;
+        }
+        sendToPeers(packet);
+    }
+
+    private void sendHeartbeat() throws IOException {
+        long seq;
+        synchronized (log) {
+            seq = sequence;
+        }
+        sendToPeers(packet(TYPE_HEARTBEAT, seq, new byte[0], 0));
+    }
+
+    private void sendToPeers(byte[] packet) throws IOException {
+        for (InetSocketAddress peer : peers) {
+            channel.send(ByteBuffer.wrap(packet), peer);
+            sendCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 发送到组播地址 组播时无法确定回复的单播地址
+     */
+    private void sendToMulticast(byte[] packet) throws IOException {
+        for (InetSocketAddress peer : multicastPeers) {
+            channel.send(ByteBuffer.wrap(packet), peer);
+        }
+    }
+
+    /**
+     * 回复请求 单播时只发送到配置的节点
+     *
+     * @param peer 请求方 null 表示来自组播
+     */
+    private void reply(byte[] packet, InetSocketAddress peer) throws IOException {
+        if (peer == null) {
+            sendToMulticast(packet);
+        } else {
+            channel.send(ByteBuffer.wrap(packet), peer);
+        }
+    }
+
+    /**
+     * 打包 头部+内容+HMAC
+     */
+    private byte[] packet(byte type, long seq, byte[] body, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + body.length + MAC_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.put(type);
+        buffer.putLong(nodeId);
+        buffer.putLong(seq);
+        buffer.putInt(count);
+        buffer.put(body);
+        buffer.put(sign(buffer.array(), HEADER_SIZE + body.length));
+        return buffer.array();
+    }
+
+    private byte[] sign(byte[] bytes, int length) {
+        synchronized (mac) {
+            mac.update(bytes, 0, length);
+            return mac.doFinal();
+        }
+    }
+
+    /**
+     * 校验包末尾的HMAC
+     */
+    private boolean verify(ByteBuffer buffer) {
+        int length = buffer.remaining() - MAC_SIZE;
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        byte[] expected = sign(bytes, length);
+        byte[] actual = Arrays.copyOfRange(bytes, length, bytes.length);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            return false;
+        }
+        buffer.limit(buffer.limit() - MAC_SIZE);
+        return true;
+    }
+
+    /**
+     * 查找来源对应的节点
+     *
+     * @param source 来源地址
+     * @return null 不是单播节点
+     */
+    private InetSocketAddress findPeer(SocketAddress source) {
+        return source instanceof InetSocketAddress && unicastPeers.contains(source) ? (InetSocketAddress) source : null;
+    }
+
+    private void receiveLoop() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET);
+        while (!closed) {
+            SocketAddress source;
+            try {
+                buffer.clear();
+                source = channel.receive(buffer);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                errorCount.incrementAndGet();
+                DefaultSystemLog.ERROR().error("缓存同步接收异常", e);
+                continue;
+            }
+            buffer.flip();
+            try {
+                onPacket(buffer, source);
+            } catch (IOException | RuntimeException e) {
+                errorCount.incrementAndGet();
+                DefaultSystemLog.ERROR().error("缓存同步消息处理异常", e);
+            }
+        }
+    }
+
+    private void onPacket(ByteBuffer buffer, SocketAddress source) throws IOException {
+        InetSocketAddress peer = findPeer(source);
+        if (peer == null && multicastPeers.isEmpty()) {
+            // 不是配置的节点
+            dropCount.incrementAndGet();
+            return;
+        }
+        if (buffer.remaining() < HEADER_SIZE + MAC_SIZE || buffer.getInt(buffer.position()) != MAGIC || !verify(buffer)) {
+            dropCount.incrementAndGet();
+            return;
+        }
+        buffer.getInt();
+        byte type = buffer.get();
+        long sender = buffer.getLong();
+        long seq = buffer.getLong();
+        int count = buffer.getInt();
+        if (sender == nodeId) {
+            // 组播收到自己发送的包
+            return;
+        }
+        receiveCount.incrementAndGet();
+        switch (type) {
+            case TYPE_DATA:
+                byte[] body = new byte[buffer.remaining()];
+                buffer.get(body);
+                onData(sender, seq, count, body, peer);
+                break;
+            case TYPE_HEARTBEAT:
+                onHeartbeat(sender, seq, peer);
+                break;
+            case TYPE_NACK:
+                long target = buffer.getLong();
+                long to = buffer.getLong();
+                if (target == nodeId) {
+                    resend(sender, seq, to, peer);
+                }
+                break;
+            case TYPE_RESET:
+                long resetTarget = buffer.getLong();
+                if (resetTarget == nodeId) {
+                    PeerState state = peerState(sender);
+                    reset(state, seq);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private PeerState peerState(long sender) {
+        synchronized (peerStateMap) {
+            PeerState state = peerStateMap.computeIfAbsent(sender, id -> new PeerState());
+            state.lastSeen = System.currentTimeMillis();
+            return state;
+        }
+    }
+
+    private void onData(long sender, long seq, int count, byte[] body, InetSocketAddress source) throws IOException {
+        PeerState state = peerState(sender);
+        if (state.received < 0) {
+            // 第一次收到该节点的消息 从当前序号开始
+            state.received = seq - 1;
+        }
+        if (seq <= state.received) {
+            return;
+        }
+        if (seq > state.received + 1) {
+            if (state.buffered.size() >= MAX_BUFFERED) {
+                reset(state, seq);
+                apply(count, body);
+                return;
+            }
+            state.buffered.put(seq, new Packet(count, body));
+            requestResend(sender, state, seq - 1, source);
+            return;
+        }
+        apply(count, body);
+        state.received = seq;
+        // 应用之后连续的乱序包
+        Packet packet;
+        while ((packet = state.buffered.remove(state.received + 1)) != null) {
+            apply(packet.count, packet.body);
+            state.received++;
+        }
+        state.buffered.headMap(state.received + 1).clear();
+    }
+
+    private void onHeartbeat(long sender, long seq, InetSocketAddress source) throws IOException {
+        PeerState state = peerState(sender);
+        if (state.received < 0) {
+            state.received = seq;
+            return;
+        }
+        if (seq > state.received) {
+            requestResend(sender, state, seq, source);
+        }
+    }
+
+    /**
+     * 请求重发缺少的包 同一个节点每{@link #FLUSH_INTERVAL} 毫秒最多请求一次
+     */
+    private void requestResend(long sender, PeerState state, long to, InetSocketAddress source) throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - state.lastNack < FLUSH_INTERVAL) {
+            return;
+        }
+        state.lastNack = now;
+        ByteBuffer body = ByteBuffer.allocate(16);
+        body.putLong(sender);
+        body.putLong(to);
+        reply(packet(TYPE_NACK, state.received + 1, body.array(), 0), source);
+    }
+
+    /**
+     * 重发请求的包 已经不存在时通知对方清空本地缓存
+     */
+    private void resend(long requester, long from, long to, InetSocketAddress target) throws IOException {
+        List<byte[]> packets = new ArrayList<>();
+        boolean lost = false;
+        long current;
+        synchronized (log) {
+            current = sequence;
+            for (long seq = from; seq <= Math.min(to, current); seq++) {
+                int index = (int) (seq % LOG_SIZE);
+                if (logSequence[index] != seq) {
+                    lost = true;
+                    break;
+                }
+                packets.add(log[index]);
+            }
+        }
+        if (lost) {
+            ByteBuffer body = ByteBuffer.allocate(8);
+            body.putLong(requester);
+            reply(packet(TYPE_RESET, current, body.array(), 0), target);
+            resendCount.incrementAndGet();
+            return;
+        }
+        for (byte[] packet : packets) {
+            reply(packet, target);
+            resendCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 丢失的消息无法恢复 清空本地缓存
+     */
+    private void reset(PeerState state, long seq) {
+        resetCount.incrementAndGet();
+        DefaultSystemLog.LOG().info("缓存同步消息丢失 清空本地缓存");
+        ObjectCache.invalidateAll();
+        state.received = seq;
+        state.buffered.clear();
+    }
+
+    private void apply(int count, byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        for (int i = 0; i < count; i++) {
+            byte op = in.readByte();
+            String region = in.readUTF();
+            String key = in.readUTF();
+            switch (op) {
+                case OP_INVALIDATE:
+                    ObjectCache.getRegion(key).invalidate(key);
+                    break;
+                case OP_VALUE:
+                    long cacheTime = in.readLong();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    applyValue(key, bytes, cacheTime);
+                    break;
+                case OP_PREFIX:
+                case OP_TAG:
+                case OP_ALL:
+                    CacheRegion cacheRegion = ObjectCache.getRegionByName(region);
+                    if (cacheRegion == null) {
+                        break;
+                    }
+                    if (op == OP_PREFIX) {
+                        cacheRegion.invalidatePrefix(key);
+                    } else if (op == OP_TAG) {
+                        cacheRegion.invalidateTag(key);
+                    } else {
+                        cacheRegion.invalidateAll();
+                    }
+                    break;
+                default:
+                    throw new IOException("unknown op:" + op);
+            }
+        }
+    }
+
+    private void applyValue(String key, byte[] bytes, long cacheTime) {
+        CacheRegion cacheRegion = ObjectCache.getRegion(key);
+        Object value;
+        try (ObjectInputStream objectInputStream = new AllowedObjectInputStream(new ByteArrayInputStream(bytes), allowedPackages)) {
+            value = objectInputStream.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            // 本节点没有对应的类或者不允许反序列化
+            if (e instanceof InvalidClassException) {
+                DefaultSystemLog.ERROR().error("缓存同步值反序列化被拒绝:" + key + " " + e.getMessage());
+            }
+            cacheRegion.invalidate(key);
+            return;
+        }
+        if (cacheTime > 0) {
+            cacheRegion.putReplicated(key, value, cacheTime);
+        } else {
+            cacheRegion.invalidate(key);
+        }
+    }
+
+    private void removeTimeoutPeers(long now) {
+        synchronized (peerStateMap) {
+            peerStateMap.values().removeIf(state -> now - state.lastSeen > PEER_TIMEOUT);
+        }
+    }
+
+    /**
+     * 获取同步统计信息
+     *
+     * @return json
+     */
+    public JSONObject getStatusInfo() {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("nodeId", nodeId);
+        jsonObject.put("peers", peers.toString());
+        jsonObject.put("valueThreshold", valueThreshold);
+        synchronized (log) {
+            jsonObject.put("sequence", sequence);
+        }
+        synchronized (peerStateMap) {
+            jsonObject.put("peerCount", peerStateMap.size());
+        }
+        jsonObject.put("queueSize", queue.size());
+        jsonObject.put("sendCount", sendCount.get());
+        jsonObject.put("receiveCount", receiveCount.get());
+        jsonObject.put("resendCount", resendCount.get());
+        jsonObject.put("resetCount", resetCount.get());
+        jsonObject.put("errorCount", errorCount.get());
+        jsonObject.put("dropCount", dropCount.get());
+        return jsonObject;
+    }
+
+    /**
+     * 待发送的操作
+     */
+    private static final class Op {
+        private final byte type;
+        private final String region;
+        private final String key;
+        private final byte[] value;
+        private final long expireTime;
+
+        Op(byte type, String region, String key, byte[] value, long expireTime) {
+            this.type = type;
+            this.region = region;
+            this.key = key;
+            this.value = value;
+            this.expireTime = expireTime;
+        }
+
+        /**
+         * 合并的key 同一个缓存的删除和修改只保留最后一个
+         */
+        String compactKey() {
+            if (type == OP_INVALIDATE || type == OP_VALUE) {
+                return "k:" + key;
+            }
+            return type + ":" + region + ":" + key;
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64 + (value == null ? 0 : value.length));
+            DataOutputStream out = new DataOutputStream(outputStream);
+            out.writeByte(type);
+            out.writeUTF(region == null ? "" : region);
+            out.writeUTF(key);
+            if (type == OP_VALUE) {
+                // 发送剩余时间 不依赖节点间的时钟一致
+                out.writeLong(expireTime - CacheClock.currentTimeMillis());
+                out.writeInt(value.length);
+                out.write(value);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    /**
+     * 其他节点的接收状态 只在接收线程中读写
+     */
+    private static final class PeerState {
+        /**
+         * 连续收到的最大序号 -1 还没有收到
+         */
+        private long received = -1;
+        private final TreeMap<Long, Packet> buffered = new TreeMap<>();
+        private long lastNack;
+        private volatile long lastSeen;
+    }
+
+    private static final class Packet {
+        private final int count;
+        private final byte[] body;
+
+        Packet(int count, byte[] body) {
+            this.count = count;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package cn.jiangzeyin.cache;
+
+import cn.jiangzeyin.common.DefaultSystemLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiPredicate;
+import java.util.zip.CRC32;
+
+/**
+ * 缓存快照 用于重启后预热
+ * <p>
+ * 文件格式：头部(魔数、版本、创建时间、条数、内容长度、CRC32) + 条目(key、过期时间、序列化后的值、标签)
+ * 加载时只映射文件并建立key 和标签的索引 值在第一次读取时才反序列化
+ *
+ * @author jiangzeyin
+ * data 2018/9/11
+ */
+final class CacheSnapshot {
+    private static final int MAGIC = 0x4F424A43;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 8;
+
+    private final ConcurrentHashMap<String, Node> index;
+    private volatile ByteBuffer buffer;
+
+    private CacheSnapshot(ByteBuffer buffer, ConcurrentHashMap<String, Node> index) {
+        this.buffer = buffer;
+        this.index = index;
+    }
+
+    /**
+     * 保存缓存快照 先写入临时文件再替换
+     *
+     * @param file    快照文件
+     * @param regions 缓存区域
+     * @return 保存的条数
+     * @throws IOException io
+     */
+    static int save(File file, Iterable<CacheRegion> regions) throws IOException {
+        long now = CacheClock.currentTimeMillis();
+        List<byte[]> keys = new ArrayList<>();
+        List<Long> expireTimes = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        List<byte[][]> tagList = new ArrayList<>();
+        long length = 0;
+        for (CacheRegion region : regions) {
+            for (CacheEntity entity : region.entities()) {
+                long expireTime = entity.getExpireTime();
+                if (expireTime <= now) {
+                    continue;
+                }
+                Object value = region.readValue(entity);
+                byte[] bytes = value == null ? null : OffHeapStore.serialize(value);
+                if (bytes == null) {
+                    // 已经移除或者不能序列化
+                    continue;
+                }
+                byte[] key = entity.getKey().getBytes(StandardCharsets.UTF_8);
+                String[] entityTags = entity.tags;
+                byte[][] tags = new byte[entityTags == null ? 0 : entityTags.length][];
+                long size = 4 + key.length + 8 + 4 + bytes.length + 4;
+                for (int i = 0; i < tags.length; i++) {
+                    tags[i] = entityTags[i].getBytes(StandardCharsets.UTF_8);
+                    size += 4 + tags[i].length;
+                }
+                if (HEADER_SIZE + length + size > Integer.MAX_VALUE) {
+                    break;
+                }
+                keys.add(key);
+                expireTimes.add(expireTime);
+                values.add(bytes);
+                tagList.add(tags);
+                length += size;
+            }
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("create dir fail:" + parent);
+        }
+        Path temp = new File(file.getAbsolutePath() + ".tmp").toPath();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mappedByteBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + length);
+            mappedByteBuffer.position(HEADER_SIZE);
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] key = keys.get(i);
+                byte[] value = values.get(i);
+                mappedByteBuffer.putInt(key.length);
+                mappedByteBuffer.put(key);
+                mappedByteBuffer.putLong(expireTimes.get(i));
+                mappedByteBuffer.putInt(value.length);
+                mappedByteBuffer.put(value);
+                byte[][] tags = tagList.get(i);
+                mappedByteBuffer.putInt(tags.length);
+                for (byte[] tag : tags) {
+                    mappedByteBuffer.putInt(tag.length);
+                    mappedByteBuffer.put(tag);
+                }
+            }
+            mappedByteBuffer.position(0);
+            mappedByteBuffer.putInt(MAGIC);
+            mappedByteBuffer.putInt(VERSION);
+            mappedByteBuffer.putLong(now);
+            mappedByteBuffer.putInt(keys.size());
+            mappedByteBuffer.putInt((int) length);
+            mappedByteBuffer.putLong(crc(mappedByteBuffer, (int) length));
+            mappedByteBuffer.force();
+        }
+        try {
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return keys.size();
+    }
+
+    /**
+     * 加载缓存快照 文件损坏或者版本不一致时跳过
+     * <p>
+     * 加载后删除快照文件 避免异常退出后重复加载旧数据
+     *
+     * @param file 快照文件
+     * @return null 文件不存在或者无效
+     */
+    static CacheSnapshot load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            CacheSnapshot snapshot = map(file);
+            if (snapshot != null) {
+                DefaultSystemLog.LOG().info("加载缓存快照:" + file + " 条数:" + snapshot.index.size());
+            }
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            DefaultSystemLog.ERROR().error("加载缓存快照失败:" + file, e);
+            return null;
+        } finally {
+            if (!file.delete()) {
+                DefaultSystemLog.LOG().info("删除缓存快照失败:" + file);
+            }
+        }
+    }
+
+    private static CacheSnapshot map(File file) throws IOException {
+        MappedByteBuffer mappedByteBuffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                DefaultSystemLog.LOG().info("缓存快照大小错误:" + size);
+                return null;
+            }
+            mappedByteBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (mappedByteBuffer.getInt() != MAGIC) {
+            DefaultSystemLog.LOG().info("缓存快照格式错误:" + file);
+            return null;
+        }
+        int version = mappedByteBuffer.getInt();
+        if (version != VERSION) {
+            DefaultSystemLog.LOG().info("缓存快照版本不一致:" + version);
+            return null;
+        }
+        mappedByteBuffer.getLong();
+        int count = mappedByteBuffer.getInt();
+        int length = mappedByteBuffer.getInt();
+        long crc = mappedByteBuffer.getLong();
+        if (length != mappedByteBuffer.capacity() - HEADER_SIZE || crc != crc(mappedByteBuffer, length)) {
+            DefaultSystemLog.LOG().info("缓存快照已损坏:" + file);
+            return null;
+        }
+        long now = CacheClock.currentTimeMillis();
+        ConcurrentHashMap<String, Node> index = new ConcurrentHashMap<>(Math.max(16, count));
+        try {
+            mappedByteBuffer.position(HEADER_SIZE);
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[mappedByteBuffer.getInt()];
+                mappedByteBuffer.get(key);
+                int position = mappedByteBuffer.position();
+                long expireTime = mappedByteBuffer.getLong();
+                int valueLength = mappedByteBuffer.getInt();
+                mappedByteBuffer.position(mappedByteBuffer.position() + valueLength);
+                String[] tags = new String[mappedByteBuffer.getInt()];
+                for (int j = 0; j < tags.length; j++) {
+                    byte[] tag = new byte[mappedByteBuffer.getInt()];
+                    mappedByteBuffer.get(tag);
+                    tags[j] = new String(tag, StandardCharsets.UTF_8);
+                }
+                if (expireTime > now) {
+                    index.put(new String(key, StandardCharsets.UTF_8), new Node(position, tags));
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            DefaultSystemLog.LOG().info("缓存快照已损坏:" + file);
+            return null;
+        }
+        return index.isEmpty() ? null : new CacheSnapshot(mappedByteBuffer, index);
+    }
+
+    private static long crc(ByteBuffer buffer, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_SIZE);
+        body.limit(HEADER_SIZE + length);
+        CRC32 crc32 = new CRC32();
+        crc32.update(body);
+        return crc32.getValue();
+    }
+
+    /**
+     * 取出快照中的缓存 每个key 只能取出一次
+     *
+     * @param key 键
+     * @return null 不存在、已经过期或者不能反序列化
+     */
+    Entry take(String key) {
+        ByteBuffer buffer = this.buffer;
+        Node node = index.remove(key);
+        if (node == null || buffer == null) {
+            return null;
+        }
+        if (index.isEmpty()) {
+            // 全部取出后释放映射
+            this.buffer = null;
+        }
+        ByteBuffer entry = buffer.duplicate();
+        entry.position(node.position);
+        long expireTime = entry.getLong();
+        if (expireTime <= CacheClock.currentTimeMillis()) {
+            return null;
+        }
+        byte[] bytes = new byte[entry.getInt()];
+        entry.get(bytes);
+        try {
+            return new Entry(OffHeapStore.deserialize(bytes), expireTime, node.tags);
+        } catch (IllegalStateException e) {
+            DefaultSystemLog.ERROR().error("缓存快照反序列化失败:" + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * 删除快照中的缓存
+     *
+     * @param key 键
+     * @return 是否存在
+     */
+    boolean remove(String key) {
+        return index.remove(key) != null;
+    }
+
+    /**
+     * 删除快照中符合条件的缓存 需要遍历所有未取出的缓存
+     *
+     * @param predicate 参数为key 和标签
+     * @return 删除的条数
+     */
+    int removeIf(BiPredicate<String, String[]> predicate) {
+        int count = 0;
+        Iterator<Map.Entry<String, Node>> iterator = index.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Node> entry = iterator.next();
+            if (predicate.test(entry.getKey(), entry.getValue().tags)) {
+                iterator.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 快照中剩余未取出的条数
+     *
+     * @return 条数
+     */
+    int size() {
+        return index.size();
+    }
+
+    static final class Entry {
+        final Object value;
+        final long expireTime;
+        final String[] tags;
+
+        private Entry(Object value, long expireTime, String[] tags) {
+            this.value = value;
+            this.expireTime = expireTime;
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * 索引 条目中过期时间的位置和标签
+     */
+    private static final class Node {
+        private final int position;
+        private final String[] tags;
+
+        private Node(int position, String[] tags) {
+            this.position = position;
+            this.tags = tags;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package cn.jiangzeyin.cache;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存统计 每个key 分组一份 按配置类汇总时再合并
+ *
+ * @author jiangzeyin
+ * data 2018/9/6
+ */
+final class CacheStats {
+    final LongAdder hitCount = new LongAdder();
+    final LongAdder missCount = new LongAdder();
+    /**
+     * 命中负缓存的次数
+     */
+    final LongAdder negativeHitCount = new LongAdder();
+    final LongAdder expireCount = new LongAdder();
+    final LongAdder evictionCount = new LongAdder();
+    final LongAdder invalidateCount = new LongAdder();
+    final LongAdder loadSuccessCount = new LongAdder();
+    final LongAdder loadFailureCount = new LongAdder();
+    /**
+     * 加载总耗时 纳秒
+     */
+    final LongAdder totalLoadTime = new LongAdder();
+    /**
+     * 当前缓存条数
+     */
+    final LongAdder size = new LongAdder();
+
+    void recordLoad(boolean success, long loadTime) {
+        if (success) {
+            loadSuccessCount.increment();
+        } else {
+            loadFailureCount.increment();
+        }
+        totalLoadTime.add(loadTime);
+    }
+
+    /**
+     * 合并到汇总的json 中
+     *
+     * @param jsonObject 汇总对象
+     */
+    void sumTo(JSONObject jsonObject) {
+        add(jsonObject, "hitCount", hitCount.sum());
+        add(jsonObject, "missCount", missCount.sum());
+        add(jsonObject, "negativeHitCount", negativeHitCount.sum());
+        add(jsonObject, "expireCount", expireCount.sum());
+        add(jsonObject, "evictionCount", evictionCount.sum());
+        add(jsonObject, "invalidateCount", invalidateCount.sum());
+        add(jsonObject, "loadSuccessCount", loadSuccessCount.sum());
+        add(jsonObject, "loadFailureCount", loadFailureCount.sum());
+        add(jsonObject, "totalLoadTime", TimeUnit.NANOSECONDS.toMillis(totalLoadTime.sum()));
+        add(jsonObject, "size", size.sum());
+    }
+
+    /**
+     * 计算命中率和平均加载时间 命中负缓存也算作命中
+     *
+     * @param jsonObject 统计对象
+     */
+    static void computeRate(JSONObject jsonObject) {
+        long hitCount = jsonObject.getLongValue("hitCount") + jsonObject.getLongValue("negativeHitCount");
+        long requestCount = hitCount + jsonObject.getLongValue("missCount");
+        jsonObject.put("hitRate", requestCount == 0 ? 1.0 : (double) hitCount / requestCount);
+        long loadCount = jsonObject.getLongValue("loadSuccessCount") + jsonObject.getLongValue("loadFailureCount");
+        jsonObject.put("averageLoadPenalty", loadCount == 0 ? 0.0 : (double) jsonObject.getLongValue("totalLoadTime") / loadCount);
+    }
+
+    private static void add(JSONObject jsonObject, String key, long value) {
+        jsonObject.put(key, jsonObject.getLongValue(key) + value);
+    }
+}
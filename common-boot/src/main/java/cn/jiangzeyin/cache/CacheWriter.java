@@ -0,0 +1,22 @@
+package cn.jiangzeyin.cache;
+
+import java.util.Map;
+
+/**
+ * 缓存异步写入接口
+ * <p>
+ * 通过{@link CacheRegion#setWriter(CacheWriter, long, java.util.concurrent.TimeUnit, int)} 配置后 修改缓存时只记录key 同一个key 多次修改只保留最新的值
+ * 到达间隔时间或者积累的条数到达批量大小时 在线程池中批量写入
+ *
+ * @author jiangzeyin
+ * data 2018/9/16
+ */
+@FunctionalInterface
+public interface CacheWriter {
+    /**
+     * 批量写入 抛出异常时这批数据会保留到下次写入 期间有新值的key 使用新值
+     *
+     * @param entries key 和最新的值
+     */
+    void write(Map<String, Object> entries);
+}
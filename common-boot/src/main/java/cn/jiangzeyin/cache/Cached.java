@@ -0,0 +1,42 @@
+package cn.jiangzeyin.cache;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存方法的返回值
+ * <p>
+ * 方法所在的bean 会被代理 相同key 的调用直接返回缓存 同一个key 同时只会执行一次方法
+ * 方法返回null 时如果key 所在区域配置了negativeTime 添加负缓存
+ *
+ * @author jiangzeyin
+ * data 2018/9/15
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cached {
+    /**
+     * 缓存key 模板 {0} {1} 表示第几个参数 如：user:{0}
+     *
+     * @return 默认 类名.方法名:参数1,参数2
+     */
+    String key() default "";
+
+    /**
+     * 缓存时间
+     *
+     * @return 默认0 使用key 所在区域配置的缓存时间
+     */
+    long ttl() default 0;
+
+    TimeUnit UNIT() default TimeUnit.SECONDS;
+
+    /**
+     * 缓存区域的配置类
+     *
+     * @return 默认根据key 查找 未配置的key 使用默认区域
+     * @see ObjectCache#region(Class)
+     */
+    Class<?> region() default Void.class;
+}
@@ -0,0 +1,457 @@
+package cn.jiangzeyin.cache;
+
+import cn.jiangzeyin.common.DefaultSystemLog;
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 高并发计数
+ * <p>
+ * 每个key 的累计值和时间窗口都使用{@link LongAdder} 并发累加时分散到不同的单元 不加锁
+ * 时间窗口按秒、分钟、小时分桶 最近一分钟为60个秒桶 最近一小时为60个分钟桶 最近一天为24个小时桶
+ * <p>
+ * 配置监听后定时回调每个key 自上次回调以来的增量 回调失败的增量保留到下次
+ * 可以在回调中批量写入redis 或者数据库
+ *
+ * @author jiangzeyin
+ * data 2018/9/16
+ */
+public final class CounterCache {
+    /**
+     * 检查回调时间的间隔 毫秒
+     */
+    private static final long TICK = 50;
+    /**
+     * 配置了监听的计数 由后台线程检查回调时间
+     */
+    private static final Set<CounterCache> LISTENED = ConcurrentHashMap.newKeySet();
+    /**
+     * 第一次配置监听时启动 不依赖{@link ObjectCache} 的清理线程
+     */
+    private static Thread tickThread;
+
+    private final String name;
+    private final ConcurrentHashMap<String, Counter> counterMap = new ConcurrentHashMap<>();
+    /**
+     * 是否已经提交了回调任务
+     */
+    private final AtomicBoolean notifying = new AtomicBoolean();
+    private volatile Consumer<Map<String, Long>> listener;
+    private volatile long period;
+    private volatile long lastNotifyTime;
+
+    /**
+     * 时间窗口
+     */
+    public enum Window {
+        /**
+         * 最近一分钟
+         */
+        MINUTE,
+        /**
+         * 最近一小时
+         */
+        HOUR,
+        /**
+         * 最近一天
+         */
+        DAY
+    }
+
+    /**
+     * 创建计数
+     *
+     * @param name 名称 用于统计信息
+     */
+    public CounterCache(String name) {
+        this.name = Objects.requireNonNull(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 计数加1
+     *
+     * @param key 键
+     */
+    public void increment(String key) {
+        add(key, 1);
+    }
+
+    /**
+     * 增加计数
+     *
+     * @param key   键
+     * @param delta 增量 可以为负数
+     */
+    public void add(String key, long delta) {
+        Counter counter = counterMap.get(key);
+        if (counter == null) {
+            counter = counterMap.computeIfAbsent(key, k -> new Counter());
+        }
+        counter.add(delta, CacheClock.currentTimeMillis());
+        if (counter.removed) {
+            // 计数期间被清理 转移到新的对象
+            transfer(key, counter);
+        }
+    }
+
+    /**
+     * 获取累计值
+     *
+     * @param key 键
+     * @return 不存在时为0
+     */
+    public long get(String key) {
+        Counter counter = counterMap.get(key);
+        return counter == null ? 0 : counter.total.sum();
+    }
+
+    /**
+     * 获取时间窗口内的计数
+     *
+     * @param key    键
+     * @param window 时间窗口
+     * @return 不存在时为0
+     */
+    public long get(String key, Window window) {
+        Objects.requireNonNull(window);
+        Counter counter = counterMap.get(key);
+        return counter == null ? 0 : counter.sum(window, CacheClock.currentTimeMillis());
+    }
+
+    /**
+     * 获取所有key 的累计值
+     *
+     * @return key 和累计值
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> map = new HashMap<>(counterMap.size() * 4 / 3 + 1);
+        counterMap.forEach((key, counter) -> map.put(key, counter.total.sum()));
+        return map;
+    }
+
+    /**
+     * 获取所有key 时间窗口内的计数 不包含计数为0 的key
+     *
+     * @param window 时间窗口
+     * @return key 和计数
+     */
+    public Map<String, Long> snapshot(Window window) {
+        Objects.requireNonNull(window);
+        long now = CacheClock.currentTimeMillis();
+        Map<String, Long> map = new HashMap<>();
+        counterMap.forEach((key, counter) -> {
+            long sum = counter.sum(window, now);
+            if (sum != 0) {
+                map.put(key, sum);
+            }
+        });
+        return map;
+    }
+
+    /**
+     * 删除计数
+     *
+     * @param key 键
+     * @return 是否存在
+     */
+    public boolean remove(String key) {
+        return counterMap.remove(key) != null;
+    }
+
+    public int size() {
+        return counterMap.size();
+    }
+
+    /**
+     * 配置定时回调 只能配置一次
+     * <p>
+     * 回调在线程池中执行 同时只有一个回调 一天内没有修改并且增量已经回调的key 会被清理
+     *
+     * @param listener 参数为每个key 自上次回调成功以来的增量 没有增量的key 不包含
+     * @param period   回调间隔
+     * @param unit     时间单位
+     */
+    public synchronized void setListener(Consumer<Map<String, Long>> listener, long period, TimeUnit unit) {
+        Objects.requireNonNull(listener);
+        Objects.requireNonNull(unit);
+        if (this.listener != null) {
+            throw new IllegalStateException(name + " listener already config");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must >0");
+        }
+        this.period = unit.toMillis(period);
+        this.lastNotifyTime = CacheClock.currentTimeMillis();
+        this.listener = listener;
+        LISTENED.add(this);
+        startTick();
+    }
+
+    private static synchronized void startTick() {
+        if (tickThread != null) {
+            return;
+        }
+        Thread thread = new Thread(CounterCache::tickLoop, "CounterCache-tick");
+        thread.setDaemon(true);
+        thread.start();
+        tickThread = thread;
+    }
+
+    private static void tickLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(TICK);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                tick(CacheClock.currentTimeMillis());
+            } catch (Throwable e) {
+                DefaultSystemLog.ERROR().error("检查计数回调异常", e);
+            }
+        }
+    }
+
+    /**
+     * 立即回调所有增量 关闭程序时调用
+     *
+     * @return 是否成功
+     */
+    public boolean flush() {
+        Consumer<Map<String, Long>> consumer = listener;
+        return consumer == null || notifyListener(consumer);
+    }
+
+    /**
+     * 检查所有计数的回调时间 由后台线程调用
+     *
+     * @param now 当前时间
+     */
+    static void tick(long now) {
+        for (CounterCache counterCache : LISTENED) {
+            if (now - counterCache.lastNotifyTime >= counterCache.period) {
+                counterCache.schedule();
+            }
+        }
+    }
+
+    /**
+     * 立即回调所有计数的增量 关闭程序时调用
+     *
+     * @return 回调失败的计数个数
+     */
+    public static int flushAll() {
+        int count = 0;
+        for (CounterCache counterCache : LISTENED) {
+            if (!counterCache.flush()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void schedule() {
+        if (!notifying.compareAndSet(false, true)) {
+            return;
+        }
+        // 线程池已经关闭时 等待关闭时flush
+        PoolTask.execute(CounterCache.class, () -> {
+            try {
+                notifyListener(listener);
+            } finally {
+                notifying.set(false);
+            }
+        }, () -> notifying.set(false));
+    }
+
+    /**
+     * 回调增量 成功后记录已经回调的值
+     */
+    private synchronized boolean notifyListener(Consumer<Map<String, Long>> consumer) {
+        long now = CacheClock.currentTimeMillis();
+        lastNotifyTime = now;
+        Map<String, Long> deltas = new HashMap<>();
+        Map<Counter, Long> totals = new IdentityHashMap<>();
+        counterMap.forEach((key, counter) -> {
+            long total = counter.total.sum();
+            long delta = total - counter.notified;
+            if (delta != 0) {
+                deltas.put(key, delta);
+                totals.put(counter, total);
+            } else if (counter.isIdle(now) && counterMap.remove(key, counter)) {
+                synchronized (counter) {
+                    counter.transferred = counter.notified;
+                }
+                counter.removed = true;
+                // 清理期间新增的计数转移到新的对象
+                transfer(key, counter);
+            }
+        });
+        if (deltas.isEmpty()) {
+            return true;
+        }
+        try {
+            consumer.accept(deltas);
+        } catch (RuntimeException e) {
+            DefaultSystemLog.ERROR().error(name + " 计数回调失败 条数:" + deltas.size(), e);
+            return false;
+        }
+        totals.forEach((counter, total) -> counter.notified = total);
+        return true;
+    }
+
+    /**
+     * 把已经清理的计数中没有回调的增量转移到新的对象 清理线程和计数线程都可能调用 每个增量只转移一次
+     */
+    private void transfer(String key, Counter counter) {
+        long lost;
+        synchronized (counter) {
+            lost = counter.total.sum() - counter.transferred;
+            counter.transferred += lost;
+        }
+        if (lost != 0) {
+            add(key, lost);
+        }
+    }
+
+    /**
+     * 获取统计信息
+     *
+     * @return json
+     */
+    public JSONObject getStatusInfo() {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("name", name);
+        jsonObject.put("size", counterMap.size());
+        jsonObject.put("period", period);
+        jsonObject.put("lastNotifyTime", lastNotifyTime);
+        return jsonObject;
+    }
+
+    /**
+     * 单个key 的计数
+     */
+    private static final class Counter {
+        private final LongAdder total = new LongAdder();
+        private final Ring seconds = new Ring(60, TimeUnit.SECONDS.toMillis(1));
+        private final Ring minutes = new Ring(60, TimeUnit.MINUTES.toMillis(1));
+        private final Ring hours = new Ring(24, TimeUnit.HOURS.toMillis(1));
+        /**
+         * 已经回调的累计值 只在回调锁中读写
+         */
+        private long notified;
+        /**
+         * 被清理后不再使用 之后的计数需要转移
+         */
+        private volatile boolean removed;
+        /**
+         * 被清理后已经转移的累计值 在对象锁中读写
+         */
+        private long transferred;
+
+        void add(long delta, long now) {
+            total.add(delta);
+            seconds.add(delta, now);
+            minutes.add(delta, now);
+            hours.add(delta, now);
+        }
+
+        long sum(Window window, long now) {
+            switch (window) {
+                case MINUTE:
+                    return seconds.sum(now);
+                case HOUR:
+                    return minutes.sum(now);
+                case DAY:
+                    return hours.sum(now);
+                default:
+                    throw new IllegalArgumentException(String.valueOf(window));
+            }
+        }
+
+        /**
+         * 一天内没有修改
+         */
+        boolean isIdle(long now) {
+            return !hours.isActive(now);
+        }
+    }
+
+    /**
+     * 环形时间桶 桶过期后被新的桶替换
+     */
+    private static final class Ring {
+        private final long unit;
+        private final AtomicReferenceArray<Bucket> buckets;
+
+        Ring(int length, long unit) {
+            this.unit = unit;
+            this.buckets = new AtomicReferenceArray<>(length);
+        }
+
+        void add(long delta, long now) {
+            long epoch = now / unit;
+            int index = (int) (epoch % buckets.length());
+            while (true) {
+                Bucket bucket = buckets.get(index);
+                if (bucket != null && bucket.epoch >= epoch) {
+                    // 时钟回退时记录到当前桶
+                    bucket.adder.add(delta);
+                    return;
+                }
+                Bucket created = new Bucket(epoch);
+                created.adder.add(delta);
+                if (buckets.compareAndSet(index, bucket, created)) {
+                    return;
+                }
+            }
+        }
+
+        long sum(long now) {
+            long epoch = now / unit;
+            long sum = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                Bucket bucket = buckets.get(i);
+                if (bucket != null && bucket.epoch > epoch - buckets.length()) {
+                    sum += bucket.adder.sum();
+                }
+            }
+            return sum;
+        }
+
+        boolean isActive(long now) {
+            long epoch = now / unit;
+            for (int i = 0; i < buckets.length(); i++) {
+                Bucket bucket = buckets.get(i);
+                if (bucket != null && bucket.epoch > epoch - buckets.length()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Bucket {
+        private final long epoch;
+        private final LongAdder adder = new LongAdder();
+
+        Bucket(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+}
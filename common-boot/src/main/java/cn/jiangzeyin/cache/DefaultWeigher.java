@@ -0,0 +1,122 @@
+package cn.jiangzeyin.cache;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 默认的权重计算 估算缓存占用的堆内存字节数
+ * <p>
+ * 支持字符串、数组、集合、Map(包括fastjson 的JSONObject、JSONArray) 其他对象按固定大小估算
+ * 元素较多的集合只抽样计算前面的元素再按比例放大 嵌套层数超过限制后按固定大小估算
+ *
+ * @author jiangzeyin
+ * data 2018/9/12
+ */
+public final class DefaultWeigher implements Weigher {
+    private static final int OBJECT_SIZE = 16;
+    private static final int REFERENCE_SIZE = 4;
+    /**
+     * 无法识别的对象
+     */
+    private static final int UNKNOWN_SIZE = 64;
+    /**
+     * 集合中每个元素的额外开销 如HashMap.Node
+     */
+    private static final int ENTRY_SIZE = 32;
+    private static final int SAMPLE_SIZE = 64;
+    private static final int MAX_DEPTH = 4;
+
+    @Override
+    public int weigh(String key, Object value) {
+        long size = estimate(key, 0) + estimate(value, 0);
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    private static long estimate(Object object, int depth) {
+        if (object == null) {
+            return 0;
+        }
+        if (object instanceof String) {
+            return OBJECT_SIZE + 24 + 2L * ((String) object).length();
+        }
+        if (object instanceof Number || object instanceof Boolean || object instanceof Character) {
+            return OBJECT_SIZE + 8;
+        }
+        if (depth >= MAX_DEPTH) {
+            return UNKNOWN_SIZE;
+        }
+        Class<?> cls = object.getClass();
+        if (cls.isArray()) {
+            return estimateArray(object, cls.getComponentType(), depth);
+        }
+        if (object instanceof Collection) {
+            Collection<?> collection = (Collection<?>) object;
+            return OBJECT_SIZE + 32 + estimateElements(collection.iterator(), collection.size(), depth);
+        }
+        if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) object;
+            return OBJECT_SIZE + 48 + estimateEntries(map, depth);
+        }
+        return UNKNOWN_SIZE;
+    }
+
+    private static long estimateArray(Object array, Class<?> componentType, int depth) {
+        int length = Array.getLength(array);
+        if (componentType.isPrimitive()) {
+            int elementSize;
+            if (componentType == long.class || componentType == double.class) {
+                elementSize = 8;
+            } else if (componentType == int.class || componentType == float.class) {
+                elementSize = 4;
+            } else if (componentType == short.class || componentType == char.class) {
+                elementSize = 2;
+            } else {
+                elementSize = 1;
+            }
+            return OBJECT_SIZE + (long) elementSize * length;
+        }
+        Object[] objects = (Object[]) array;
+        int sample = Math.min(length, SAMPLE_SIZE);
+        long size = 0;
+        for (int i = 0; i < sample; i++) {
+            size += estimate(objects[i], depth + 1);
+        }
+        return OBJECT_SIZE + (long) REFERENCE_SIZE * length + scale(size, sample, length);
+    }
+
+    private static long estimateElements(Iterator<?> iterator, int length, int depth) {
+        long size = 0;
+        int sample = 0;
+        while (sample < SAMPLE_SIZE && iterator.hasNext()) {
+            size += estimate(iterator.next(), depth + 1);
+            sample++;
+        }
+        return (long) (ENTRY_SIZE + REFERENCE_SIZE) * length + scale(size, sample, length);
+    }
+
+    private static long estimateEntries(Map<?, ?> map, int depth) {
+        int length = map.size();
+        long size = 0;
+        int sample = 0;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (sample >= SAMPLE_SIZE) {
+                break;
+            }
+            size += estimate(entry.getKey(), depth + 1) + estimate(entry.getValue(), depth + 1);
+            sample++;
+        }
+        return (long) (ENTRY_SIZE + REFERENCE_SIZE) * length + scale(size, sample, length);
+    }
+
+    /**
+     * 按抽样结果放大到全部元素
+     */
+    private static long scale(long size, int sample, int length) {
+        if (sample == 0 || sample >= length) {
+            return size;
+        }
+        return size / sample * length;
+    }
+}
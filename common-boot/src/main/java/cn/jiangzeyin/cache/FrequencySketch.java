@@ -0,0 +1,114 @@
+package cn.jiangzeyin.cache;
+
+/**
+ * 访问频率统计 4bit Count-Min Sketch
+ * <p>
+ * 每个计数最大15 采样数达到阈值后所有计数减半 使历史热点逐步老化
+ * 非线程安全 只在淘汰锁中调用
+ *
+ * @author jiangzeyin
+ * data 2018/9/3
+ */
+final class FrequencySketch {
+    private static final long[] SEED = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    /**
+     * 根据缓存最大条数调整统计表大小 调整后之前的统计将丢失
+     *
+     * @param maximumSize 最大条数
+     */
+    void ensureCapacity(long maximumSize) {
+        int maximum = (int) Math.min(maximumSize, Integer.MAX_VALUE >>> 1);
+        if (table != null && table.length >= maximum) {
+            return;
+        }
+        table = new long[Math.max(ceilingPowerOfTwo(maximum), 8)];
+        tableMask = table.length - 1;
+        sampleSize = 10 * maximum;
+        if (sampleSize <= 0) {
+            sampleSize = Integer.MAX_VALUE;
+        }
+        size = 0;
+    }
+
+    /**
+     * 获取估算的访问频率
+     *
+     * @param hashCode hash
+     * @return 0-15
+     */
+    int frequency(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param hashCode hash
+     */
+    void increment(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && (++size == sampleSize)) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = (0xfL << offset);
+        if ((table[i] & mask) != mask) {
+            table[i] += (1L << offset);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 所有计数减半
+     */
+    private void reset() {
+        int count = 0;
+        for (int i = 0; i < table.length; i++) {
+            count += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (count >>> 2);
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += (hash >>> 32);
+        return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << -Integer.numberOfLeadingZeros(Math.max(x, 1) - 1);
+    }
+}
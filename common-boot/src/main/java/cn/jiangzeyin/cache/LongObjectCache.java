@@ -0,0 +1,421 @@
+package cn.jiangzeyin.cache;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * long 类型key 的内存缓存 不需要把key 转换为字符串
+ * <p>
+ * 按key 的hash 分段 每段是一个线性探测的开放寻址表 写操作持有所在段的锁 读操作不加锁
+ * 写入新key 时先写key 再通过{@link AtomicReferenceArray} 写入值 读取时先读值再读key 保证读到的key 是完整的
+ * 删除只把值替换为墓碑 key 保留在原位置直到扩容 所以一个位置的key 在同一张表中不会改变
+ * <p>
+ * 过期时间和{@link CacheInfo}、{@link CacheConfigField} 的含义相同 过期的缓存在读取时忽略 在写入时分批清理
+ *
+ * @author jiangzeyin
+ * data 2018/9/14
+ */
+public final class LongObjectCache {
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final int MIN_CAPACITY = 16;
+    /**
+     * 每次写入时顺带检查过期的位置数
+     */
+    private static final int CLEAN_UP_STEP = 4;
+    private static final Node TOMBSTONE = new Node(null, 0);
+
+    private final String name;
+    private final CacheInfo cacheInfo;
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    /**
+     * 创建缓存
+     *
+     * @param name      名称 用于统计信息
+     * @param cacheTime 缓存时间
+     * @param unit      时间单位
+     */
+    public LongObjectCache(String name, long cacheTime, TimeUnit unit) {
+        this(name, createCacheInfo(cacheTime, unit), DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    private LongObjectCache(String name, CacheInfo cacheInfo, int concurrencyLevel) {
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel must >0");
+        }
+        this.name = name;
+        this.cacheInfo = cacheInfo;
+        int segmentCount = tableSizeFor(concurrencyLevel);
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * 根据配置类创建缓存 缓存时间和过期方式使用key 字段上的{@link CacheConfigField} 未配置时使用类上的{@link CacheConfig}
+     *
+     * @param cls 配置类
+     * @param key 配置类中的静态字符串常量 为null 时只使用类上的配置
+     * @return 缓存
+     * @throws IllegalAccessException e
+     */
+    public static LongObjectCache config(Class cls, String key) throws IllegalAccessException {
+        CacheInfo cacheInfo;
+        if (key == null) {
+            cacheInfo = CacheInfo.loadDefault(cls);
+        } else {
+            Map<String, CacheInfo> cacheInfoMap = CacheInfo.loadClass(cls);
+            cacheInfo = cacheInfoMap.get(key);
+            if (cacheInfo == null) {
+                throw new IllegalArgumentException(cls + " not config " + key);
+            }
+        }
+        CacheConfig cacheConfig = (CacheConfig) cls.getAnnotation(CacheConfig.class);
+        int concurrencyLevel = cacheConfig == null ? DEFAULT_CONCURRENCY_LEVEL : cacheConfig.concurrencyLevel();
+        String name = key == null ? cls.getSimpleName() : key;
+        return new LongObjectCache(name, cacheInfo, concurrencyLevel);
+    }
+
+    private static CacheInfo createCacheInfo(long cacheTime, TimeUnit unit) {
+        if (unit == null) {
+            throw new NullPointerException();
+        }
+        CacheInfo cacheInfo = new CacheInfo(null, unit.toMillis(cacheTime));
+        if (cacheInfo.getCacheTime() <= 0) {
+            throw new IllegalArgumentException("cacheTime must >0");
+        }
+        return cacheInfo;
+    }
+
+    /**
+     * 添加缓存 缓存时间使用配置的时间
+     *
+     * @param key   键
+     * @param value 值
+     * @return 之前未过期的值
+     */
+    public Object put(long key, Object value) {
+        return putNode(key, value, cacheInfo.getCacheTime());
+    }
+
+    /**
+     * 添加缓存
+     *
+     * @param key       键
+     * @param value     值
+     * @param cacheTime 缓存时间
+     * @param unit      时间单位
+     * @return 之前未过期的值
+     */
+    public Object put(long key, Object value, long cacheTime, TimeUnit unit) {
+        if (unit == null) {
+            throw new NullPointerException();
+        }
+        long time = unit.toMillis(cacheTime);
+        if (time <= 0) {
+            throw new IllegalArgumentException("cacheTime must >0");
+        }
+        return putNode(key, value, time);
+    }
+
+    private Object putNode(long key, Object value, long cacheTime) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        long hash = hash(key);
+        return segmentFor(hash).put(key, (int) hash, new Node(value, cacheTime));
+    }
+
+    /**
+     * 获取缓存 不加锁
+     *
+     * @param key 键
+     * @return null 不存在或者已经过期
+     */
+    public Object get(long key) {
+        long hash = hash(key);
+        Table table = segmentFor(hash).table;
+        long[] keys = table.keys;
+        AtomicReferenceArray<Node> nodes = table.nodes;
+        int mask = table.mask;
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            // 先读值再读key
+            Node node = nodes.get(i);
+            if (node == null) {
+                break;
+            }
+            if (keys[i] != key) {
+                continue;
+            }
+            Object value = node.getValue(cacheInfo.isExpireAfterAccess());
+            if (value == null) {
+                break;
+            }
+            cacheInfo.getStats().hitCount.increment();
+            return value;
+        }
+        cacheInfo.getStats().missCount.increment();
+        return null;
+    }
+
+    /**
+     * 删除缓存
+     *
+     * @param key 键
+     * @return 之前未过期的值
+     */
+    public Object remove(long key) {
+        long hash = hash(key);
+        return segmentFor(hash).remove(key, (int) hash);
+    }
+
+    /**
+     * 当前缓存条数 包括已经过期还未清理的
+     *
+     * @return 条数
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    /**
+     * 获取统计信息
+     *
+     * @return json
+     */
+    public JSONObject getStatusInfo() {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("name", name);
+        jsonObject.put("cacheTime", cacheInfo.getCacheTime());
+        jsonObject.put("expireAfterAccess", cacheInfo.isExpireAfterAccess());
+        long capacity = 0;
+        for (Segment segment : segments) {
+            capacity += segment.table.keys.length;
+        }
+        jsonObject.put("capacity", capacity);
+        cacheInfo.getStats().sumTo(jsonObject);
+        CacheStats.computeRate(jsonObject);
+        return jsonObject;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> segmentShift) & (segments.length - 1)];
+    }
+
+    /**
+     * murmur3 的64位混合函数
+     */
+    private static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static int tableSizeFor(int size) {
+        int n = -1 >>> Integer.numberOfLeadingZeros(Math.max(size, 2) - 1);
+        return n + 1;
+    }
+
+    /**
+     * 缓存值 替换值时创建新对象
+     */
+    private static final class Node {
+        private final Object value;
+        private final long cacheTime;
+        private volatile long expireTime;
+
+        Node(Object value, long cacheTime) {
+            this.value = value;
+            this.cacheTime = cacheTime;
+            this.expireTime = CacheClock.currentTimeMillis() + cacheTime;
+        }
+
+        Object getValue(boolean expireAfterAccess) {
+            if (this == TOMBSTONE) {
+                return null;
+            }
+            long now = CacheClock.currentTimeMillis();
+            if (now >= expireTime) {
+                return null;
+            }
+            if (expireAfterAccess) {
+                long expire = now + cacheTime;
+                if (expire > expireTime) {
+                    expireTime = expire;
+                }
+            }
+            return value;
+        }
+
+        boolean isAlive(long now) {
+            return this != TOMBSTONE && now < expireTime;
+        }
+    }
+
+    private static final class Table {
+        private final long[] keys;
+        private final AtomicReferenceArray<Node> nodes;
+        private final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            nodes = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    /**
+     * 一个分段 写操作持有锁
+     */
+    private final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile Table table = new Table(MIN_CAPACITY);
+        /**
+         * 有值的位置数
+         */
+        private volatile int count;
+        /**
+         * 已经使用的位置数 包括墓碑
+         */
+        private int used;
+        private int cleanUpIndex;
+
+        Object put(long key, int hash, Node node) {
+            lock.lock();
+            try {
+                Table current = table;
+                int mask = current.mask;
+                for (int i = hash & mask; ; i = (i + 1) & mask) {
+                    Node old = current.nodes.get(i);
+                    if (old == null) {
+                        // 先写key 再写值
+                        current.keys[i] = key;
+                        current.nodes.set(i, node);
+                        count++;
+                        used++;
+                        cacheInfo.getStats().size.increment();
+                        if (used > current.keys.length - (current.keys.length >>> 2)) {
+                            resize(current);
+                        } else {
+                            cleanUp(current);
+                        }
+                        return null;
+                    }
+                    if (current.keys[i] != key) {
+                        continue;
+                    }
+                    current.nodes.set(i, node);
+                    if (old == TOMBSTONE) {
+                        count++;
+                        cacheInfo.getStats().size.increment();
+                    }
+                    cleanUp(current);
+                    return old.isAlive(CacheClock.currentTimeMillis()) ? old.value : null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Object remove(long key, int hash) {
+            lock.lock();
+            try {
+                Table current = table;
+                int mask = current.mask;
+                for (int i = hash & mask; ; i = (i + 1) & mask) {
+                    Node old = current.nodes.get(i);
+                    if (old == null) {
+                        return null;
+                    }
+                    if (current.keys[i] != key) {
+                        continue;
+                    }
+                    if (old == TOMBSTONE) {
+                        return null;
+                    }
+                    current.nodes.set(i, TOMBSTONE);
+                    count--;
+                    cacheInfo.getStats().size.decrement();
+                    return old.isAlive(CacheClock.currentTimeMillis()) ? old.value : null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 分批把过期的缓存替换为墓碑 在锁中调用
+         */
+        private void cleanUp(Table current) {
+            long now = CacheClock.currentTimeMillis();
+            int mask = current.mask;
+            for (int step = 0; step < CLEAN_UP_STEP; step++) {
+                int i = cleanUpIndex = (cleanUpIndex + 1) & mask;
+                Node node = current.nodes.get(i);
+                if (node != null && node != TOMBSTONE && now >= node.expireTime) {
+                    current.nodes.set(i, TOMBSTONE);
+                    count--;
+                    CacheStats stats = cacheInfo.getStats();
+                    stats.size.decrement();
+                    stats.expireCount.increment();
+                }
+            }
+        }
+
+        /**
+         * 丢弃墓碑和过期的缓存后复制到新表 新表发布后旧表不再修改 在锁中调用
+         */
+        private void resize(Table current) {
+            long now = CacheClock.currentTimeMillis();
+            int alive = 0;
+            for (int i = 0; i < current.keys.length; i++) {
+                Node node = current.nodes.get(i);
+                if (node != null && node.isAlive(now)) {
+                    alive++;
+                }
+            }
+            // 有效数据不超过新表的一半
+            Table resized = new Table(Math.max(MIN_CAPACITY, tableSizeFor(alive * 2)));
+            int mask = resized.mask;
+            int copied = 0;
+            for (int i = 0; i < current.keys.length; i++) {
+                Node node = current.nodes.get(i);
+                if (node == null || node == TOMBSTONE) {
+                    continue;
+                }
+                if (!node.isAlive(now)) {
+                    CacheStats stats = cacheInfo.getStats();
+                    stats.size.decrement();
+                    stats.expireCount.increment();
+                    continue;
+                }
+                long key = current.keys[i];
+                int index = (int) hash(key) & mask;
+                while (resized.nodes.get(index) != null) {
+                    index = (index + 1) & mask;
+                }
+                resized.keys[index] = key;
+                resized.nodes.set(index, node);
+                copied++;
+            }
+            count = copied;
+            used = copied;
+            cleanUpIndex = 0;
+            table = resized;
+        }
+    }
+}
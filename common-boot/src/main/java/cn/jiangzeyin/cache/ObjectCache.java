@@ -1,35 +1,167 @@
 package cn.jiangzeyin.cache;
 
-import cn.jiangzeyin.DateUtil;
+import cn.jiangzeyin.StringUtil;
+import cn.jiangzeyin.common.DefaultSystemLog;
+import com.alibaba.fastjson.JSONArray;
 
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * 内存缓存
+ * <p>
+ * 通过{@link #config(Class)} 配置的key 保存在对应的缓存区域中 其他key 保存在默认区域
  *
  * @author jiangzeyin
  * data 2017/12/1
  */
 public final class ObjectCache {
-    private static final ConcurrentHashMap<String, CacheEntity<String, Object>> CONCURRENT_HASH_MAP = new ConcurrentHashMap<>(100);
-    private static final ConcurrentHashMap<String, CacheInfo> CACHE_INFO_CONCURRENT_HASH_MAP = new ConcurrentHashMap<>(100);
     /**
      * 默认10分钟  秒单位
      */
     static final int DEFAULT_CACHE_TIME = 60 * 10;
+    /**
+     * 过期清理间隔 毫秒
+     */
+    private static final long EXPIRE_TICK = 50;
+    /**
+     * 默认区域
+     */
+    private static final CacheRegion DEFAULT_REGION = new CacheRegion("default", CacheInfo.loadDefault(null), 16);
+    private static final ConcurrentHashMap<Class, CacheRegion> REGION_CONCURRENT_HASH_MAP = new ConcurrentHashMap<>();
+    /**
+     * 配置过的key 所在的区域
+     */
+    private static final ConcurrentHashMap<String, CacheRegion> KEY_REGION_CONCURRENT_HASH_MAP = new ConcurrentHashMap<>(100);
+    /**
+     * 启动时加载的快照 缓存不存在时从快照中恢复
+     */
+    private static volatile CacheSnapshot snapshot;
+    /**
+     * 节点间同步 为null 时不同步
+     */
+    private static volatile CacheReplicator replicator;
+
+    static {
+        Thread thread = new Thread(ObjectCache::expireLoop, "ObjectCache-expire");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
     private ObjectCache() {
 
     }
 
+    /**
+     * 根据配置类创建缓存区域 重复配置同一个类会更新区域中key 的配置 通过{@link #region(Class)} 获取区域
+     *
+     * @param cls 配置类 可以添加{@link CacheConfig} 注解
+     * @throws IllegalAccessException e
+     */
     public static void config(Class cls) throws IllegalAccessException {
-        CACHE_INFO_CONCURRENT_HASH_MAP.putAll(CacheInfo.loadClass(cls));
+        Map<String, CacheInfo> cacheInfoMap = CacheInfo.loadClass(cls);
+        CacheConfig cacheConfig = (CacheConfig) cls.getAnnotation(CacheConfig.class);
+        CacheRegion cacheRegion = REGION_CONCURRENT_HASH_MAP.computeIfAbsent(cls, aClass -> {
+            int concurrencyLevel = cacheConfig == null ? 16 : cacheConfig.concurrencyLevel();
+            return new CacheRegion(StringUtil.simplifyClassName(aClass.getName()), CacheInfo.loadDefault(aClass), concurrencyLevel);
+        });
+        cacheRegion.config(cacheInfoMap.values());
+        for (String key : cacheInfoMap.keySet()) {
+            KEY_REGION_CONCURRENT_HASH_MAP.put(key, cacheRegion);
+        }
+        if (cacheConfig != null && cacheConfig.maximumSize() > 0) {
+            cacheRegion.setMaximumSize(cacheConfig.maximumSize());
+        }
+        if (cacheConfig != null && cacheConfig.maximumWeight() > 0) {
+            cacheRegion.setMaximumWeight(cacheConfig.maximumWeight(), cacheRegion.getWeigher(cacheConfig.WEIGHER()));
+        }
+        if (cacheConfig != null && cacheConfig.offHeapCapacity() > 0 && !cacheRegion.isOffHeap()) {
+            cacheRegion.setOffHeap(cacheConfig.offHeapCapacity(), cacheConfig.offHeapThreshold());
+        }
+    }
+
+    /**
+     * 获取配置类对应的缓存区域
+     *
+     * @param cls 配置类
+     * @return 缓存区域
+     */
+    public static CacheRegion region(Class cls) {
+        CacheRegion cacheRegion = REGION_CONCURRENT_HASH_MAP.get(cls);
+        if (cacheRegion == null) {
+            throw new IllegalArgumentException(cls + " not config");
+        }
+        return cacheRegion;
+    }
+
+    /**
+     * 获取key 所在的区域
+     *
+     * @param key 键
+     * @return 未配置的key 返回默认区域
+     */
+    public static CacheRegion region(String key) {
+        return getRegion(key);
+    }
+
+    /**
+     * 获取key 所在的区域
+     *
+     * @param key 键
+     * @return 未配置的key 返回默认区域
+     */
+    static CacheRegion getRegion(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return KEY_REGION_CONCURRENT_HASH_MAP.getOrDefault(key, DEFAULT_REGION);
+    }
+
+    /**
+     * 设置默认区域缓存最大条数 超出后按W-TinyLFU 策略淘汰
+     *
+     * @param maximumSize 最大条数
+     */
+    public static void setMaximumSize(long maximumSize) {
+        DEFAULT_REGION.setMaximumSize(maximumSize);
     }
 
+    /**
+     * 获取默认区域缓存最大条数
+     *
+     * @return 0 不限制
+     */
+    public static long getMaximumSize() {
+        return DEFAULT_REGION.getMaximumSize();
+    }
+
+    /**
+     * 所有区域的缓存条数
+     *
+     * @return 条数
+     */
+    public static int size() {
+        int size = DEFAULT_REGION.size();
+        for (CacheRegion cacheRegion : REGION_CONCURRENT_HASH_MAP.values()) {
+            size += cacheRegion.size();
+        }
+        return size;
+    }
+
+    /**
+     * 添加缓存信息 缓存时间使用config 中配置的时间 未配置默认10分钟
+     *
+     * @param key   键
+     * @param value 值
+     * @return 上传缓存对象
+     */
     public static Object put(String key, Object value) {
-        return put(key, value, DEFAULT_CACHE_TIME);
+        return getRegion(key).put(key, value);
     }
 
     /**
@@ -37,107 +169,335 @@ public final class ObjectCache {
      *
      * @param key       键
      * @param value     值
-     * @param cacheTime 缓存时间
+     * @param cacheTime 缓存时间 秒
      * @return 上传缓存对象
      */
     public static Object put(String key, Object value, long cacheTime) {
-        if (key == null) {
-            throw new NullPointerException();
+        return getRegion(key).put(key, value, cacheTime);
+    }
+
+    /**
+     * 添加缓存信息
+     *
+     * @param key       键
+     * @param value     值
+     * @param cacheTime 缓存时间
+     * @param unit      时间单位
+     * @return 上传缓存对象
+     */
+    public static Object put(String key, Object value, long cacheTime, TimeUnit unit) {
+        return getRegion(key).put(key, value, cacheTime, unit);
+    }
+
+    public static Object get(String key) {
+        return getRegion(key).get(key);
+    }
+
+    /**
+     * 获取缓存 区分未命中和命中负缓存
+     *
+     * @param key 键
+     * @return null 未命中  {@link Optional#empty()} 命中负缓存 数据不存在
+     */
+    public static Optional<Object> lookup(String key) {
+        return getRegion(key).lookup(key);
+    }
+
+    /**
+     * 添加负缓存 表示数据不存在 缓存时间使用配置的negativeTime
+     *
+     * @param key 键
+     */
+    public static void putNegative(String key) {
+        getRegion(key).putNegative(key);
+    }
+
+    /**
+     * 添加负缓存 表示数据不存在
+     *
+     * @param key       键
+     * @param cacheTime 缓存时间
+     * @param unit      时间单位
+     */
+    public static void putNegative(String key, long cacheTime, TimeUnit unit) {
+        getRegion(key).putNegative(key, cacheTime, unit);
+    }
+
+    /**
+     * 原子计算缓存的值
+     *
+     * @param key       键
+     * @param remapping 参数为key 和当前值 返回null 删除缓存
+     * @return 新值
+     * @see CacheRegion#compute(String, BiFunction)
+     */
+    public static Object compute(String key, BiFunction<String, Object, Object> remapping) {
+        return getRegion(key).compute(key, remapping);
+    }
+
+    /**
+     * 原子合并缓存的值
+     *
+     * @param key       键
+     * @param value     不存在时的值
+     * @param remapping 参数为当前值和value 返回null 删除缓存
+     * @return 新值
+     * @see CacheRegion#merge(String, Object, BiFunction)
+     */
+    public static Object merge(String key, Object value, BiFunction<Object, Object, Object> remapping) {
+        return getRegion(key).merge(key, value, remapping);
+    }
+
+    /**
+     * 当前值等于expected 时替换
+     *
+     * @param key      键
+     * @param expected 期望的当前值
+     * @param value    新值
+     * @return 是否替换
+     */
+    public static boolean replace(String key, Object expected, Object value) {
+        return getRegion(key).replace(key, expected, value);
+    }
+
+    /**
+     * 获取缓存的版本
+     *
+     * @param key 键
+     * @return 0 不存在
+     * @see CacheRegion#getVersion(String)
+     */
+    public static long getVersion(String key) {
+        return getRegion(key).getVersion(key);
+    }
+
+    /**
+     * 缓存版本没有变化时修改
+     *
+     * @param key     键
+     * @param version 获取的版本 0 表示缓存不存在时添加
+     * @param value   新值
+     * @return 是否修改
+     */
+    public static boolean compareAndSet(String key, long version, Object value) {
+        return getRegion(key).compareAndSet(key, version, value);
+    }
+
+    /**
+     * 获取缓存 缓存不存在时调用加载接口
+     *
+     * @param key    键
+     * @param loader 加载接口 返回null 不缓存
+     * @return 值
+     * @see CacheRegion#get(String, Function)
+     */
+    public static Object get(String key, Function<String, Object> loader) {
+        return getRegion(key).get(key, loader);
+    }
+
+    /**
+     * 批量获取缓存 不存在的key 按区域合并后调用批量加载接口
+     *
+     * @param keys       键
+     * @param bulkLoader 批量加载接口 参数为需要加载的key
+     * @return 存在值的key 和值
+     * @see CacheRegion#getAll(Collection, Function)
+     */
+    public static Map<String, Object> getAll(Collection<String> keys, Function<Set<String>, Map<String, Object>> bulkLoader) {
+        Objects.requireNonNull(keys);
+        Map<CacheRegion, List<String>> regionKeys = new LinkedHashMap<>();
+        for (String key : keys) {
+            regionKeys.computeIfAbsent(getRegion(key), cacheRegion -> new ArrayList<>()).add(key);
         }
-        if (value == null) {
-            throw new NullPointerException();
+        if (regionKeys.size() == 1) {
+            Map.Entry<CacheRegion, List<String>> entry = regionKeys.entrySet().iterator().next();
+            return entry.getKey().getAll(entry.getValue(), bulkLoader);
         }
-        if (cacheTime <= 0) {
-            throw new IllegalArgumentException("cacheTime must >0");
+        Map<String, Object> result = new LinkedHashMap<>(keys.size());
+        for (Map.Entry<CacheRegion, List<String>> entry : regionKeys.entrySet()) {
+            result.putAll(entry.getKey().getAll(entry.getValue(), bulkLoader));
         }
-        AtomicBoolean containsKey = new AtomicBoolean(true);
-        CacheEntity<String, Object> cacheEntity = CONCURRENT_HASH_MAP.computeIfAbsent(key, entityKey -> {
-            // 缓存信息
-            CacheInfo cacheInfo = CACHE_INFO_CONCURRENT_HASH_MAP.computeIfAbsent(key, s -> new CacheInfo(key, cacheTime));
-            if (cacheTime != cacheInfo.getCacheTime()) {
-                cacheInfo.setCacheTime(cacheTime);
-            }
-            containsKey.set(false);
-            // 缓存对象
-            return new CacheEntity<>(key, value, cacheInfo);
-        });
-        return containsKey.get() ? cacheEntity.setValue(value, cacheTime) : null;
+        return result;
     }
 
-    public static Object get(String key) {
-        if (key == null) {
-            throw new NullPointerException();
+    /**
+     * 给缓存添加标签
+     *
+     * @param key  键
+     * @param tags 标签
+     * @return false 缓存不存在
+     * @see CacheRegion#tag(String, String...)
+     */
+    public static boolean tag(String key, String... tags) {
+        return getRegion(key).tag(key, tags);
+    }
+
+    /**
+     * 删除缓存
+     *
+     * @param key 键
+     * @return 是否存在
+     */
+    public static boolean invalidate(String key) {
+        return getRegion(key).invalidate(key);
+    }
+
+    /**
+     * 删除所有区域中指定前缀的缓存
+     *
+     * @param prefix 前缀
+     * @return 删除的条数
+     */
+    public static int invalidatePrefix(String prefix) {
+        int count = DEFAULT_REGION.invalidatePrefix(prefix);
+        for (CacheRegion cacheRegion : REGION_CONCURRENT_HASH_MAP.values()) {
+            count += cacheRegion.invalidatePrefix(prefix);
         }
-        CacheEntity<String, Object> cacheEntity = CONCURRENT_HASH_MAP.get(key);
-        return cacheEntity == null ? null : cacheEntity.getValue();
+        return count;
     }
 
     /**
-     * 缓存信息
+     * 删除所有区域中指定标签的缓存
      *
-     * @param <K>
-     * @param <V>
+     * @param tag 标签
+     * @return 删除的条数
      */
-    private static class CacheEntity<K, V> implements Map.Entry<K, V> {
-        final K key;
-        final CacheInfo cacheInfo;
-        V value;
-        long intoTime;
+    public static int invalidateTag(String tag) {
+        int count = DEFAULT_REGION.invalidateTag(tag);
+        for (CacheRegion cacheRegion : REGION_CONCURRENT_HASH_MAP.values()) {
+            count += cacheRegion.invalidateTag(tag);
+        }
+        return count;
+    }
 
-        CacheEntity(K key, V value, CacheInfo cacheInfo) {
-            this.key = key;
-            this.value = value;
-            this.intoTime = getCurrentTime();
-            this.cacheInfo = cacheInfo;
+    /**
+     * 删除所有缓存
+     *
+     * @return 删除的条数
+     */
+    public static int invalidateAll() {
+        CacheSnapshot cacheSnapshot = snapshot;
+        int count = cacheSnapshot == null ? 0 : cacheSnapshot.size();
+        snapshot = null;
+        count += DEFAULT_REGION.invalidateAll();
+        for (CacheRegion cacheRegion : REGION_CONCURRENT_HASH_MAP.values()) {
+            count += cacheRegion.invalidateAll();
         }
+        return count;
+    }
 
-        @Override
-        public K getKey() {
-            return key;
+    /**
+     * 获取缓存统计信息 按区域分组 每个区域中再按key 分组
+     *
+     * @return json
+     */
+    public static JSONArray getCacheStatusInfo() {
+        JSONArray jsonArray = new JSONArray();
+        jsonArray.add(DEFAULT_REGION.getStatusInfo());
+        for (CacheRegion cacheRegion : REGION_CONCURRENT_HASH_MAP.values()) {
+            jsonArray.add(cacheRegion.getStatusInfo());
         }
+        return jsonArray;
+    }
 
-        @Override
-        public V getValue() {
-            long existTime = getCurrentTime() - intoTime;
-            // 判断缓存时间
-            if (existTime > cacheInfo.getCacheTime()) {
-                return null;
-            }
-            return value;
+    /**
+     * 保存所有区域未过期的缓存到快照文件 只保存可序列化的值
+     *
+     * @param file 快照文件
+     * @return 保存的条数
+     * @throws IOException io
+     */
+    public static int saveSnapshot(File file) throws IOException {
+        Objects.requireNonNull(file);
+        List<CacheRegion> regions = new ArrayList<>();
+        regions.add(DEFAULT_REGION);
+        regions.addAll(REGION_CONCURRENT_HASH_MAP.values());
+        return CacheSnapshot.save(file, regions);
+    }
+
+    /**
+     * 加载快照文件 缓存在第一次读取时才从快照中恢复
+     * <p>
+     * 文件损坏或者版本不一致会跳过
+     *
+     * @param file 快照文件
+     * @return 快照中未过期的条数
+     */
+    public static int loadSnapshot(File file) {
+        Objects.requireNonNull(file);
+        CacheSnapshot cacheSnapshot = CacheSnapshot.load(file);
+        snapshot = cacheSnapshot;
+        return cacheSnapshot == null ? 0 : cacheSnapshot.size();
+    }
+
+    /**
+     * 立即写入所有区域等待异步写入的数据 关闭程序时调用
+     *
+     * @return 写入失败剩余的条数
+     * @see CacheRegion#setWriter(CacheWriter, long, TimeUnit, int)
+     */
+    public static int flushWriter() {
+        int count = DEFAULT_REGION.flushWriter();
+        for (CacheRegion cacheRegion : REGION_CONCURRENT_HASH_MAP.values()) {
+            count += cacheRegion.flushWriter();
         }
+        return count;
+    }
 
-        @Override
-        public V setValue(V value) {
-            if (value == null) {
-                throw new NullPointerException();
-            }
-            V val = this.value;
-            this.value = value;
-            this.intoTime = getCurrentTime();
-            return val;
-        }
-
-        /**
-         * 添加缓存的值 并且修改缓存时间
-         *
-         * @param value     object
-         * @param cacheTime 缓存时间 单位秒
-         * @return 修改之前的值
-         */
-        V setValue(V value, long cacheTime) {
-            if (cacheTime != -1) {
-                this.cacheInfo.setCacheTime(cacheTime);
+    static CacheReplicator getReplicator() {
+        return replicator;
+    }
+
+    static void setReplicator(CacheReplicator cacheReplicator) {
+        replicator = cacheReplicator;
+    }
+
+    /**
+     * 根据名称查找区域
+     *
+     * @param name 区域名称
+     * @return null 不存在
+     */
+    static CacheRegion getRegionByName(String name) {
+        if (DEFAULT_REGION.getName().equals(name)) {
+            return DEFAULT_REGION;
+        }
+        for (CacheRegion cacheRegion : REGION_CONCURRENT_HASH_MAP.values()) {
+            if (cacheRegion.getName().equals(name)) {
+                return cacheRegion;
             }
-            return setValue(value);
         }
+        return null;
+    }
+
+    static CacheSnapshot getSnapshot() {
+        CacheSnapshot cacheSnapshot = snapshot;
+        if (cacheSnapshot != null && cacheSnapshot.size() == 0) {
+            snapshot = null;
+            return null;
+        }
+        return cacheSnapshot;
     }
 
     /**
-     * 获取当前时间，秒
-     *
-     * @return 秒
+     * 后台线程定时清理所有区域过期的缓存
      */
-    private static long getCurrentTime() {
-        return DateUtil.getCurrentShortTimeMillis();
+    private static void expireLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(EXPIRE_TICK);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = CacheClock.currentTimeMillis();
+            try {
+                DEFAULT_REGION.expire(now);
+                for (CacheRegion cacheRegion : REGION_CONCURRENT_HASH_MAP.values()) {
+                    cacheRegion.expire(now);
+                }
+            } catch (Throwable e) {
+                DefaultSystemLog.ERROR().error("清理过期缓存异常", e);
+            }
+        }
     }
 }
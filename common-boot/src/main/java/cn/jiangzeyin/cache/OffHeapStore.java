@@ -0,0 +1,284 @@
+package cn.jiangzeyin.cache;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 堆外缓存存储
+ * <p>
+ * 在直接内存上按slab 分配：每个slab 4M 分配时归属一个固定的块大小(64B-4M 按2的幂划分)
+ * 值序列化后放入能容纳的最小块中 读取时复制出来再反序列化 缓存移除时归还块
+ * slab 一旦归属某个块大小不再回收 总量受容量限制
+ *
+ * @author jiangzeyin
+ * data 2018/9/10
+ */
+final class OffHeapStore {
+    private static final int SLAB_SIZE = 4 * 1024 * 1024;
+    private static final int MIN_CHUNK_SHIFT = 6;
+    private static final int MAX_CHUNK_SHIFT = 22;
+
+    private final long capacity;
+    private final int threshold;
+    private final List<Slab> slabs = new ArrayList<>();
+    private final SizeClass[] sizeClasses = new SizeClass[MAX_CHUNK_SHIFT - MIN_CHUNK_SHIFT + 1];
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * @param capacity  最大直接内存 字节
+     * @param threshold 序列化后大于等于该值的缓存写入时直接放入堆外 0 只存放淘汰的缓存
+     */
+    OffHeapStore(long capacity, int threshold) {
+        if (capacity < SLAB_SIZE) {
+            throw new IllegalArgumentException("offHeapCapacity must >=" + SLAB_SIZE);
+        }
+        this.capacity = capacity;
+        this.threshold = threshold;
+        for (int i = 0; i < sizeClasses.length; i++) {
+            sizeClasses[i] = new SizeClass(1 << (i + MIN_CHUNK_SHIFT));
+        }
+    }
+
+    int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 序列化对象
+     *
+     * @param value 值
+     * @return null 不能序列化
+     */
+    static byte[] serialize(Object value) {
+        if (!(value instanceof Serializable)) {
+            return null;
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream)) {
+            objectOutputStream.writeObject(value);
+        } catch (IOException e) {
+            return null;
+        }
+        return outputStream.toByteArray();
+    }
+
+    static Object deserialize(byte[] bytes) {
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return objectInputStream.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("off heap value deserialize error", e);
+        }
+    }
+
+    /**
+     * 写入堆外
+     *
+     * @param bytes 序列化后的值
+     * @return null 空间不足
+     */
+    OffHeapValue write(byte[] bytes) {
+        int index = sizeClassIndex(bytes.length);
+        if (index < 0) {
+            return null;
+        }
+        SizeClass sizeClass = sizeClasses[index];
+        OffHeapValue offHeapValue;
+        synchronized (sizeClass) {
+            Slab slab = sizeClass.current;
+            int chunk = slab == null ? -1 : slab.allocate();
+            if (chunk < 0) {
+                slab = null;
+                for (Slab item : sizeClass.slabs) {
+                    chunk = item.allocate();
+                    if (chunk >= 0) {
+                        slab = item;
+                        break;
+                    }
+                }
+            }
+            if (chunk < 0) {
+                slab = newSlab(sizeClass.chunkSize);
+                if (slab == null) {
+                    return null;
+                }
+                sizeClass.slabs.add(slab);
+                chunk = slab.allocate();
+            }
+            sizeClass.current = slab;
+            offHeapValue = new OffHeapValue(slab, chunk * sizeClass.chunkSize, bytes.length);
+        }
+        long stamp = offHeapValue.slab.lock.writeLock();
+        try {
+            ByteBuffer buffer = offHeapValue.slab.buffer.duplicate();
+            buffer.position(offHeapValue.offset);
+            buffer.put(bytes);
+        } finally {
+            offHeapValue.slab.lock.unlockWrite(stamp);
+        }
+        usedBytes.addAndGet(bytes.length);
+        count.incrementAndGet();
+        return offHeapValue;
+    }
+
+    /**
+     * 读取堆外的值
+     *
+     * @param offHeapValue 堆外位置
+     * @return null 已经被释放
+     */
+    Object read(OffHeapValue offHeapValue) {
+        byte[] bytes = new byte[offHeapValue.length];
+        Slab slab = offHeapValue.slab;
+        long stamp = slab.lock.tryOptimisticRead();
+        if (offHeapValue.freed) {
+            return null;
+        }
+        copy(slab, offHeapValue, bytes);
+        if (!slab.lock.validate(stamp)) {
+            stamp = slab.lock.readLock();
+            try {
+                if (offHeapValue.freed) {
+                    return null;
+                }
+                copy(slab, offHeapValue, bytes);
+            } finally {
+                slab.lock.unlockRead(stamp);
+            }
+        }
+        return deserialize(bytes);
+    }
+
+    /**
+     * 释放堆外空间 重复释放无影响
+     *
+     * @param offHeapValue 堆外位置
+     */
+    void free(OffHeapValue offHeapValue) {
+        Slab slab = offHeapValue.slab;
+        long stamp = slab.lock.writeLock();
+        try {
+            if (offHeapValue.freed) {
+                return;
+            }
+            offHeapValue.freed = true;
+        } finally {
+            slab.lock.unlockWrite(stamp);
+        }
+        SizeClass sizeClass = sizeClasses[sizeClassIndex(slab.chunkSize)];
+        synchronized (sizeClass) {
+            slab.release(offHeapValue.offset / slab.chunkSize);
+        }
+        usedBytes.addAndGet(-offHeapValue.length);
+        count.decrementAndGet();
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * 已经分配的直接内存
+     *
+     * @return 字节
+     */
+    synchronized long getAllocatedBytes() {
+        return (long) slabs.size() * SLAB_SIZE;
+    }
+
+    private synchronized Slab newSlab(int chunkSize) {
+        if ((long) (slabs.size() + 1) * SLAB_SIZE > capacity) {
+            return null;
+        }
+        Slab slab = new Slab(chunkSize);
+        slabs.add(slab);
+        return slab;
+    }
+
+    private static void copy(Slab slab, OffHeapValue offHeapValue, byte[] bytes) {
+        ByteBuffer buffer = slab.buffer.duplicate();
+        buffer.position(offHeapValue.offset);
+        buffer.get(bytes);
+    }
+
+    private static int sizeClassIndex(int length) {
+        if (length > SLAB_SIZE) {
+            return -1;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+        return Math.max(shift, MIN_CHUNK_SHIFT) - MIN_CHUNK_SHIFT;
+    }
+
+    /**
+     * 同一块大小的slab
+     */
+    private static final class SizeClass {
+        private final int chunkSize;
+        private final List<Slab> slabs = new ArrayList<>();
+        private Slab current;
+
+        SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    /**
+     * 一段直接内存 按固定大小切块
+     */
+    private static final class Slab {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(SLAB_SIZE);
+        private final StampedLock lock = new StampedLock();
+        private final int chunkSize;
+        /**
+         * 空闲块的栈 在所属SizeClass 的锁中操作
+         */
+        private final int[] freeChunks;
+        private int freeCount;
+
+        Slab(int chunkSize) {
+            this.chunkSize = chunkSize;
+            int chunkCount = SLAB_SIZE / chunkSize;
+            freeChunks = new int[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                freeChunks[i] = chunkCount - 1 - i;
+            }
+            freeCount = chunkCount;
+        }
+
+        int allocate() {
+            return freeCount == 0 ? -1 : freeChunks[--freeCount];
+        }
+
+        void release(int chunk) {
+            freeChunks[freeCount++] = chunk;
+        }
+    }
+
+    /**
+     * 堆外值的位置 保存在缓存对象中代替原值
+     */
+    static final class OffHeapValue {
+        private final Slab slab;
+        private final int offset;
+        private final int length;
+        private volatile boolean freed;
+
+        private OffHeapValue(Slab slab, int offset, int length) {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package cn.jiangzeyin.cache;
+
+import cn.jiangzeyin.pool.ThreadPoolService;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 提交到线程池的后台任务
+ * <p>
+ * 线程池关闭后拒绝策略可能直接丢弃任务 提交后发现线程池已经关闭时 由提交线程和执行线程抢占执行权
+ * 保证任务和拒绝处理有且只有一个会执行 不会因为任务被丢弃导致标记或者等待的结果永远不释放
+ *
+ * @author jiangzeyin
+ * data 2018/9/19
+ */
+final class PoolTask implements Runnable {
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final Runnable task;
+
+    private PoolTask(Runnable task) {
+        this.task = task;
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param poolClass 线程池主类
+     * @param task      任务
+     * @param rejected  任务没有执行时在提交线程中调用
+     */
+    static void execute(Class poolClass, Runnable task, Runnable rejected) {
+        PoolTask poolTask = new PoolTask(task);
+        ExecutorService executorService = ThreadPoolService.newCachedThreadPool(poolClass);
+        try {
+            executorService.execute(poolTask);
+        } catch (RejectedExecutionException e) {
+            poolTask.reject(rejected);
+            return;
+        }
+        if (executorService.isShutdown()) {
+            // 可能已经被丢弃 也可能还在队列中等待执行
+            poolTask.reject(rejected);
+        }
+    }
+
+    private void reject(Runnable rejected) {
+        if (started.compareAndSet(false, true)) {
+            rejected.run();
+        }
+    }
+
+    @Override
+    public void run() {
+        if (started.compareAndSet(false, true)) {
+            task.run();
+        }
+    }
+}
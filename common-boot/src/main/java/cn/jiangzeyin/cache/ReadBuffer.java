@@ -0,0 +1,94 @@
+package cn.jiangzeyin.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 读操作记录缓冲区
+ * <p>
+ * 按线程分段的有损环形队列 读线程只做一次cas 不会阻塞 缓冲区满时直接丢弃记录
+ * 由持有淘汰锁的线程批量消费
+ *
+ * @author jiangzeyin
+ * data 2018/9/3
+ */
+final class ReadBuffer<E> {
+    static final int SUCCESS = 0;
+    static final int FAILED = 1;
+    static final int FULL = 2;
+
+    private static final int BUFFER_SIZE = 16;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    ReadBuffer() {
+        int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        stripeMask = count - 1;
+    }
+
+    /**
+     * 记录一次读
+     *
+     * @param e 读取的对象
+     * @return SUCCESS FAILED FULL
+     */
+    @SuppressWarnings("unchecked")
+    int offer(E e) {
+        Stripe<E> stripe = stripes[probe() & stripeMask];
+        long head = stripe.readCounter;
+        long tail = stripe.writeCounter.get();
+        long size = tail - head;
+        if (size >= BUFFER_SIZE) {
+            return FULL;
+        }
+        if (stripe.writeCounter.compareAndSet(tail, tail + 1)) {
+            stripe.buffer.lazySet((int) (tail & BUFFER_MASK), e);
+            return size + 1 >= BUFFER_SIZE ? FULL : SUCCESS;
+        }
+        return FAILED;
+    }
+
+    /**
+     * 消费所有记录 需要在淘汰锁中调用
+     *
+     * @param consumer 消费者
+     */
+    @SuppressWarnings("unchecked")
+    void drainTo(Consumer<E> consumer) {
+        for (Stripe<E> stripe : stripes) {
+            long head = stripe.readCounter;
+            long tail = stripe.writeCounter.get();
+            while (head < tail) {
+                int index = (int) (head & BUFFER_MASK);
+                E e = stripe.buffer.get(index);
+                if (e == null) {
+                    // 写入还未完成
+                    break;
+                }
+                stripe.buffer.lazySet(index, null);
+                consumer.accept(e);
+                head++;
+            }
+            stripe.readCounter = head;
+        }
+    }
+
+    private static int probe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Stripe<E> {
+        private final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<>(BUFFER_SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+    }
+}
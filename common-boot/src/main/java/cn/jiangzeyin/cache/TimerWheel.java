@@ -0,0 +1,153 @@
+package cn.jiangzeyin.cache;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 分层时间轮 负责主动清理过期缓存
+ * <p>
+ * 共5层 每格跨度分别约为64毫秒、4秒、4分钟、4.6小时、12天 高层的缓存在到期前逐层下沉
+ * 每次推进只处理经过的格子 开销和到期的缓存数量成正比 与缓存总数无关
+ * <p>
+ * 写线程只把缓存放入无锁队列 由清理线程统一加入时间轮
+ *
+ * @author jiangzeyin
+ * data 2018/9/4
+ */
+final class TimerWheel {
+    private static final int[] BUCKETS = {64, 64, 64, 64, 1};
+    /**
+     * 每层每格的跨度 毫秒
+     */
+    private static final long[] SPANS = {
+            1L << 6, 1L << 12, 1L << 18, 1L << 24, 1L << 30, 1L << 30};
+    private static final int[] SHIFT = {6, 12, 18, 24, 30};
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentLinkedQueue<CacheEntity> pending = new ConcurrentLinkedQueue<>();
+    private final CacheEntity[][] wheel;
+    private long time;
+
+    TimerWheel(long now) {
+        this.time = now;
+        wheel = new CacheEntity[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new CacheEntity[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++) {
+                CacheEntity sentinel = new CacheEntity(null, null, null, 0);
+                sentinel.timerPrev = sentinel;
+                sentinel.timerNext = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * 缓存新增、过期时间缩短或者被移除时调用 不加锁
+     *
+     * @param entity 缓存
+     */
+    void reschedule(CacheEntity entity) {
+        pending.offer(entity);
+    }
+
+    /**
+     * 推进时间轮
+     *
+     * @param now      当前时间 毫秒
+     * @param alive    缓存是否还在map 中
+     * @param onExpire 到期的缓存
+     */
+    void advance(long now, Predicate<CacheEntity> alive, Consumer<CacheEntity> onExpire) {
+        lock.lock();
+        try {
+            CacheEntity entity;
+            while ((entity = pending.poll()) != null) {
+                unlink(entity);
+                if (alive.test(entity)) {
+                    schedule(entity);
+                }
+            }
+            long previous = time;
+            if (now <= previous) {
+                return;
+            }
+            time = now;
+            for (int i = 0; i < SHIFT.length; i++) {
+                long previousTicks = previous >>> SHIFT[i];
+                long currentTicks = now >>> SHIFT[i];
+                if (currentTicks - previousTicks <= 0) {
+                    break;
+                }
+                expire(i, previousTicks, currentTicks - previousTicks, alive, onExpire);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void expire(int index, long previousTicks, long delta, Predicate<CacheEntity> alive, Consumer<CacheEntity> onExpire) {
+        CacheEntity[] timerWheel = wheel[index];
+        int mask = timerWheel.length - 1;
+        int steps = (int) Math.min(delta + 1, timerWheel.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+        for (int i = start; i < end; i++) {
+            CacheEntity sentinel = timerWheel[i & mask];
+            CacheEntity node = sentinel.timerNext;
+            sentinel.timerPrev = sentinel;
+            sentinel.timerNext = sentinel;
+            while (node != sentinel) {
+                CacheEntity next = node.timerNext;
+                node.timerPrev = null;
+                node.timerNext = null;
+                if (!alive.test(node)) {
+                    node = next;
+                    continue;
+                }
+                if (node.getExpireTime() <= time) {
+                    onExpire.accept(node);
+                } else {
+                    // 还未到期 下沉到更低的层
+                    schedule(node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    private void schedule(CacheEntity entity) {
+        CacheEntity sentinel = findBucket(Math.max(entity.getExpireTime(), time));
+        entity.timerPrev = sentinel.timerPrev;
+        entity.timerNext = sentinel;
+        sentinel.timerPrev.timerNext = entity;
+        sentinel.timerPrev = entity;
+    }
+
+    private void unlink(CacheEntity entity) {
+        CacheEntity prev = entity.timerPrev;
+        if (prev == null) {
+            return;
+        }
+        CacheEntity next = entity.timerNext;
+        prev.timerNext = next;
+        next.timerPrev = prev;
+        entity.timerPrev = null;
+        entity.timerNext = null;
+    }
+
+    private CacheEntity findBucket(long expireTime) {
+        long duration = expireTime - time;
+        int length = wheel.length - 1;
+        for (int i = 0; i < length; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = (expireTime >>> SHIFT[i]);
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[length][0];
+    }
+}
@@ -0,0 +1,353 @@
+package cn.jiangzeyin.cache;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * W-TinyLFU 淘汰策略
+ * <p>
+ * 新缓存先进入窗口LRU(1%) 窗口溢出的缓存需要和主区域的淘汰候选比较访问频率 频率更高才能进入主区域
+ * 主区域为分段LRU：试用区和保护区(80%) 试用区被再次访问后晋升到保护区
+ * <p>
+ * 读操作只写入{@link ReadBuffer} 不加锁 写操作和缓冲区消费在淘汰锁中进行
+ * <p>
+ * 容量按缓存的权重计算 未配置权重计算时每个缓存权重为1 即按条数限制
+ *
+ * @author jiangzeyin
+ * data 2018/9/3
+ */
+final class TinyLfuPolicy {
+    private static final double PERCENT_MAIN_PROTECTED = 0.80d;
+    private static final double PERCENT_WINDOW = 0.01d;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final ReadBuffer<CacheEntity> readBuffer = new ReadBuffer<>();
+    private final AccessOrderQueue window = new AccessOrderQueue();
+    private final AccessOrderQueue probation = new AccessOrderQueue();
+    private final AccessOrderQueue protect = new AccessOrderQueue();
+    /**
+     * 从缓存map 中移除被淘汰的对象
+     */
+    private final Predicate<CacheEntity> evictionListener;
+    /**
+     * 淘汰前尝试转移到堆外 成功后缓存保留在map 中
+     */
+    private volatile Predicate<CacheEntity> demoter;
+
+    /**
+     * 是否按权重限制 按权重时频率统计的容量随条数增长
+     */
+    private final boolean weighted;
+
+    private long maximum;
+    private long windowMaximum;
+    private long protectedMaximum;
+
+    TinyLfuPolicy(long maximum, boolean weighted, Predicate<CacheEntity> evictionListener) {
+        this.evictionListener = evictionListener;
+        this.weighted = weighted;
+        setMaximum(maximum);
+    }
+
+    /**
+     * 修改缓存最大容量
+     *
+     * @param maximum 最大条数或者最大权重
+     */
+    void setMaximum(long maximum) {
+        if (maximum <= 0) {
+            throw new IllegalArgumentException("maximum must >0");
+        }
+        evictionLock.lock();
+        try {
+            this.maximum = maximum;
+            this.windowMaximum = Math.max(1, (long) (maximum * PERCENT_WINDOW));
+            long mainMaximum = Math.max(0, maximum - windowMaximum);
+            this.protectedMaximum = (long) (mainMaximum * PERCENT_MAIN_PROTECTED);
+            sketch.ensureCapacity(weighted ? size() : maximum);
+            evictEntries();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    void setDemoter(Predicate<CacheEntity> demoter) {
+        this.demoter = demoter;
+    }
+
+    long getMaximum() {
+        return maximum;
+    }
+
+    boolean isWeighted() {
+        return weighted;
+    }
+
+    /**
+     * 当前淘汰队列中的条数
+     *
+     * @return 条数
+     */
+    long size() {
+        return window.size + probation.size + protect.size;
+    }
+
+    /**
+     * 当前淘汰队列中的总权重
+     *
+     * @return 权重
+     */
+    long weightedSize() {
+        return window.weight + probation.weight + protect.weight;
+    }
+
+    /**
+     * 读取缓存后记录
+     *
+     * @param entity 缓存
+     */
+    void afterRead(CacheEntity entity) {
+        int result = readBuffer.offer(entity);
+        if (result == ReadBuffer.FULL && evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 添加或者修改缓存后记录
+     *
+     * @param entity 缓存
+     */
+    void afterWrite(CacheEntity entity) {
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            if (entity.queueType == CacheEntity.QUEUE_NONE || entity.queueType == CacheEntity.QUEUE_OFF_HEAP) {
+                entity.policyWeight = entity.weight;
+                entity.queueType = CacheEntity.QUEUE_WINDOW;
+                window.offerLast(entity);
+                if (weighted) {
+                    sketch.ensureCapacity(size());
+                }
+                sketch.increment(entity.key.hashCode());
+                evictEntries();
+            } else if (entity.queueType != CacheEntity.QUEUE_DEAD) {
+                // 值被修改后更新权重
+                AccessOrderQueue queue = queueOf(entity);
+                queue.weight += entity.weight - entity.policyWeight;
+                entity.policyWeight = entity.weight;
+                onAccess(entity);
+                evictEntries();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * 缓存被移除后记录
+     *
+     * @param entity 缓存
+     */
+    void afterRemove(CacheEntity entity) {
+        evictionLock.lock();
+        try {
+            unlink(entity);
+            entity.queueType = CacheEntity.QUEUE_DEAD;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void drainReadBuffer() {
+        readBuffer.drainTo(this::onAccess);
+    }
+
+    private void onAccess(CacheEntity entity) {
+        switch (entity.queueType) {
+            case CacheEntity.QUEUE_WINDOW:
+                sketch.increment(entity.key.hashCode());
+                window.moveToLast(entity);
+                break;
+            case CacheEntity.QUEUE_PROBATION:
+                sketch.increment(entity.key.hashCode());
+                // 晋升到保护区
+                probation.remove(entity);
+                entity.queueType = CacheEntity.QUEUE_PROTECTED;
+                protect.offerLast(entity);
+                demoteFromProtected();
+                break;
+            case CacheEntity.QUEUE_PROTECTED:
+                sketch.increment(entity.key.hashCode());
+                protect.moveToLast(entity);
+                break;
+            default:
+                // 还未加入队列或者已经移除
+                break;
+        }
+    }
+
+    /**
+     * 保护区溢出的缓存降级到试用区
+     */
+    private void demoteFromProtected() {
+        while (protect.weight > protectedMaximum) {
+            CacheEntity demoted = protect.pollFirst();
+            demoted.queueType = CacheEntity.QUEUE_PROBATION;
+            probation.offerLast(demoted);
+        }
+    }
+
+    private void evictEntries() {
+        long mainMaximum = maximum - windowMaximum;
+        // 窗口溢出的缓存和主区域竞争
+        while (window.weight > windowMaximum) {
+            CacheEntity candidate = window.pollFirst();
+            if (candidate.policyWeight > maximum) {
+                // 超过最大容量的缓存直接淘汰
+                evict(candidate);
+                continue;
+            }
+            if (probation.weight + protect.weight + candidate.policyWeight <= mainMaximum) {
+                candidate.queueType = CacheEntity.QUEUE_PROBATION;
+                probation.offerLast(candidate);
+                continue;
+            }
+            CacheEntity victim = probation.peekFirst();
+            if (victim == null) {
+                victim = protect.peekFirst();
+            }
+            if (victim == null) {
+                evict(candidate);
+                continue;
+            }
+            if (admit(candidate, victim)) {
+                unlink(victim);
+                evict(victim);
+                candidate.queueType = CacheEntity.QUEUE_PROBATION;
+                probation.offerLast(candidate);
+            } else {
+                evict(candidate);
+            }
+        }
+        // 最大容量被调小或者主区域超出
+        while (weightedSize() > maximum) {
+            CacheEntity victim = probation.peekFirst();
+            if (victim == null) {
+                victim = protect.peekFirst();
+            }
+            if (victim == null) {
+                victim = window.peekFirst();
+            }
+            unlink(victim);
+            evict(victim);
+        }
+    }
+
+    /**
+     * 候选的访问频率高于淘汰对象才能进入主区域
+     */
+    private boolean admit(CacheEntity candidate, CacheEntity victim) {
+        int candidateFreq = sketch.frequency(candidate.key.hashCode());
+        int victimFreq = sketch.frequency(victim.key.hashCode());
+        return candidateFreq > victimFreq;
+    }
+
+    private void evict(CacheEntity entity) {
+        Predicate<CacheEntity> demoter = this.demoter;
+        if (demoter != null) {
+            entity.queueType = CacheEntity.QUEUE_OFF_HEAP;
+            if (demoter.test(entity)) {
+                return;
+            }
+        }
+        entity.queueType = CacheEntity.QUEUE_DEAD;
+        evictionListener.test(entity);
+    }
+
+    private void unlink(CacheEntity entity) {
+        AccessOrderQueue queue = queueOf(entity);
+        if (queue != null) {
+            queue.remove(entity);
+        }
+    }
+
+    private AccessOrderQueue queueOf(CacheEntity entity) {
+        switch (entity.queueType) {
+            case CacheEntity.QUEUE_WINDOW:
+                return window;
+            case CacheEntity.QUEUE_PROBATION:
+                return probation;
+            case CacheEntity.QUEUE_PROTECTED:
+                return protect;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 侵入式双向链表 节点的前后指针保存在缓存对象中
+     */
+    private static final class AccessOrderQueue {
+        private CacheEntity first;
+        private CacheEntity last;
+        private long size;
+        private long weight;
+
+        CacheEntity peekFirst() {
+            return first;
+        }
+
+        CacheEntity pollFirst() {
+            CacheEntity entity = first;
+            if (entity != null) {
+                remove(entity);
+            }
+            return entity;
+        }
+
+        void offerLast(CacheEntity entity) {
+            entity.queuePrev = last;
+            entity.queueNext = null;
+            if (last == null) {
+                first = entity;
+            } else {
+                last.queueNext = entity;
+            }
+            last = entity;
+            size++;
+            weight += entity.policyWeight;
+        }
+
+        void remove(CacheEntity entity) {
+            CacheEntity prev = entity.queuePrev;
+            CacheEntity next = entity.queueNext;
+            if (prev == null) {
+                first = next;
+            } else {
+                prev.queueNext = next;
+            }
+            if (next == null) {
+                last = prev;
+            } else {
+                next.queuePrev = prev;
+            }
+            entity.queuePrev = null;
+            entity.queueNext = null;
+            size--;
+            weight -= entity.policyWeight;
+        }
+
+        void moveToLast(CacheEntity entity) {
+            if (entity != last) {
+                remove(entity);
+                offerLast(entity);
+            }
+        }
+    }
+}
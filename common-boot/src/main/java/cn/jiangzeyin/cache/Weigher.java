@@ -0,0 +1,21 @@
+package cn.jiangzeyin.cache;
+
+/**
+ * 缓存权重计算
+ * <p>
+ * 配置{@link CacheConfig#maximumWeight()} 后 缓存区域按权重总和限制容量
+ *
+ * @author jiangzeyin
+ * data 2018/9/12
+ */
+@FunctionalInterface
+public interface Weigher {
+    /**
+     * 计算缓存的权重 在写入时调用一次
+     *
+     * @param key   键
+     * @param value 值
+     * @return 权重 不能小于0
+     */
+    int weigh(String key, Object value);
+}
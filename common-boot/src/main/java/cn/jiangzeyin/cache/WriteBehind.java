@@ -0,0 +1,183 @@
+package cn.jiangzeyin.cache;
+
+import cn.jiangzeyin.common.DefaultSystemLog;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 缓存异步批量写入
+ * <p>
+ * 修改的值先合并到待写入map 中 同一个key 只保留最新的值
+ * 后台清理线程按间隔检查 条数到达批量大小时立即提交写入 同时只有一个写入任务
+ *
+ * @author jiangzeyin
+ * data 2018/9/16
+ */
+final class WriteBehind {
+    private final String name;
+    private final CacheWriter writer;
+    private final long delay;
+    private final int batchSize;
+    private final ConcurrentHashMap<String, Object> pending = new ConcurrentHashMap<>();
+    /**
+     * 是否已经提交了写入任务
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /**
+     * 保证写入接口不会被并发调用
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final LongAdder writeCount = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private volatile long lastWriteTime = CacheClock.currentTimeMillis();
+
+    /**
+     * @param name      区域名称
+     * @param writer    写入接口
+     * @param delay     写入间隔 毫秒
+     * @param batchSize 每批最大条数
+     */
+    WriteBehind(String name, CacheWriter writer, long delay, int batchSize) {
+        this.name = name;
+        this.writer = writer;
+        this.delay = delay;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * 记录修改
+     *
+     * @param key   键
+     * @param value 最新的值
+     */
+    void offer(String key, Object value) {
+        pending.put(key, value);
+        if (pending.size() >= batchSize) {
+            schedule();
+        }
+    }
+
+    /**
+     * 到达写入间隔时提交写入 由后台清理线程调用
+     *
+     * @param now 当前时间
+     */
+    void tick(long now) {
+        if (!pending.isEmpty() && now - lastWriteTime >= delay) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        // 线程池已经关闭时 等待下次检查或者关闭时写入
+        PoolTask.execute(WriteBehind.class, () -> {
+            try {
+                writePending(false);
+            } finally {
+                scheduled.set(false);
+            }
+        }, () -> scheduled.set(false));
+    }
+
+    /**
+     * 立即写入所有待写入的数据 关闭程序时调用
+     *
+     * @return 写入失败的条数
+     */
+    int flush() {
+        writePending(true);
+        return pending.size();
+    }
+
+    /**
+     * 按批量大小写入
+     *
+     * @param all true 写入全部 失败时停止 false 只写入当前已经满的批次和到达间隔的剩余数据
+     */
+    private void writePending(boolean all) {
+        writeLock.lock();
+        try {
+            while (!pending.isEmpty()) {
+                boolean full = pending.size() >= batchSize;
+                if (!all && !full && CacheClock.currentTimeMillis() - lastWriteTime < delay) {
+                    return;
+                }
+                if (!writeBatch()) {
+                    return;
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 取出一批写入 取出后修改的key 会重新进入待写入map
+     *
+     * @return false 写入失败
+     */
+    private boolean writeBatch() {
+        Map<String, Object> batch = new LinkedHashMap<>(Math.min(batchSize, pending.size()) * 4 / 3 + 1);
+        Iterator<Map.Entry<String, Object>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext() && batch.size() < batchSize) {
+            Map.Entry<String, Object> entry = iterator.next();
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (pending.remove(key, value)) {
+                batch.put(key, value);
+            }
+        }
+        lastWriteTime = CacheClock.currentTimeMillis();
+        if (batch.isEmpty()) {
+            return true;
+        }
+        try {
+            writer.write(batch);
+        } catch (RuntimeException e) {
+            failureCount.increment();
+            // 没有新值的key 放回 下次重新写入
+            for (Map.Entry<String, Object> entry : batch.entrySet()) {
+                pending.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            DefaultSystemLog.ERROR().error(name + " 缓存批量写入失败 条数:" + batch.size(), e);
+            return false;
+        }
+        writeCount.add(batch.size());
+        batchCount.increment();
+        return true;
+    }
+
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    long getDelay() {
+        return delay;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    long getWriteCount() {
+        return writeCount.sum();
+    }
+
+    long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    long getFailureCount() {
+        return failureCount.sum();
+    }
+}
@@ -0,0 +1,21 @@
+package cn.jiangzeyin.cache.spring;
+
+import cn.jiangzeyin.cache.Cached;
+import org.springframework.aop.framework.AbstractAdvisingBeanPostProcessor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+
+/**
+ * 给包含{@link Cached} 方法的bean 创建代理
+ *
+ * @author jiangzeyin
+ * data 2018/9/15
+ */
+public class CachedAnnotationBeanPostProcessor extends AbstractAdvisingBeanPostProcessor {
+
+    public CachedAnnotationBeanPostProcessor() {
+        this.advisor = new DefaultPointcutAdvisor(AnnotationMatchingPointcut.forMethodAnnotation(Cached.class), new CachedInterceptor());
+        // 已经有代理时加在最前面
+        setBeforeExistingAdvisors(true);
+    }
+}
@@ -0,0 +1,37 @@
+package cn.jiangzeyin.cache.spring;
+
+import cn.jiangzeyin.CommonPropertiesFinal;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 注册{@link cn.jiangzeyin.cache.Cached} 代理和ObjectCache 的CacheManager
+ *
+ * @author jiangzeyin
+ * data 2018/9/15
+ */
+@Configuration
+public class CachedConfiguration {
+
+    @Bean
+    public static CachedAnnotationBeanPostProcessor cachedAnnotationBeanPostProcessor() {
+        return new CachedAnnotationBeanPostProcessor();
+    }
+
+    /**
+     * 配置cache.springCacheManager=true 并且没有其他CacheManager 时spring 缓存注解使用ObjectCache
+     * <p>
+     * 默认关闭 该配置类通过包扫描加载 早于spring boot 的缓存自动配置 默认开启会抢先注册CacheManager
+     *
+     * @return cacheManager
+     */
+    @Bean
+    @ConditionalOnMissingBean(CacheManager.class)
+    @ConditionalOnProperty(name = CommonPropertiesFinal.CACHE_SPRING_CACHE_MANAGER, havingValue = "true", matchIfMissing = false)
+    public CacheManager objectCacheManager() {
+        return new ObjectCacheManager();
+    }
+}
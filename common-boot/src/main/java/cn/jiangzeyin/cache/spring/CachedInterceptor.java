@@ -0,0 +1,100 @@
+package cn.jiangzeyin.cache.spring;
+
+import cn.jiangzeyin.cache.CacheRegion;
+import cn.jiangzeyin.cache.Cached;
+import cn.jiangzeyin.cache.ObjectCache;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.core.annotation.AnnotationUtils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Cached} 方法拦截
+ * <p>
+ * 注解和key 模板在第一次调用时解析 之后每次调用只查找一次map
+ *
+ * @author jiangzeyin
+ * data 2018/9/15
+ */
+public class CachedInterceptor implements MethodInterceptor {
+    private final ConcurrentHashMap<Method, CachedOperation> operationMap = new ConcurrentHashMap<>();
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Method method = invocation.getMethod();
+        CachedOperation operation = operationMap.get(method);
+        if (operation == null) {
+            operation = operationMap.computeIfAbsent(method, m -> CachedOperation.create(m, invocation.getThis()));
+        }
+        if (operation == CachedOperation.NONE) {
+            return invocation.proceed();
+        }
+        String key = operation.keyTemplate.generate(invocation.getArguments());
+        CacheRegion cacheRegion = operation.cacheRegion == null ? ObjectCache.region(key) : operation.cacheRegion;
+        try {
+            if (operation.cacheTime > 0) {
+                return cacheRegion.get(key, k -> proceed(invocation), operation.cacheTime, operation.cached.UNIT());
+            }
+            return cacheRegion.get(key, k -> proceed(invocation));
+        } catch (InvocationException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Object proceed(MethodInvocation invocation) {
+        try {
+            return invocation.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new InvocationException(e);
+        }
+    }
+
+    /**
+     * 包装方法抛出的受检异常 调用结束后还原
+     */
+    private static class InvocationException extends RuntimeException {
+        InvocationException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * 解析后的方法配置
+     */
+    private static final class CachedOperation {
+        private static final CachedOperation NONE = new CachedOperation(null, null, null);
+
+        private final Cached cached;
+        private final CachedKeyTemplate keyTemplate;
+        private final CacheRegion cacheRegion;
+        private final long cacheTime;
+
+        private CachedOperation(Cached cached, CachedKeyTemplate keyTemplate, CacheRegion cacheRegion) {
+            this.cached = cached;
+            this.keyTemplate = keyTemplate;
+            this.cacheRegion = cacheRegion;
+            this.cacheTime = cached == null ? 0 : cached.ttl();
+        }
+
+        static CachedOperation create(Method method, Object target) {
+            Method specificMethod = target == null ? method : AopUtils.getMostSpecificMethod(method, target.getClass());
+            Cached cached = AnnotationUtils.findAnnotation(specificMethod, Cached.class);
+            if (cached == null) {
+                cached = AnnotationUtils.findAnnotation(method, Cached.class);
+            }
+            if (cached == null) {
+                return NONE;
+            }
+            if (cached.ttl() < 0) {
+                throw new IllegalArgumentException("ttl must >=0:" + method);
+            }
+            CacheRegion cacheRegion = cached.region() == Void.class ? null : ObjectCache.region(cached.region());
+            return new CachedOperation(cached, CachedKeyTemplate.compile(cached.key(), specificMethod), cacheRegion);
+        }
+    }
+}
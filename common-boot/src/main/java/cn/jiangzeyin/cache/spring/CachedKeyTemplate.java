@@ -0,0 +1,108 @@
+package cn.jiangzeyin.cache.spring;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预编译的缓存key 模板
+ * <p>
+ * 每个方法只解析一次 生成key 时只拼接字符串 不使用反射
+ *
+ * @author jiangzeyin
+ * data 2018/9/15
+ */
+final class CachedKeyTemplate {
+    /**
+     * 模板中的固定文本 比参数多一个
+     */
+    private final String[] literals;
+    /**
+     * 参数下标 -1 表示全部参数
+     */
+    private final int[] indexes;
+
+    private CachedKeyTemplate(String[] literals, int[] indexes) {
+        this.literals = literals;
+        this.indexes = indexes;
+    }
+
+    /**
+     * 解析模板
+     *
+     * @param template 模板 为空时使用 类名.方法名:全部参数
+     * @param method   方法
+     * @return 模板
+     */
+    static CachedKeyTemplate compile(String template, Method method) {
+        if (template == null || template.isEmpty()) {
+            String prefix = method.getDeclaringClass().getName() + "." + method.getName() + ":";
+            return new CachedKeyTemplate(new String[]{prefix, ""}, new int[]{-1});
+        }
+        int parameterCount = method.getParameterTypes().length;
+        List<String> literals = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            char c = template.charAt(i);
+            if (c != '{') {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            int end = template.indexOf('}', i);
+            if (end < 0) {
+                throw new IllegalArgumentException("key 模板错误:" + template + " " + method);
+            }
+            int index;
+            try {
+                index = Integer.parseInt(template.substring(i + 1, end).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("key 模板错误:" + template + " " + method, e);
+            }
+            if (index < 0 || index >= parameterCount) {
+                throw new IllegalArgumentException("key 模板参数下标错误:" + template + " " + method);
+            }
+            literals.add(literal.toString());
+            literal.setLength(0);
+            indexes.add(index);
+            i = end + 1;
+        }
+        literals.add(literal.toString());
+        int[] indexArray = new int[indexes.size()];
+        for (int j = 0; j < indexArray.length; j++) {
+            indexArray[j] = indexes.get(j);
+        }
+        return new CachedKeyTemplate(literals.toArray(new String[0]), indexArray);
+    }
+
+    /**
+     * 生成key
+     *
+     * @param args 方法参数
+     * @return key
+     */
+    String generate(Object[] args) {
+        if (indexes.length == 0) {
+            return literals[0];
+        }
+        StringBuilder builder = new StringBuilder(64);
+        for (int i = 0; i < indexes.length; i++) {
+            builder.append(literals[i]);
+            int index = indexes[i];
+            if (index >= 0) {
+                builder.append(args[index]);
+                continue;
+            }
+            for (int j = 0; j < args.length; j++) {
+                if (j > 0) {
+                    builder.append(',');
+                }
+                builder.append(args[j]);
+            }
+        }
+        builder.append(literals[indexes.length]);
+        return builder.toString();
+    }
+}
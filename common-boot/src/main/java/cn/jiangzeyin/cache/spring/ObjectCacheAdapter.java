@@ -0,0 +1,117 @@
+package cn.jiangzeyin.cache.spring;
+
+import cn.jiangzeyin.cache.CacheRegion;
+import cn.jiangzeyin.cache.ObjectCache;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+/**
+ * spring Cache 适配 负缓存对应spring 缓存的null 值
+ *
+ * @author jiangzeyin
+ * data 2018/9/15
+ */
+class ObjectCacheAdapter implements Cache {
+    private final String name;
+    private final String prefix;
+
+    ObjectCacheAdapter(String name) {
+        this.name = name;
+        this.prefix = name + ":";
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return ObjectCache.class;
+    }
+
+    private String toKey(Object key) {
+        return prefix + key;
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        Optional<Object> value = ObjectCache.lookup(toKey(key));
+        if (value == null) {
+            return null;
+        }
+        return new SimpleValueWrapper(value.orElse(null));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        Object value = ObjectCache.get(toKey(key));
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        return (T) ObjectCache.get(toKey(key), k -> {
+            try {
+                return valueLoader.call();
+            } catch (Exception e) {
+                throw new ValueRetrievalException(key, valueLoader, e);
+            }
+        });
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        String cacheKey = toKey(key);
+        if (value != null) {
+            ObjectCache.put(cacheKey, value);
+            return;
+        }
+        putNull(cacheKey);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        String cacheKey = toKey(key);
+        if (value == null) {
+            ValueWrapper existing = get(key);
+            if (existing == null) {
+                putNull(cacheKey);
+            }
+            return existing;
+        }
+        Object existing = ObjectCache.region(cacheKey).putIfAbsent(cacheKey, value);
+        return existing == null ? null : new SimpleValueWrapper(existing);
+    }
+
+    /**
+     * null 值保存为负缓存 未配置negativeTime 时删除
+     */
+    private void putNull(String cacheKey) {
+        CacheRegion cacheRegion = ObjectCache.region(cacheKey);
+        try {
+            cacheRegion.putNegative(cacheKey);
+        } catch (IllegalArgumentException e) {
+            // 未配置negativeTime
+            cacheRegion.invalidate(cacheKey);
+        }
+    }
+
+    @Override
+    public void evict(Object key) {
+        ObjectCache.invalidate(toKey(key));
+    }
+
+    @Override
+    public void clear() {
+        ObjectCache.invalidatePrefix(prefix);
+    }
+}
@@ -0,0 +1,31 @@
+package cn.jiangzeyin.cache.spring;
+
+import cn.jiangzeyin.cache.ObjectCache;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 使用{@link ObjectCache} 实现的spring CacheManager  使@Cacheable 等注解的缓存保存在ObjectCache 中
+ * <p>
+ * 缓存的key 为 缓存名称:key 可以通过{@link cn.jiangzeyin.cache.CacheConfigField} 配置完整的key 所在的区域
+ *
+ * @author jiangzeyin
+ * data 2018/9/15
+ */
+public class ObjectCacheManager implements CacheManager {
+    private final ConcurrentHashMap<String, ObjectCacheAdapter> cacheMap = new ConcurrentHashMap<>();
+
+    @Override
+    public Cache getCache(String name) {
+        return cacheMap.computeIfAbsent(name, ObjectCacheAdapter::new);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return Collections.unmodifiableSet(cacheMap.keySet());
+    }
+}
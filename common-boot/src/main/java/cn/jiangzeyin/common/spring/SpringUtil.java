@@ -2,6 +2,8 @@ package cn.jiangzeyin.common.spring;
 
 import cn.jiangzeyin.CommonPropertiesFinal;
 import cn.jiangzeyin.StringUtil;
+import cn.jiangzeyin.cache.CounterCache;
+import cn.jiangzeyin.cache.ObjectCache;
 import cn.jiangzeyin.common.ApplicationBuilder;
 import cn.jiangzeyin.common.CommonInitPackage;
 import cn.jiangzeyin.common.DefaultSystemLog;
@@ -20,6 +22,8 @@ import org.springframework.core.env.Environment;
 import org.springframework.util.Assert;
 import org.springframework.web.context.support.ServletRequestHandledEvent;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.Objects;
 
@@ -49,6 +53,11 @@ public class SpringUtil implements ApplicationListener, ApplicationContextAware
 //        SpringUtil.applicationContext = applicationContext;
         setApplicationContexts(applicationContext);
         DefaultSystemLog.init();
+        // 加载缓存快照
+        String snapshotPath = getEnvironment().getProperty(CommonPropertiesFinal.CACHE_SNAPSHOT_PATH);
+        if (!StringUtil.isEmpty(snapshotPath)) {
+            ObjectCache.loadSnapshot(new File(snapshotPath));
+        }
         List<ApplicationEventLoad> applicationEventLoads = ApplicationBuilder.getInstance().getApplicationEventLoads();
         if (applicationEventLoads != null) {
             for (ApplicationEventLoad applicationEventLoad : applicationEventLoads) {
@@ -80,13 +89,26 @@ public class SpringUtil implements ApplicationListener, ApplicationContextAware
         // 启动最后的预加载
         if (event instanceof ApplicationReadyEvent) {
             CommonInitPackage.init();
+            replayStoredTasks();
             DefaultSystemLog.LOG().info("common-boot 启动完成");
             return;
         }
         // 应用关闭
         if (event instanceof ContextClosedEvent) {
             DefaultSystemLog.LOG().info("common-boot 关闭程序");
-            ThreadPoolService.shutdown();
+            String taskStorePath = getEnvironment().getProperty(CommonPropertiesFinal.POOL_TASK_STORE_PATH);
+            int remaining = ThreadPoolService.shutdown(StringUtil.isEmpty(taskStorePath) ? null : new File(taskStorePath));
+            if (remaining > 0) {
+                DefaultSystemLog.LOG().info("线程池关闭超时没有执行的任务数:" + remaining);
+            }
+            int count = ObjectCache.flushWriter();
+            if (count > 0) {
+                DefaultSystemLog.LOG().info("缓存异步写入失败条数:" + count);
+            }
+            if (CounterCache.flushAll() > 0) {
+                DefaultSystemLog.LOG().info("计数回调失败");
+            }
+            saveCacheSnapshot();
             return;
         }
         // 请求异常记录
@@ -100,6 +122,36 @@ public class SpringUtil implements ApplicationListener, ApplicationContextAware
         }
     }
 
+    /**
+     * 重新执行上次关闭时保存的任务
+     */
+    private static void replayStoredTasks() {
+        String taskStorePath = getEnvironment().getProperty(CommonPropertiesFinal.POOL_TASK_STORE_PATH);
+        if (StringUtil.isEmpty(taskStorePath)) {
+            return;
+        }
+        int count = ThreadPoolService.replayStoredTasks(new File(taskStorePath));
+        if (count > 0) {
+            DefaultSystemLog.LOG().info("重新执行保存的任务:" + taskStorePath + " 条数:" + count);
+        }
+    }
+
+    /**
+     * 保存缓存快照
+     */
+    private static void saveCacheSnapshot() {
+        String snapshotPath = getEnvironment().getProperty(CommonPropertiesFinal.CACHE_SNAPSHOT_PATH);
+        if (StringUtil.isEmpty(snapshotPath)) {
+            return;
+        }
+        try {
+            int count = ObjectCache.saveSnapshot(new File(snapshotPath));
+            DefaultSystemLog.LOG().info("保存缓存快照:" + snapshotPath + " 条数:" + count);
+        } catch (IOException e) {
+            DefaultSystemLog.ERROR().error("保存缓存快照失败", e);
+        }
+    }
+
     /**
      * 获取applicationContext
      *
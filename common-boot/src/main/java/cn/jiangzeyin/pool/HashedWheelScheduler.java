@@ -0,0 +1,431 @@
+package cn.jiangzeyin.pool;
+
+import cn.jiangzeyin.common.DefaultSystemLog;
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 哈希时间轮定时任务
+ * <p>
+ * 时间轮每格跨度为一个tick 任务按到期的tick 取模放入格子 超过一圈的任务记录剩余圈数
+ * 添加和取消都只放入无锁队列 由时间轮线程每个tick 处理 开销与定时任务总数无关
+ * <p>
+ * 到期的任务交给所属线程池执行 时间轮线程不执行任务 精度为一个tick
+ * 线程池拒绝时不使用配置的拒绝策略 任务以RejectedExecutionException 结束 避免调用者执行策略在时间轮线程中执行任务
+ * 关闭后取消所有还没有到期的任务 不影响所属线程池
+ *
+ * @author jiangzeyin
+ * data 2018/9/18
+ */
+final class HashedWheelScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+    /**
+     * 每个tick 最多加入的新任务数 避免时间轮线程长时间不推进
+     */
+    private static final int MAX_TRANSFER = 100000;
+
+    private final String name;
+    private final ExecutorService executor;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime;
+    private final ConcurrentLinkedQueue<Timer<?>> pending = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timer<?>> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final Thread workerThread;
+    /**
+     * 关闭时还没有执行的任务
+     */
+    private final List<Runnable> unprocessed = new ArrayList<>();
+    private volatile boolean shutdown;
+    private long tick;
+
+    HashedWheelScheduler(String name, ExecutorService executor, long tickMillis, int ticksPerWheel) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must >0");
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("ticksPerWheel must >0 and <=2^30");
+        }
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.name = name;
+        this.executor = Objects.requireNonNull(executor);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.startTime = System.nanoTime();
+        this.workerThread = new WorkerThread(this::workLoop, name + "-timer");
+        workerThread.setDaemon(true);
+        workerThread.start();
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return schedule(new Timer<Void>(Executors.callable(command, null), triggerTime(delay, unit), 0));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return schedule(new Timer<>(Objects.requireNonNull(callable), triggerTime(delay, unit), 0));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must >0");
+        }
+        return schedule(new Timer<Void>(Executors.callable(command, null), triggerTime(initialDelay, unit), unit.toNanos(period)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException("delay must >0");
+        }
+        return schedule(new Timer<Void>(Executors.callable(command, null), triggerTime(initialDelay, unit), -unit.toNanos(delay)));
+    }
+
+    private long triggerTime(long delay, TimeUnit unit) {
+        return System.nanoTime() + Math.max(0, unit.toNanos(delay));
+    }
+
+    private <V> Timer<V> schedule(Timer<V> timer) {
+        if (shutdown) {
+            throw new RejectedExecutionException(name + " 定时任务已经关闭");
+        }
+        pendingCount.incrementAndGet();
+        pending.offer(timer);
+        return timer;
+    }
+
+    /**
+     * 立即交给所属线程池执行
+     *
+     * @param command 任务
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException(name + " 定时任务已经关闭");
+        }
+        executor.execute(command);
+    }
+
+    private void workLoop() {
+        while (!shutdown) {
+            if (!waitForNextTick()) {
+                continue;
+            }
+            processCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+        // 关闭时取消所有任务
+        processCancelled();
+        for (Bucket bucket : wheel) {
+            bucket.clear(unprocessed);
+        }
+        Timer<?> timer;
+        while ((timer = pending.poll()) != null) {
+            unprocessed.add(timer);
+        }
+        for (Runnable runnable : unprocessed) {
+            ((Timer<?>) runnable).cancel(false);
+        }
+        pendingCount.set(0);
+    }
+
+    /**
+     * 等待到下一个tick
+     *
+     * @return 关闭时返回false
+     */
+    private boolean waitForNextTick() {
+        long deadline = startTime + tickNanos * (tick + 1);
+        while (true) {
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos <= 0) {
+                return true;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                if (shutdown) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFER; i++) {
+            Timer<?> timer = pending.poll();
+            if (timer == null) {
+                return;
+            }
+            if (timer.isCancelled()) {
+                pendingCount.decrementAndGet();
+                continue;
+            }
+            long calculated = (timer.deadline - startTime) / tickNanos;
+            timer.remainingRounds = (calculated - tick) / wheel.length;
+            // 已经过期的任务放入当前格子
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(timer);
+        }
+    }
+
+    private void processCancelled() {
+        Timer<?> timer;
+        while ((timer = cancelled.poll()) != null) {
+            if (timer.bucket != null) {
+                timer.bucket.remove(timer);
+                pendingCount.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 当前线程是否为时间轮线程
+     *
+     * @return true 提交到线程池被拒绝时需要直接抛出异常
+     */
+    static boolean isWorkerThread() {
+        return Thread.currentThread() instanceof WorkerThread;
+    }
+
+    private void dispatch(Timer<?> timer) {
+        pendingCount.decrementAndGet();
+        expiredCount.incrementAndGet();
+        try {
+            executor.execute(timer);
+        } catch (RejectedExecutionException e) {
+            // 拒绝策略在时间轮线程中执行任务时也会抛出
+            rejectedCount.incrementAndGet();
+            timer.reject(e);
+            DefaultSystemLog.ERROR().error(name + " 定时任务被线程池拒绝", e);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        workerThread.interrupt();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        try {
+            workerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new ArrayList<>(unprocessed);
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && !workerThread.isAlive();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        unit.timedJoin(workerThread, timeout);
+        return !workerThread.isAlive();
+    }
+
+    /**
+     * 还没有到期的任务数
+     *
+     * @return long
+     */
+    long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    JSONObject getStatusInfo() {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("tickMillis", TimeUnit.NANOSECONDS.toMillis(tickNanos));
+        jsonObject.put("ticksPerWheel", wheel.length);
+        jsonObject.put("pendingCount", pendingCount.get());
+        jsonObject.put("expiredCount", expiredCount.get());
+        jsonObject.put("rejectedCount", rejectedCount.get());
+        jsonObject.put("shutdown", shutdown);
+        return jsonObject;
+    }
+
+    /**
+     * 时间轮线程
+     */
+    private static final class WorkerThread extends Thread {
+        WorkerThread(Runnable target, String name) {
+            super(target, name);
+        }
+    }
+
+    /**
+     * 时间轮的一格 只在时间轮线程中读写
+     */
+    private final class Bucket {
+        private Timer<?> head;
+        private Timer<?> tail;
+
+        void add(Timer<?> timer) {
+            timer.bucket = this;
+            if (head == null) {
+                head = tail = timer;
+            } else {
+                tail.next = timer;
+                timer.prev = tail;
+                tail = timer;
+            }
+        }
+
+        void expire() {
+            Timer<?> timer = head;
+            while (timer != null) {
+                Timer<?> next = timer.next;
+                if (timer.isCancelled()) {
+                    remove(timer);
+                    pendingCount.decrementAndGet();
+                } else if (timer.remainingRounds <= 0) {
+                    remove(timer);
+                    dispatch(timer);
+                } else {
+                    timer.remainingRounds--;
+                }
+                timer = next;
+            }
+        }
+
+        void remove(Timer<?> timer) {
+            Timer<?> next = timer.next;
+            if (timer.prev != null) {
+                timer.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timer.prev;
+            }
+            if (timer == head) {
+                head = next;
+            }
+            if (timer == tail) {
+                tail = timer.prev;
+            }
+            timer.prev = null;
+            timer.next = null;
+            timer.bucket = null;
+        }
+
+        void clear(List<Runnable> list) {
+            Timer<?> timer = head;
+            while (timer != null) {
+                Timer<?> next = timer.next;
+                remove(timer);
+                list.add(timer);
+                timer = next;
+            }
+        }
+    }
+
+    /**
+     * 定时任务
+     */
+    private final class Timer<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+        /**
+         * 0 为单次 正数为固定频率 负数为固定间隔
+         */
+        private final long period;
+        private volatile long deadline;
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timer<?> prev;
+        private Timer<?> next;
+
+        Timer(Callable<V> callable, long deadline, long period) {
+            super(callable);
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            if (o == this) {
+                return 0;
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public void run() {
+            if (Thread.currentThread() == workerThread) {
+                throw new RejectedExecutionException(name + " 定时任务不能在时间轮线程中执行");
+            }
+            if (!isPeriodic()) {
+                super.run();
+            } else if (runAndReset()) {
+                deadline = period > 0 ? deadline + period : System.nanoTime() - period;
+                try {
+                    schedule(this);
+                } catch (RejectedExecutionException e) {
+                    // 已经关闭
+                    cancel(false);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancel = super.cancel(mayInterruptIfRunning);
+            if (cancel) {
+                cancelled.offer(this);
+            }
+            return cancel;
+        }
+
+        void reject(RejectedExecutionException e) {
+            setException(e);
+        }
+    }
+}
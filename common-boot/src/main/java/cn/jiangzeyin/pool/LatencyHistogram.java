@@ -0,0 +1,108 @@
+package cn.jiangzeyin.pool;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图
+ * <p>
+ * 以微秒记录 小于128 微秒时每微秒一个桶 之后每翻一倍分为64 个桶 相对误差不超过1.6%
+ * 最大约25 天 记录时只有原子自增 不加锁
+ *
+ * @author jiangzeyin
+ * data 2018/9/18
+ */
+final class LatencyHistogram {
+    /**
+     * 精确记录的范围 2^7
+     */
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT >> 1;
+    /**
+     * 最大记录值的位数
+     */
+    private static final int MAX_BITS = 40;
+    static final long MAX_VALUE = (1L << (MAX_BITS + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * 记录耗时
+     *
+     * @param nanos 纳秒
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, Math.min(MAX_VALUE, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        counts.incrementAndGet(indexOf(micros));
+        sum.add(micros);
+    }
+
+    /**
+     * 微秒对应的桶
+     */
+    static int indexOf(long value) {
+        int msb = 63 - Long.numberOfLeadingZeros(value | 1);
+        if (msb < SUB_BITS) {
+            return (int) value;
+        }
+        int shift = msb - SUB_BITS + 1;
+        int sub = (int) (value >>> shift) - HALF_COUNT;
+        return SUB_COUNT + (shift - 1) * HALF_COUNT + sub;
+    }
+
+    /**
+     * 桶的中间值
+     */
+    static long valueOf(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int offset = index - SUB_COUNT;
+        int shift = offset / HALF_COUNT + 1;
+        long lower = (long) (offset % HALF_COUNT + HALF_COUNT) << shift;
+        return lower + (1L << shift >> 1);
+    }
+
+    /**
+     * 获取统计信息 单位毫秒
+     *
+     * @return count、mean、p50、p99、p999、max
+     */
+    JSONObject getStatusInfo() {
+        int length = counts.length();
+        long[] snapshot = new long[length];
+        long total = 0;
+        for (int i = 0; i < length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("count", total);
+        jsonObject.put("mean", total == 0 ? 0 : sum.sum() / (double) total / 1000);
+        jsonObject.put("p50", percentile(snapshot, total, 0.5));
+        jsonObject.put("p99", percentile(snapshot, total, 0.99));
+        jsonObject.put("p999", percentile(snapshot, total, 0.999));
+        jsonObject.put("max", percentile(snapshot, total, 1));
+        return jsonObject;
+    }
+
+    private static double percentile(long[] snapshot, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile));
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            count += snapshot[i];
+            if (count >= rank) {
+                return valueOf(i) / 1000D;
+            }
+        }
+        return valueOf(snapshot.length - 1) / 1000D;
+    }
+}
@@ -47,9 +47,66 @@ public @interface PoolConfig {
     PolicyHandler HANDLER() default PolicyHandler.Caller;
 
     /**
-     * 线程队列数的最大值
+     * 线程队列数的最大值 即有界队列的容量 队列满后按照{@link #HANDLER()} 处理
      *
-     * @return 默认0  不判断
+     * @return 默认0  不限制
      */
     int queueMaxSize() default 0;
+
+    /**
+     * 队列类型 Array、Linked、Ring 需要配置queueMaxSize
+     *
+     * @return 默认核心数为0 时直接交给线程 否则为链表队列
+     */
+    QueueType QUEUE() default QueueType.Default;
+
+    /**
+     * 线程池类型 Virtual 时每个任务一个虚拟线程 maximumPoolSize 为同时执行的任务数 queueMaxSize 为等待的任务数
+     *
+     * @return 默认普通线程池
+     */
+    PoolType TYPE() default PoolType.Executor;
+
+    /**
+     * ForkJoin 线程池中没有join 的任务是否先进先出 适合事件类的任务
+     *
+     * @return 默认false 后进先出
+     */
+    boolean asyncMode() default false;
+
+    /**
+     * 普通线程池是否根据吞吐量和执行时间自动调整核心数 范围为核心数到maximumPoolSize
+     *
+     * @return 默认false
+     */
+    boolean adaptive() default false;
+
+    /**
+     * 定时任务时间轮每格的跨度 即定时任务的精度
+     *
+     * @return 默认10 毫秒
+     */
+    long tickMillis() default 10L;
+
+    /**
+     * 定时任务时间轮的格数 向上取2 的幂
+     *
+     * @return 默认512
+     */
+    int ticksPerWheel() default 512;
+
+    /**
+     * 关闭程序时等待剩余任务执行的秒数 超时后中断正在执行的任务
+     *
+     * @return 默认0 不等待
+     */
+    long shutdownTimeout() default 0L;
+
+    /**
+     * 等待超时后是否保存没有执行的任务 只保存实现了Serializable 的任务 下次启动时重新执行
+     * 任务类需要在线程池主类所在的包或子包中 否则读取时丢弃
+     *
+     * @return 默认false
+     */
+    boolean persistOnShutdown() default false;
 }
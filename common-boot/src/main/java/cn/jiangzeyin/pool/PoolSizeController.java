@@ -0,0 +1,194 @@
+package cn.jiangzeyin.pool;
+
+import cn.jiangzeyin.common.DefaultSystemLog;
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 线程池自动调整核心数
+ * <p>
+ * 后台线程每秒采样一次吞吐量、任务平均执行时间、利用率和队列长度
+ * 按照利特尔法则 需要的线程数 = 到达速率 * 平均执行时间 / 目标利用率 再加上一个采样周期内处理完积压任务需要的线程数
+ * <p>
+ * 增加时立即调整 每次最多翻倍 减少时连续多次低于当前核心数才调整 每次减少差值的一半 避免抖动
+ *
+ * @author jiangzeyin
+ * data 2018/9/17
+ */
+final class PoolSizeController {
+    /**
+     * 采样间隔
+     */
+    private static final long SAMPLE_PERIOD = TimeUnit.SECONDS.toMillis(1);
+    /**
+     * 目标利用率
+     */
+    private static final double TARGET_UTILISATION = 0.8;
+    /**
+     * 连续多少次需要减少才调整
+     */
+    private static final int SHRINK_SAMPLES = 3;
+    private static final Set<PoolSizeController> CONTROLLERS = ConcurrentHashMap.newKeySet();
+    private static Thread sampleThread;
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final int minimumSize;
+    private final int maximumSize;
+    private final LongAdder busyNanos = new LongAdder();
+
+    private long lastSampleTime;
+    private long lastCompletedTaskCount;
+    private long lastTaskCount;
+    private long lastBusyNanos;
+    private int shrinkCount;
+
+    private volatile double throughput;
+    private volatile double utilisation;
+    private volatile double averageRunTime;
+    private volatile double queueWaitTime;
+    private volatile int resizeCount;
+    private volatile long lastResizeTime;
+    private volatile String lastResize;
+
+    PoolSizeController(String name, ThreadPoolExecutor executor, int minimumSize, int maximumSize) {
+        if (maximumSize == Integer.MAX_VALUE || maximumSize <= minimumSize) {
+            throw new IllegalArgumentException(name + " 自动调整需要配置maximumPoolSize 并且大于核心数");
+        }
+        this.name = name;
+        this.executor = executor;
+        this.minimumSize = minimumSize;
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * 开始采样
+     *
+     * @param controller 控制器
+     */
+    static synchronized void register(PoolSizeController controller) {
+        controller.lastSampleTime = System.nanoTime();
+        CONTROLLERS.add(controller);
+        if (sampleThread == null) {
+            Thread thread = new Thread(PoolSizeController::sampleLoop, "ThreadPoolService-adaptive");
+            thread.setDaemon(true);
+            thread.start();
+            sampleThread = thread;
+        }
+    }
+
+    private static void sampleLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(SAMPLE_PERIOD);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (PoolSizeController controller : CONTROLLERS) {
+                if (controller.executor.isShutdown()) {
+                    CONTROLLERS.remove(controller);
+                    continue;
+                }
+                try {
+                    controller.sample(System.nanoTime());
+                } catch (RuntimeException e) {
+                    DefaultSystemLog.ERROR().error(controller.name + " 线程池自动调整失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 任务执行结束 在工作线程中调用
+     *
+     * @param runNanos 执行耗时
+     */
+    void afterExecute(long runNanos) {
+        busyNanos.add(runNanos);
+    }
+
+    /**
+     * 采样并调整核心数 只在采样线程中调用
+     *
+     * @param now 当前纳秒
+     */
+    void sample(long now) {
+        long completedTaskCount = executor.getCompletedTaskCount();
+        long taskCount = executor.getTaskCount();
+        long busy = busyNanos.sum();
+        double seconds = (now - lastSampleTime) / 1e9;
+        long completed = completedTaskCount - lastCompletedTaskCount;
+        long arrived = taskCount - lastTaskCount;
+        double busySeconds = (busy - lastBusyNanos) / 1e9;
+        lastSampleTime = now;
+        lastCompletedTaskCount = completedTaskCount;
+        lastTaskCount = taskCount;
+        lastBusyNanos = busy;
+        if (seconds <= 0) {
+            return;
+        }
+        int queued = executor.getQueue().size();
+        throughput = completed / seconds;
+        utilisation = busySeconds / (seconds * Math.max(1, executor.getPoolSize()));
+        if (completed > 0) {
+            averageRunTime = busySeconds / completed;
+        }
+        queueWaitTime = throughput > 0 ? queued / throughput : 0;
+
+        int corePoolSize = executor.getCorePoolSize();
+        int target;
+        if (averageRunTime > 0) {
+            double concurrency = arrived / seconds * averageRunTime / TARGET_UTILISATION;
+            double backlog = queued * averageRunTime / seconds;
+            target = (int) Math.ceil(concurrency + backlog);
+        } else {
+            // 还没有完成的任务 有积压时按梯度增加
+            target = queued > 0 ? corePoolSize * 2 : 0;
+        }
+        target = Math.max(minimumSize, Math.min(maximumSize, target));
+        if (target > corePoolSize) {
+            shrinkCount = 0;
+            resize(corePoolSize, Math.min(target, Math.max(corePoolSize * 2, corePoolSize + 1)), queued);
+        } else if (target < corePoolSize) {
+            if (++shrinkCount >= SHRINK_SAMPLES) {
+                shrinkCount = 0;
+                resize(corePoolSize, corePoolSize - Math.max(1, (corePoolSize - target) / 2), queued);
+            }
+        } else {
+            shrinkCount = 0;
+        }
+    }
+
+    private void resize(int from, int to, int queued) {
+        executor.setCorePoolSize(to);
+        resizeCount++;
+        lastResizeTime = System.currentTimeMillis();
+        lastResize = String.format("%d -> %d 吞吐:%.1f/s 平均执行:%.2fms 利用率:%.2f 队列:%d 排队:%.2fms",
+                from, to, throughput, averageRunTime * 1000, utilisation, queued, queueWaitTime * 1000);
+        DefaultSystemLog.LOG().info(name + " 调整线程池核心数 " + lastResize);
+    }
+
+    /**
+     * 获取采样和调整信息
+     *
+     * @return json
+     */
+    JSONObject getStatusInfo() {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("minimumSize", minimumSize);
+        jsonObject.put("maximumSize", maximumSize);
+        jsonObject.put("throughput", throughput);
+        jsonObject.put("utilisation", utilisation);
+        jsonObject.put("averageRunMillis", averageRunTime * 1000);
+        jsonObject.put("queueWaitMillis", queueWaitTime * 1000);
+        jsonObject.put("resizeCount", resizeCount);
+        jsonObject.put("lastResizeTime", lastResizeTime);
+        jsonObject.put("lastResize", lastResize);
+        return jsonObject;
+    }
+}
@@ -0,0 +1,23 @@
+package cn.jiangzeyin.pool;
+
+/**
+ * 线程池类型
+ *
+ * @author jiangzeyin
+ * data 2018/9/17
+ */
+public enum PoolType {
+    /**
+     * 普通线程池 线程复用
+     */
+    Executor,
+    /**
+     * 每个任务一个虚拟线程 同时执行的任务数不超过maximumPoolSize
+     * 需要jdk21 及以上 不支持时使用普通线程池
+     */
+    Virtual,
+    /**
+     * 工作窃取线程池 适合递归拆分的任务 核心数为并行数 为0 时使用cpu 核数
+     */
+    ForkJoin
+}
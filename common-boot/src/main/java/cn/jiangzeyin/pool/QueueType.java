@@ -0,0 +1,34 @@
+package cn.jiangzeyin.pool;
+
+/**
+ * 线程池队列类型
+ * <p>
+ * 有界队列的容量为{@link PoolConfig#queueMaxSize()} 队列满并且线程数达到最大值后由{@link PolicyHandler} 处理
+ *
+ * @author jiangzeyin
+ * data 2018/9/17
+ */
+public enum QueueType {
+    /**
+     * 核心数为0 时直接交给线程 否则为链表队列 queueMaxSize 为0 时不限制容量
+     */
+    Default,
+    /**
+     * 数组有界队列 一把锁
+     */
+    Array,
+    /**
+     * 链表有界队列 入队和出队分别加锁
+     */
+    Linked,
+    /**
+     * 不缓存任务 直接交给空闲线程 没有空闲线程时创建新线程
+     */
+    Synchronous,
+    /**
+     * 无锁环形有界队列 多线程入队和出队只使用cas 容量向上取2 的幂 最小为2
+     * <p>
+     * 不支持删除队列中的任务 线程池的remove(Runnable) 始终返回false purge() 抛出UnsupportedOperationException
+     */
+    Ring
+}
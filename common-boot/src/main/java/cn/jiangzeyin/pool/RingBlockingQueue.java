@@ -0,0 +1,274 @@
+package cn.jiangzeyin.pool;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 无锁环形有界队列 多生产者多消费者
+ * <p>
+ * 每个槽位记录序号 入队时序号等于尾部位置表示空闲 出队时序号等于头部位置加1 表示已写入 只通过cas 移动头尾位置
+ * offer、poll 不加锁 队列空或者满需要等待时才使用锁 没有等待的线程时入队出队不会加锁
+ * <p>
+ * 不支持删除指定的任务 remove(Object) 始终返回false 迭代器删除抛出UnsupportedOperationException
+ *
+ * @author jiangzeyin
+ * data 2018/9/17
+ */
+final class RingBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    /**
+     * 等待前自旋的次数
+     */
+    private static final int SPINS = 64;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger takeWaiters = new AtomicInteger();
+    private final AtomicInteger putWaiters = new AtomicInteger();
+
+    RingBlockingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must >0");
+        }
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity too large:" + capacity);
+        }
+        // 只有一个槽位时已写入和空闲的序号相同 最少两个槽位
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer.lazySet(index, e);
+                    // volatile 写 保证之后读取的等待数不会漏掉已经开始等待的线程
+                    sequences.set(index, pos + 1);
+                    signal(takeWaiters, notEmpty);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                // 槽位还没有被取走 队列已满
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    @Override
+    public E poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long dif = sequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = buffer.get(index);
+                    buffer.lazySet(index, null);
+                    sequences.set(index, pos + capacity);
+                    signal(putWaiters, notFull);
+                    return e;
+                }
+                pos = head.get();
+            } else if (dif < 0) {
+                // 槽位还没有写入 队列为空
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    @Override
+    public E peek() {
+        while (true) {
+            long pos = head.get();
+            int index = (int) (pos & mask);
+            if (sequences.get(index) - (pos + 1) < 0) {
+                return null;
+            }
+            E e = buffer.get(index);
+            if (e != null && head.get() == pos) {
+                return e;
+            }
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        offer(e, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        long nanos = unit.toNanos(timeout);
+        for (int i = 0; i < SPINS; i++) {
+            if (offer(e)) {
+                return true;
+            }
+            Thread.yield();
+        }
+        lock.lockInterruptibly();
+        putWaiters.incrementAndGet();
+        try {
+            while (!offer(e)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            putWaiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        E e;
+        for (int i = 0; i < SPINS; i++) {
+            if ((e = poll()) != null) {
+                return e;
+            }
+            Thread.yield();
+        }
+        lock.lockInterruptibly();
+        takeWaiters.incrementAndGet();
+        try {
+            while ((e = poll()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return e;
+        } finally {
+            takeWaiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 有等待的线程时唤醒一个
+     */
+    private void signal(AtomicInteger waiters, Condition condition) {
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                condition.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        while (true) {
+            long h = head.get();
+            long t = tail.get();
+            if (head.get() == h) {
+                return (int) Math.max(0, Math.min(capacity, t - h));
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int count = 0;
+        E e;
+        while (count < maxElements && (e = poll()) != null) {
+            c.add(e);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 返回当前元素的快照
+     *
+     * @return 不支持删除
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> list = new ArrayList<>();
+        long t = tail.get();
+        for (long pos = head.get(); pos < t; pos++) {
+            int index = (int) (pos & mask);
+            E e = buffer.get(index);
+            if (e != null && sequences.get(index) == pos + 1) {
+                list.add(e);
+            }
+        }
+        return Collections.unmodifiableList(list).iterator();
+    }
+}
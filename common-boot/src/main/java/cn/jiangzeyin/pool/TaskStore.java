@@ -0,0 +1,155 @@
+package cn.jiangzeyin.pool;
+
+import cn.jiangzeyin.common.DefaultSystemLog;
+import cn.jiangzeyin.util.AllowedObjectInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 保存关闭时没有执行的任务 下次启动时重新执行
+ * <p>
+ * 每个线程池一个文件 文件名为线程池主类的类名 只保存实现了{@link Serializable} 的任务
+ * <p>
+ * 读取时只接受添加了{@link PoolConfig} 的线程池主类 任务类需要在线程池主类所在的包或子包中 不支持可序列化的lambda
+ *
+ * @author jiangzeyin
+ * data 2018/9/18
+ */
+final class TaskStore {
+    private static final String SUFFIX = ".tasks";
+
+    private TaskStore() {
+    }
+
+    /**
+     * 保存任务 已经存在的文件会追加
+     *
+     * @param directory 目录
+     * @param tClass    线程池主类
+     * @param tasks     没有执行的任务
+     * @return 保存的条数
+     */
+    static int save(File directory, Class tClass, List<Runnable> tasks) {
+        List<byte[]> list = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            if (!(task instanceof Serializable)) {
+                continue;
+            }
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+                objectOutputStream.writeObject(task);
+            } catch (IOException e) {
+                DefaultSystemLog.ERROR().error(tClass + " 任务序列化失败:" + task, e);
+                continue;
+            }
+            list.add(byteArrayOutputStream.toByteArray());
+        }
+        if (list.isEmpty()) {
+            return 0;
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            DefaultSystemLog.ERROR().error("创建任务保存目录失败:" + directory);
+            return 0;
+        }
+        File file = new File(directory, tClass.getName() + SUFFIX);
+        try (DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(file, true))) {
+            for (byte[] bytes : list) {
+                outputStream.writeInt(bytes.length);
+                outputStream.write(bytes);
+            }
+        } catch (IOException e) {
+            DefaultSystemLog.ERROR().error(tClass + " 保存任务失败:" + file, e);
+            return 0;
+        }
+        return list.size();
+    }
+
+    /**
+     * 读取并删除目录中保存的任务 交给对应的线程池执行 被拒绝的任务重新保存
+     *
+     * @param directory 目录
+     * @return 重新执行的条数
+     */
+    static int replay(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return 0;
+        }
+        int count = 0;
+        for (File file : files) {
+            String className = file.getName().substring(0, file.getName().length() - SUFFIX.length());
+            Class tClass;
+            try {
+                // 不初始化 文件名不可信
+                tClass = Class.forName(className, false, Thread.currentThread().getContextClassLoader());
+            } catch (ClassNotFoundException | LinkageError e) {
+                DefaultSystemLog.ERROR().error("保存的任务没有对应的线程池:" + file, e);
+                continue;
+            }
+            if (tClass.getAnnotation(PoolConfig.class) == null) {
+                DefaultSystemLog.ERROR().error("保存的任务对应的类没有线程池配置:" + file);
+                continue;
+            }
+            List<Runnable> tasks = read(file, tClass);
+            if (!file.delete()) {
+                DefaultSystemLog.ERROR().error("删除任务文件失败:" + file);
+                continue;
+            }
+            ExecutorService executorService = ThreadPoolService.newCachedThreadPool(tClass);
+            List<Runnable> rejected = new ArrayList<>();
+            for (Runnable task : tasks) {
+                try {
+                    executorService.execute(task);
+                } catch (RejectedExecutionException e) {
+                    rejected.add(task);
+                }
+            }
+            int submitted = tasks.size() - rejected.size();
+            count += submitted;
+            DefaultSystemLog.LOG().info(tClass + " 重新执行保存的任务:" + submitted);
+            if (!rejected.isEmpty()) {
+                int saved = save(directory, tClass, rejected);
+                DefaultSystemLog.ERROR().error(tClass + " 保存的任务被拒绝:" + rejected.size() + " 重新保存:" + saved);
+            }
+        }
+        return count;
+    }
+
+    private static List<Runnable> read(File file, Class tClass) {
+        List<Runnable> tasks = new ArrayList<>();
+        String packageName = tClass.getName().substring(0, tClass.getName().lastIndexOf('.') + 1);
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            while (inputStream.available() > 0) {
+                int length = inputStream.readInt();
+                if (length <= 0 || length > inputStream.available()) {
+                    DefaultSystemLog.ERROR().error("任务文件已损坏:" + file + " 长度:" + length);
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                inputStream.readFully(bytes);
+                try (ObjectInputStream objectInputStream = new AllowedObjectInputStream(new ByteArrayInputStream(bytes), packageName)) {
+                    tasks.add((Runnable) objectInputStream.readObject());
+                } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                    DefaultSystemLog.ERROR().error("读取保存的任务失败:" + file, e);
+                }
+            }
+        } catch (IOException e) {
+            DefaultSystemLog.ERROR().error("读取任务文件失败:" + file, e);
+        }
+        return tasks;
+    }
+}
@@ -5,6 +5,9 @@ import cn.jiangzeyin.common.DefaultSystemLog;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
 import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
@@ -43,6 +46,28 @@ public final class ThreadPoolService {
         return poolCacheInfo.poolExecutor;
     }
 
+    /**
+     * 创建定时任务 基于哈希时间轮 到期的任务在{@link #newCachedThreadPool(Class)} 的线程池中执行
+     * <p>
+     * 通过{@link PoolConfig#tickMillis()}、{@link PoolConfig#ticksPerWheel()} 配置时间轮
+     * 线程池拒绝到期的任务时不使用{@link PoolConfig#HANDLER()} 任务以RejectedExecutionException 结束
+     *
+     * @param class1 线程池主类
+     * @return 同一个class 返回同一个对象
+     */
+    public synchronized static ScheduledExecutorService newScheduledPool(Class class1) {
+        ExecutorService executorService = newCachedThreadPool(class1);
+        PoolCacheInfo poolCacheInfo = POOL_CACHE_INFO_CONCURRENT_HASH_MAP.get(class1);
+        if (poolCacheInfo.scheduler == null) {
+            PoolConfig poolConfig = (PoolConfig) class1.getAnnotation(PoolConfig.class);
+            long tickMillis = poolConfig == null ? 10L : poolConfig.tickMillis();
+            int ticksPerWheel = poolConfig == null ? 512 : poolConfig.ticksPerWheel();
+            poolCacheInfo.scheduler = new HashedWheelScheduler(class1.getName(), executorService, tickMillis, ticksPerWheel);
+            DefaultSystemLog.LOG().info(class1 + "定时任务申请成功");
+        }
+        return poolCacheInfo.scheduler;
+    }
+
     /**
      * 创建一个缓存线程对象
      *
@@ -52,8 +77,25 @@ public final class ThreadPoolService {
     private static PoolCacheInfo createPool(Class tClass) {
         PoolConfig poolConfig = (PoolConfig) tClass.getAnnotation(PoolConfig.class);
         BlockingQueue<Runnable> blockingQueue;
-        SystemThreadFactory systemThreadFactory = new SystemThreadFactory(tClass.getName());
-        ThreadPoolExecutorPool threadPoolExecutor;
+        ThreadFactory virtualThreadFactory = null;
+        if (poolConfig != null && poolConfig.TYPE() == PoolType.Virtual) {
+            virtualThreadFactory = VirtualThreadExecutor.virtualThreadFactory();
+            if (virtualThreadFactory == null) {
+                DefaultSystemLog.LOG().info(tClass + " 当前jdk 不支持虚拟线程 使用普通线程池");
+            }
+        }
+        SystemThreadFactory systemThreadFactory = new SystemThreadFactory(tClass.getName(), virtualThreadFactory);
+        LatencyHistogram queueWaitHistogram = new LatencyHistogram();
+        LatencyHistogram runTimeHistogram = new LatencyHistogram();
+        if (poolConfig != null && poolConfig.TYPE() == PoolType.ForkJoin) {
+            if (poolConfig.adaptive()) {
+                DefaultSystemLog.LOG().info(tClass + " 只有普通线程池支持自动调整");
+            }
+            int parallelism = poolConfig.value() > 0 ? poolConfig.value() : Runtime.getRuntime().availableProcessors();
+            ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism, systemThreadFactory, null, poolConfig.asyncMode());
+            return new PoolCacheInfo(forkJoinPool, null, null, systemThreadFactory, null, null);
+        }
+        ThreadPoolExecutor threadPoolExecutor;
         ProxyHandler proxyHandler;
         if (poolConfig == null) {
             proxyHandler = new ProxyHandler(PolicyHandler.Caller);
@@ -64,27 +106,83 @@ public final class ThreadPoolService {
                     TimeUnit.SECONDS,
                     blockingQueue,
                     systemThreadFactory,
-                    proxyHandler);
+                    proxyHandler,
+                    queueWaitHistogram,
+                    runTimeHistogram);
+        } else if (virtualThreadFactory != null) {
+            proxyHandler = new ProxyHandler(poolConfig.HANDLER());
+            // 等待执行的任务队列
+            int queueMaxSize = poolConfig.queueMaxSize();
+            blockingQueue = queueMaxSize > 0 ? new LinkedBlockingQueue<>(queueMaxSize) : new LinkedBlockingQueue<>();
+            threadPoolExecutor = new VirtualThreadExecutor(poolConfig.maximumPoolSize(),
+                    blockingQueue,
+                    systemThreadFactory,
+                    proxyHandler,
+                    queueWaitHistogram,
+                    runTimeHistogram);
         } else {
             proxyHandler = new ProxyHandler(poolConfig.HANDLER());
             int corePoolSize = poolConfig.value();
-            if (corePoolSize == 0) {
-                blockingQueue = new SynchronousQueue<>();
-            } else {
-                blockingQueue = new LinkedBlockingQueue<>();
-            }
+            blockingQueue = createQueue(poolConfig.QUEUE(), corePoolSize, poolConfig.queueMaxSize());
             // 构建对象
-            threadPoolExecutor = new ThreadPoolExecutorPool(corePoolSize,
+            ThreadPoolExecutorPool executorPool = new ThreadPoolExecutorPool(corePoolSize,
                     poolConfig.maximumPoolSize(),
                     poolConfig.keepAliveTime(),
                     poolConfig.UNIT(),
                     blockingQueue,
                     systemThreadFactory,
-                    proxyHandler);
-            // 获取线程队列最大值
-            threadPoolExecutor.setQueueMaxSize(poolConfig.queueMaxSize());
+                    proxyHandler,
+                    queueWaitHistogram,
+                    runTimeHistogram);
+            if (poolConfig.adaptive()) {
+                PoolSizeController sizeController = new PoolSizeController(tClass.getName(), executorPool, corePoolSize, poolConfig.maximumPoolSize());
+                executorPool.sizeController = sizeController;
+                PoolSizeController.register(sizeController);
+            }
+            threadPoolExecutor = executorPool;
+        }
+        if (poolConfig != null && poolConfig.adaptive() && !(threadPoolExecutor instanceof ThreadPoolExecutorPool)) {
+            DefaultSystemLog.LOG().info(tClass + " 只有普通线程池支持自动调整");
+        }
+        return new PoolCacheInfo(threadPoolExecutor, blockingQueue, proxyHandler, systemThreadFactory, queueWaitHistogram, runTimeHistogram);
+    }
+
+    /**
+     * 创建任务队列
+     *
+     * @param queueType     队列类型
+     * @param corePoolSize  核心数
+     * @param queueCapacity 队列容量
+     * @return 队列
+     */
+    private static BlockingQueue<Runnable> createQueue(QueueType queueType, int corePoolSize, int queueCapacity) {
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("queueMaxSize must >=0");
+        }
+        switch (queueType) {
+            case Default:
+                if (corePoolSize == 0) {
+                    return new SynchronousQueue<>();
+                }
+                return queueCapacity > 0 ? new LinkedBlockingQueue<>(queueCapacity) : new LinkedBlockingQueue<>();
+            case Synchronous:
+                return new SynchronousQueue<>();
+            case Array:
+            case Linked:
+            case Ring:
+                if (queueCapacity == 0) {
+                    throw new IllegalArgumentException(queueType + " 队列需要配置queueMaxSize");
+                }
+                if (queueType == QueueType.Array) {
+                    return new ArrayBlockingQueue<>(queueCapacity);
+                }
+                if (queueType == QueueType.Linked) {
+                    return new LinkedBlockingQueue<>(queueCapacity);
+                }
+                return new RingBlockingQueue<>(queueCapacity);
+            default:
+                throw new IllegalArgumentException("暂时不支持");
         }
-        return new PoolCacheInfo(threadPoolExecutor, blockingQueue, proxyHandler, systemThreadFactory);
     }
 
     /**
@@ -98,7 +196,7 @@ public final class ThreadPoolService {
         if (poolCacheInfo == null) {
             return 0;
         }
-        return poolCacheInfo.blockingQueue.size();
+        return poolCacheInfo.getQueueSize();
     }
 
     /**
@@ -112,7 +210,7 @@ public final class ThreadPoolService {
         if (poolCacheInfo == null) {
             return 0;
         }
-        return poolCacheInfo.handler.getRejectedExecutionCount();
+        return poolCacheInfo.getRejectedExecutionCount();
     }
 
     /**
@@ -136,7 +234,18 @@ public final class ThreadPoolService {
     private static JSONObject convertInfo(String name, PoolCacheInfo poolCacheInfo) {
         JSONObject jsonObject = new JSONObject();
         jsonObject.put("name", name);
-        ThreadPoolExecutor threadPoolExecutor = poolCacheInfo.poolExecutor;
+        HashedWheelScheduler scheduler = poolCacheInfo.scheduler;
+        if (scheduler != null) {
+            // 定时任务
+            jsonObject.put("scheduler", scheduler.getStatusInfo());
+        }
+        if (poolCacheInfo.poolExecutor instanceof ForkJoinPool) {
+            convertForkJoinInfo(jsonObject, poolCacheInfo);
+            return jsonObject;
+        }
+        ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) poolCacheInfo.poolExecutor;
+        // 线程池类型
+        jsonObject.put("poolType", threadPoolExecutor instanceof VirtualThreadExecutor ? PoolType.Virtual : PoolType.Executor);
         // 核心数
         jsonObject.put("corePoolSize", threadPoolExecutor.getCorePoolSize());
         // 工作集数
@@ -150,16 +259,58 @@ public final class ThreadPoolService {
         // 总任务数
         jsonObject.put("taskCount", threadPoolExecutor.getTaskCount());
         // 任务队列数
-        jsonObject.put("queueSize", poolCacheInfo.blockingQueue.size());
+        jsonObject.put("queueSize", poolCacheInfo.getQueueSize());
+        // 队列类型
+        jsonObject.put("queueType", poolCacheInfo.blockingQueue.getClass().getSimpleName());
+        // 队列剩余容量
+        jsonObject.put("queueRemainingCapacity", poolCacheInfo.blockingQueue.remainingCapacity());
         // 拒绝任务数
-        jsonObject.put("rejectedExecutionCount", poolCacheInfo.handler.getRejectedExecutionCount());
+        jsonObject.put("rejectedExecutionCount", poolCacheInfo.getRejectedExecutionCount());
         // 最大线程编号
         jsonObject.put("maxThreadNumber", poolCacheInfo.systemThreadFactory.threadNumber.get());
         // 最大线程数
         jsonObject.put("maximumPoolSize", threadPoolExecutor.getMaximumPoolSize());
+        // 排队耗时 毫秒
+        jsonObject.put("queueWait", poolCacheInfo.queueWaitHistogram.getStatusInfo());
+        // 执行耗时 毫秒
+        jsonObject.put("runTime", poolCacheInfo.runTimeHistogram.getStatusInfo());
+        if (threadPoolExecutor instanceof ThreadPoolExecutorPool) {
+            PoolSizeController sizeController = ((ThreadPoolExecutorPool) threadPoolExecutor).sizeController;
+            if (sizeController != null) {
+                // 自动调整信息
+                jsonObject.put("adaptive", sizeController.getStatusInfo());
+            }
+        }
         return jsonObject;
     }
 
+    private static void convertForkJoinInfo(JSONObject jsonObject, PoolCacheInfo poolCacheInfo) {
+        ForkJoinPool forkJoinPool = (ForkJoinPool) poolCacheInfo.poolExecutor;
+        jsonObject.put("poolType", PoolType.ForkJoin);
+        // 并行数
+        jsonObject.put("parallelism", forkJoinPool.getParallelism());
+        // 是否先进先出
+        jsonObject.put("asyncMode", forkJoinPool.getAsyncMode());
+        // 工作集数
+        jsonObject.put("poolSize", forkJoinPool.getPoolSize());
+        // 活跃线程数
+        jsonObject.put("activeCount", forkJoinPool.getActiveThreadCount());
+        // 没有阻塞的线程数
+        jsonObject.put("runningThreadCount", forkJoinPool.getRunningThreadCount());
+        // 窃取任务数
+        jsonObject.put("stealCount", forkJoinPool.getStealCount());
+        // 工作线程队列中的任务数
+        jsonObject.put("queuedTaskCount", forkJoinPool.getQueuedTaskCount());
+        // 外部提交还没有执行的任务数
+        jsonObject.put("queuedSubmissionCount", forkJoinPool.getQueuedSubmissionCount());
+        // 任务队列数
+        jsonObject.put("queueSize", poolCacheInfo.getQueueSize());
+        // 拒绝任务数
+        jsonObject.put("rejectedExecutionCount", poolCacheInfo.getRejectedExecutionCount());
+        // 最大线程编号
+        jsonObject.put("maxThreadNumber", poolCacheInfo.systemThreadFactory.threadNumber.get());
+    }
+
     /**
      * 关闭所有线程池
      *
@@ -167,30 +318,166 @@ public final class ThreadPoolService {
      * create 2016-10-24
      */
     public static void shutdown() {
+        shutdown(null);
+    }
+
+    /**
+     * 关闭所有线程池 每个线程池并行等待{@link PoolConfig#shutdownTimeout()} 执行剩余的任务
+     * <p>
+     * 超时后中断正在执行的任务 开启{@link PoolConfig#persistOnShutdown()} 时没有执行的可序列化任务保存到目录中
+     * 通过{@link #replayStoredTasks(File)} 在下次启动时重新执行
+     *
+     * @param taskStoreDirectory 保存任务的目录 为null 时不保存
+     * @return 没有执行完成的任务数
+     */
+    public static int shutdown(File taskStoreDirectory) {
+        AtomicInteger remaining = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
         for (Entry<Class, PoolCacheInfo> entry : POOL_CACHE_INFO_CONCURRENT_HASH_MAP.entrySet()) {
-            DefaultSystemLog.LOG().info(String.format("关闭%s使用的线程池", entry.getKey()));
-            entry.getValue().poolExecutor.shutdown();
-            String name = StringUtil.simplifyClassName(entry.getKey().getName());
-            JSONObject jsonObject = convertInfo(name, entry.getValue());
-            DefaultSystemLog.LOG().info("关闭完成:" + jsonObject);
+            Thread thread = new Thread(() -> remaining.addAndGet(drain(entry.getKey(), entry.getValue(), taskStoreDirectory)),
+                    "ThreadPoolService-shutdown-" + entry.getKey().getSimpleName());
+            thread.start();
+            threads.add(thread);
         }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return remaining.get();
+    }
+
+    /**
+     * 关闭指定的线程池 之后再次获取时重新创建
+     *
+     * @param tClass             线程池主类
+     * @param taskStoreDirectory 保存任务的目录 为null 时不保存
+     * @return 没有执行完成的任务数
+     */
+    static int shutdown(Class tClass, File taskStoreDirectory) {
+        PoolCacheInfo poolCacheInfo = POOL_CACHE_INFO_CONCURRENT_HASH_MAP.remove(tClass);
+        return poolCacheInfo == null ? 0 : drain(tClass, poolCacheInfo, taskStoreDirectory);
+    }
+
+    /**
+     * 关闭线程池并等待剩余任务执行
+     *
+     * @return 等待超时后没有执行的任务数 不等待时为关闭时排队和正在执行的任务数
+     */
+    private static int drain(Class tClass, PoolCacheInfo poolCacheInfo, File taskStoreDirectory) {
+        DefaultSystemLog.LOG().info(String.format("关闭%s使用的线程池", tClass));
+        long start = System.currentTimeMillis();
+        HashedWheelScheduler scheduler = poolCacheInfo.scheduler;
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        ExecutorService executorService = poolCacheInfo.poolExecutor;
+        executorService.shutdown();
+        PoolConfig poolConfig = (PoolConfig) tClass.getAnnotation(PoolConfig.class);
+        long timeout = poolConfig == null ? 0 : poolConfig.shutdownTimeout();
+        int remaining = 0;
+        int persisted = 0;
+        if (timeout > 0) {
+            boolean terminated;
+            try {
+                terminated = executorService.awaitTermination(timeout, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                terminated = false;
+            }
+            if (!terminated) {
+                List<Runnable> tasks = executorService.shutdownNow();
+                remaining = tasks.size();
+                if (taskStoreDirectory != null && poolConfig != null && poolConfig.persistOnShutdown() && !tasks.isEmpty()) {
+                    persisted = TaskStore.save(taskStoreDirectory, tClass, tasks);
+                }
+            }
+        } else {
+            // 不等待 剩余的任务在后台继续执行
+            remaining = poolCacheInfo.getQueueSize() + poolCacheInfo.getActiveCount();
+        }
+        String name = StringUtil.simplifyClassName(tClass.getName());
+        JSONObject jsonObject = convertInfo(name, poolCacheInfo);
+        // 等待时间
+        jsonObject.put("drainMillis", System.currentTimeMillis() - start);
+        // 超时后没有执行的任务数 不等待时为没有执行完成的任务数
+        jsonObject.put("remainingTasks", remaining);
+        // 保存的任务数
+        jsonObject.put("persistedTasks", persisted);
+        DefaultSystemLog.LOG().info("关闭完成:" + jsonObject);
+        return remaining;
+    }
+
+    /**
+     * 重新执行上次关闭时保存的任务 执行后删除文件
+     *
+     * @param taskStoreDirectory 保存任务的目录
+     * @return 任务数
+     */
+    public static int replayStoredTasks(File taskStoreDirectory) {
+        return TaskStore.replay(taskStoreDirectory);
     }
 
     private static class PoolCacheInfo {
-        private final ThreadPoolExecutorPool poolExecutor;
+        private final ExecutorService poolExecutor;
+        /**
+         * ForkJoin 线程池为null
+         */
         private final BlockingQueue<Runnable> blockingQueue;
+        /**
+         * ForkJoin 线程池为null
+         */
         private final ProxyHandler handler;
         private final SystemThreadFactory systemThreadFactory;
+        /**
+         * ForkJoin 线程池为null
+         */
+        private final LatencyHistogram queueWaitHistogram;
+        private final LatencyHistogram runTimeHistogram;
+        /**
+         * 定时任务 没有使用时为null
+         */
+        private volatile HashedWheelScheduler scheduler;
 
-        PoolCacheInfo(ThreadPoolExecutorPool poolExecutor, BlockingQueue<Runnable> blockingQueue, ProxyHandler handler, SystemThreadFactory systemThreadFactory) {
+        PoolCacheInfo(ExecutorService poolExecutor, BlockingQueue<Runnable> blockingQueue, ProxyHandler handler, SystemThreadFactory systemThreadFactory,
+                      LatencyHistogram queueWaitHistogram, LatencyHistogram runTimeHistogram) {
             this.poolExecutor = poolExecutor;
             this.blockingQueue = blockingQueue;
             this.handler = handler;
             this.systemThreadFactory = systemThreadFactory;
+            this.queueWaitHistogram = queueWaitHistogram;
+            this.runTimeHistogram = runTimeHistogram;
+        }
+
+        int getQueueSize() {
+            if (poolExecutor instanceof ForkJoinPool) {
+                ForkJoinPool forkJoinPool = (ForkJoinPool) poolExecutor;
+                long count = forkJoinPool.getQueuedTaskCount() + forkJoinPool.getQueuedSubmissionCount();
+                return (int) Math.min(count, Integer.MAX_VALUE);
+            }
+            return blockingQueue.size();
+        }
+
+        int getActiveCount() {
+            if (poolExecutor instanceof ForkJoinPool) {
+                return ((ForkJoinPool) poolExecutor).getActiveThreadCount();
+            }
+            return ((ThreadPoolExecutor) poolExecutor).getActiveCount();
+        }
+
+        int getRejectedExecutionCount() {
+            return handler == null ? 0 : handler.getRejectedExecutionCount();
         }
 
         @Override
         public String toString() {
+            if (poolExecutor instanceof ForkJoinPool) {
+                return poolExecutor.toString();
+            }
+            ThreadPoolExecutor poolExecutor = (ThreadPoolExecutor) this.poolExecutor;
             return poolExecutor.toString() +
                     " MaximumPoolSize:" + poolExecutor.getMaximumPoolSize() +
                     " CorePoolSize:" + poolExecutor.getCorePoolSize() +
@@ -228,6 +515,10 @@ public final class ThreadPoolService {
         @Override
         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
             handlerCount.getAndIncrement();
+            if (HashedWheelScheduler.isWorkerThread()) {
+                // 定时任务不使用拒绝策略 由时间轮结束任务
+                throw new RejectedExecutionException("Task " + r + " rejected from " + executor);
+            }
             rejectedExecutionHandler.rejectedExecution(r, executor);
         }
 
@@ -242,23 +533,37 @@ public final class ThreadPoolService {
      * @author jiangzeyin
      * create 2016-11-21
      */
-    static class SystemThreadFactory implements ThreadFactory {
+    static class SystemThreadFactory implements ThreadFactory, ForkJoinPool.ForkJoinWorkerThreadFactory {
         private static final AtomicInteger POOL_NUMBER = new AtomicInteger(1);
         private final ThreadGroup group;
         private final AtomicInteger threadNumber = new AtomicInteger(1);
         private final String namePrefix;
+        /**
+         * 虚拟线程工厂
+         */
+        private final ThreadFactory virtualThreadFactory;
 
         SystemThreadFactory(String poolName) {
+            this(poolName, null);
+        }
+
+        SystemThreadFactory(String poolName, ThreadFactory virtualThreadFactory) {
             if (StringUtil.isEmpty(poolName)) {
                 poolName = "pool";
             }
             SecurityManager s = System.getSecurityManager();
             group = (s != null) ? s.getThreadGroup() : Thread.currentThread().getThreadGroup();
             namePrefix = poolName + "-" + POOL_NUMBER.getAndIncrement() + "-thread-";
+            this.virtualThreadFactory = virtualThreadFactory;
         }
 
         @Override
         public Thread newThread(Runnable r) {
+            if (virtualThreadFactory != null) {
+                Thread t = virtualThreadFactory.newThread(r);
+                t.setName(namePrefix + threadNumber.getAndIncrement());
+                return t;
+            }
             Thread t = new Thread(group, r, namePrefix + threadNumber.getAndIncrement(), 0);
             if (t.isDaemon()) {
                 t.setDaemon(false);
@@ -268,53 +573,64 @@ public final class ThreadPoolService {
             }
             return t;
         }
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName(namePrefix + threadNumber.getAndIncrement());
+            return t;
+        }
     }
 
     private static class ThreadPoolExecutorPool extends ThreadPoolExecutor {
-        private int queueMaxSize = 0;
+        /**
+         * 自动调整核心数 没有开启时为null
+         */
+        private PoolSizeController sizeController;
+        private final LatencyHistogram queueWaitHistogram;
+        private final LatencyHistogram runTimeHistogram;
 
-        ThreadPoolExecutorPool(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+        ThreadPoolExecutorPool(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, RejectedExecutionHandler handler,
+                               LatencyHistogram queueWaitHistogram, LatencyHistogram runTimeHistogram) {
             super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
-        }
-
-        void setQueueMaxSize(int queueMaxSize) {
-            this.queueMaxSize = queueMaxSize;
+            this.queueWaitHistogram = queueWaitHistogram;
+            this.runTimeHistogram = runTimeHistogram;
         }
 
         @Override
         public void execute(Runnable command) {
-            checkQueueSize();
-            super.execute(command);
+            // 记录提交时间
+            super.execute(command instanceof TimedTask ? command : new TimedTask(command));
         }
 
         @Override
-        public Future<?> submit(Runnable task) {
-            checkQueueSize();
-            return super.submit(task);
+        protected void beforeExecute(Thread t, Runnable r) {
+            if (r instanceof TimedTask) {
+                TimedTask timedTask = (TimedTask) r;
+                timedTask.startTime = System.nanoTime();
+                queueWaitHistogram.record(timedTask.startTime - timedTask.submitTime);
+            }
         }
 
         @Override
-        public <T> Future<T> submit(Callable<T> task) {
-            checkQueueSize();
-            return super.submit(task);
+        protected void afterExecute(Runnable r, Throwable t) {
+            if (r instanceof TimedTask) {
+                long runNanos = System.nanoTime() - ((TimedTask) r).startTime;
+                runTimeHistogram.record(runNanos);
+                if (sizeController != null) {
+                    sizeController.afterExecute(runNanos);
+                }
+            }
         }
 
         @Override
-        public <T> Future<T> submit(Runnable task, T result) {
-            checkQueueSize();
-            return super.submit(task, result);
+        public boolean remove(Runnable task) {
+            return super.remove(TimedTask.find(getQueue(), task));
         }
 
-        /**
-         * 判断队列数最大值
-         */
-        private void checkQueueSize() {
-            if (queueMaxSize > 0) {
-                int queueSize = getQueue().size();
-                if (queueSize > queueMaxSize) {
-                    throw new RuntimeException("queue size :" + queueSize + "  >" + queueMaxSize);
-                }
-            }
+        @Override
+        public List<Runnable> shutdownNow() {
+            return TimedTask.unwrap(super.shutdownNow());
         }
     }
 }
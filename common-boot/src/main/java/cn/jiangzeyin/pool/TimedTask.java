@@ -0,0 +1,70 @@
+package cn.jiangzeyin.pool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 记录提交时间的任务 用于统计排队和执行耗时
+ *
+ * @author jiangzeyin
+ * data 2018/9/18
+ */
+final class TimedTask implements Runnable {
+    final Runnable task;
+    final long submitTime;
+    /**
+     * 开始执行的时间 只在执行线程中读写
+     */
+    long startTime;
+
+    TimedTask(Runnable task) {
+        this.task = Objects.requireNonNull(task);
+        this.submitTime = System.nanoTime();
+    }
+
+    @Override
+    public void run() {
+        task.run();
+    }
+
+    /**
+     * 还原为提交的任务
+     *
+     * @param runnable 任务
+     * @return 原任务
+     */
+    static Runnable unwrap(Runnable runnable) {
+        return runnable instanceof TimedTask ? ((TimedTask) runnable).task : runnable;
+    }
+
+    /**
+     * 查找队列中包装了指定任务的对象
+     *
+     * @param queue 队列
+     * @param task  提交的任务
+     * @return 没有找到时返回原任务
+     */
+    static Runnable find(Collection<Runnable> queue, Runnable task) {
+        for (Runnable runnable : queue) {
+            if (runnable instanceof TimedTask && ((TimedTask) runnable).task == task) {
+                return runnable;
+            }
+        }
+        return task;
+    }
+
+    static List<Runnable> unwrap(List<Runnable> list) {
+        List<Runnable> result = new ArrayList<>(list.size());
+        for (Runnable runnable : list) {
+            result.add(unwrap(runnable));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return task.toString();
+    }
+}
@@ -0,0 +1,242 @@
+package cn.jiangzeyin.pool;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 虚拟线程池
+ * <p>
+ * 每个任务创建一个虚拟线程 线程先获取信号量再从队列取出任务执行 同时执行的任务数不超过maximumPoolSize
+ * 继承{@link ThreadPoolExecutor} 只为了复用拒绝策略和统计信息 不会创建父类的工作线程
+ * <p>
+ * 队列满或者已经关闭时交给拒绝策略处理 修改核心数和最大线程数无效
+ *
+ * @author jiangzeyin
+ * data 2018/9/17
+ */
+final class VirtualThreadExecutor extends ThreadPoolExecutor {
+    private final Semaphore semaphore;
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicInteger largestPoolSize = new AtomicInteger();
+    private final AtomicLong taskCount = new AtomicLong();
+    private final AtomicLong completedTaskCount = new AtomicLong();
+    /**
+     * 已经入队还没有结束的任务数 在mainLock 中增加
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ReentrantLock mainLock = new ReentrantLock();
+    private final Condition termination = mainLock.newCondition();
+    private final LatencyHistogram queueWaitHistogram;
+    private final LatencyHistogram runTimeHistogram;
+    private volatile boolean shutdown;
+
+    VirtualThreadExecutor(int maximumPoolSize, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, RejectedExecutionHandler handler,
+                          LatencyHistogram queueWaitHistogram, LatencyHistogram runTimeHistogram) {
+        super(0, maximumPoolSize, 0L, TimeUnit.MILLISECONDS, workQueue, threadFactory, handler);
+        this.semaphore = new Semaphore(maximumPoolSize);
+        this.queueWaitHistogram = queueWaitHistogram;
+        this.runTimeHistogram = runTimeHistogram;
+    }
+
+    /**
+     * 获取虚拟线程工厂
+     *
+     * @return 当前jdk 不支持时返回null
+     */
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        Objects.requireNonNull(command);
+        if (!(command instanceof TimedTask)) {
+            command = new TimedTask(command);
+        }
+        // 判断关闭、入队和计数在同一个锁中 关闭时看到的待执行数不会漏掉已经入队的任务
+        boolean accepted;
+        mainLock.lock();
+        try {
+            accepted = !shutdown && getQueue().offer(command);
+            if (accepted) {
+                pending.incrementAndGet();
+            }
+        } finally {
+            mainLock.unlock();
+        }
+        if (!accepted) {
+            getRejectedExecutionHandler().rejectedExecution(command, this);
+            return;
+        }
+        taskCount.incrementAndGet();
+        Thread thread = getThreadFactory().newThread(this::runNext);
+        threads.add(thread);
+        int size = threads.size();
+        largestPoolSize.accumulateAndGet(size, Math::max);
+        thread.start();
+    }
+
+    /**
+     * 获取信号量后执行队列中最早的任务 任务被拒绝策略丢弃时直接结束
+     */
+    private void runNext() {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            finish();
+            return;
+        }
+        try {
+            Runnable task = getQueue().poll();
+            if (task != null) {
+                long startTime = System.nanoTime();
+                if (task instanceof TimedTask) {
+                    queueWaitHistogram.record(startTime - ((TimedTask) task).submitTime);
+                }
+                activeCount.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    activeCount.decrementAndGet();
+                    completedTaskCount.incrementAndGet();
+                    runTimeHistogram.record(System.nanoTime() - startTime);
+                }
+            }
+        } finally {
+            semaphore.release();
+            finish();
+        }
+    }
+
+    private void finish() {
+        threads.remove(Thread.currentThread());
+        if (pending.decrementAndGet() == 0 && shutdown) {
+            signalTermination();
+        }
+    }
+
+    private void signalTermination() {
+        mainLock.lock();
+        try {
+            termination.signalAll();
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        mainLock.lock();
+        try {
+            shutdown = true;
+            if (pending.get() == 0) {
+                termination.signalAll();
+            }
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        List<Runnable> list = new ArrayList<>();
+        getQueue().drainTo(list);
+        threads.forEach(Thread::interrupt);
+        return TimedTask.unwrap(list);
+    }
+
+    @Override
+    public boolean remove(Runnable task) {
+        return super.remove(TimedTask.find(getQueue(), task));
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminating() {
+        return shutdown && pending.get() > 0;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && pending.get() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        mainLock.lock();
+        try {
+            while (!isTerminated()) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = termination.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    @Override
+    public int getPoolSize() {
+        return threads.size();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    @Override
+    public int getLargestPoolSize() {
+        return largestPoolSize.get();
+    }
+
+    @Override
+    public long getTaskCount() {
+        return taskCount.get();
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        return completedTaskCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "@" + Integer.toHexString(hashCode()) +
+                "[" + (isTerminated() ? "Terminated" : shutdown ? "Shutting down" : "Running") +
+                ", virtual threads = " + threads.size() +
+                ", active threads = " + activeCount.get() +
+                ", queued tasks = " + getQueue().size() +
+                ", completed tasks = " + completedTaskCount.get() + "]";
+    }
+}
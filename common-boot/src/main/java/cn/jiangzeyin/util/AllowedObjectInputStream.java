@@ -0,0 +1,91 @@
+package cn.jiangzeyin.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 只反序列化允许的类 用于读取不完全可信的数据
+ * <p>
+ * 默认允许字符串、基本类型的包装类、常用集合、日期和fastjson 的json 对象 业务类需要指定所在的包
+ * 数组检查元素类型 不允许动态代理 不允许的类抛出{@link InvalidClassException}
+ *
+ * @author jiangzeyin
+ * data 2018/9/18
+ */
+public class AllowedObjectInputStream extends ObjectInputStream {
+    /**
+     * 默认允许反序列化的类
+     */
+    private static final Set<String> ALLOWED_CLASSES = new HashSet<>(Arrays.asList(
+            "java.lang.String", "java.lang.Boolean", "java.lang.Character", "java.lang.Number", "java.lang.Byte",
+            "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double", "java.lang.Enum",
+            "java.util.ArrayList", "java.util.LinkedList", "java.util.HashMap", "java.util.LinkedHashMap", "java.util.TreeMap",
+            "java.util.HashSet", "java.util.LinkedHashSet", "java.util.TreeSet", "java.util.Date", "java.util.Arrays$ArrayList",
+            "com.alibaba.fastjson.JSONObject", "com.alibaba.fastjson.JSONArray"));
+    /**
+     * 默认允许反序列化的包
+     */
+    private static final String[] ALLOWED_PACKAGES = {"java.math.", "java.time.", "java.util.Collections$"};
+    private final String[] allowedPackages;
+
+    /**
+     * @param in              输入流
+     * @param allowedPackages 允许反序列化的业务类所在的包 如：com.example.model 包含子包
+     * @throws IOException 读取流头失败
+     */
+    public AllowedObjectInputStream(InputStream in, String... allowedPackages) throws IOException {
+        super(in);
+        this.allowedPackages = new String[allowedPackages.length];
+        for (int i = 0; i < allowedPackages.length; i++) {
+            String name = allowedPackages[i];
+            this.allowedPackages[i] = name.endsWith(".") ? name : name + ".";
+        }
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        String name = desc.getName();
+        int dimension = 0;
+        while (dimension < name.length() && name.charAt(dimension) == '[') {
+            dimension++;
+        }
+        String componentName = name.substring(dimension);
+        boolean primitiveArray = dimension > 0 && componentName.length() == 1;
+        if (dimension > 0 && !primitiveArray) {
+            // [Ljava.lang.String;
+            componentName = componentName.substring(1, componentName.length() - 1);
+        }
+        if (!primitiveArray && !isAllowed(componentName)) {
+            throw new InvalidClassException(name, "not allowed");
+        }
+        return super.resolveClass(desc);
+    }
+
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+        throw new InvalidClassException("proxy", "not allowed");
+    }
+
+    private boolean isAllowed(String className) {
+        if (ALLOWED_CLASSES.contains(className)) {
+            return true;
+        }
+        for (String name : ALLOWED_PACKAGES) {
+            if (className.startsWith(name)) {
+                return true;
+            }
+        }
+        for (String name : allowedPackages) {
+            if (className.startsWith(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,124 @@
+package cn.jiangzeyin.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 原子修改和按版本的乐观更新
+ *
+ * @author jiangzeyin
+ * data 2018/9/16
+ */
+public class CacheComputeTest {
+
+    private static CacheRegion region() {
+        CacheInfo cacheInfo = new CacheInfo(null, 60_000);
+        cacheInfo.setNegativeTime(60_000);
+        return new CacheRegion("compute", cacheInfo, 16);
+    }
+
+    @Test
+    public void computeCreatesUpdatesAndRemoves() {
+        CacheRegion region = region();
+        Assert.assertEquals(1, region.compute("key", (key, value) -> value == null ? 1 : (Integer) value + 1));
+        Assert.assertEquals(2, region.compute("key", (key, value) -> (Integer) value + 1));
+        Assert.assertNull(region.compute("key", (key, value) -> null));
+        Assert.assertNull(region.get("key"));
+        // 负缓存当做不存在
+        region.putNegative("negative");
+        Assert.assertEquals("new", region.compute("negative", (key, value) -> value == null ? "new" : "old"));
+    }
+
+    @Test
+    public void concurrentMergeLosesNoUpdates() throws Exception {
+        CacheRegion region = region();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        region.merge("counter", 1, (old, value) -> (Integer) old + (Integer) value);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        Assert.assertEquals(80_000, region.get("counter"));
+    }
+
+    @Test
+    public void replaceComparesWithEquals() {
+        CacheRegion region = region();
+        Assert.assertFalse(region.replace("key", "a", "b"));
+        region.put("key", new String("a"));
+        Assert.assertFalse(region.replace("key", "x", "b"));
+        Assert.assertTrue(region.replace("key", "a", "b"));
+        Assert.assertEquals("b", region.get("key"));
+    }
+
+    @Test
+    public void compareAndSetUsesVersion() {
+        CacheRegion region = region();
+        Assert.assertEquals(0, region.getVersion("key"));
+        Assert.assertTrue(region.compareAndSet("key", 0, "a"));
+        // 已经存在 不能按不存在添加
+        Assert.assertFalse(region.compareAndSet("key", 0, "b"));
+        long version = region.getVersion("key");
+        Assert.assertTrue(version > 0);
+        region.put("key", "c");
+        long newVersion = region.getVersion("key");
+        Assert.assertTrue(newVersion > version);
+        Assert.assertFalse(region.compareAndSet("key", version, "d"));
+        Assert.assertTrue(region.compareAndSet("key", newVersion, "e"));
+        Assert.assertEquals("e", region.get("key"));
+
+        long last = region.getVersion("key");
+        region.invalidate("key");
+        Assert.assertEquals(0, region.getVersion("key"));
+        region.put("key", "f");
+        // 删除后重新添加 版本不重复
+        Assert.assertTrue(region.getVersion("key") > last);
+        Assert.assertFalse(region.compareAndSet("key", last, "g"));
+    }
+
+    @Test
+    public void concurrentCompareAndSetIncrementsExactly() throws Exception {
+        CacheRegion region = region();
+        region.put("counter", 0);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        while (true) {
+                            long version = region.getVersion("counter");
+                            Integer value = (Integer) region.get("counter");
+                            if (region.compareAndSet("counter", version, value + 1)) {
+                                break;
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        Assert.assertEquals(4000, region.get("counter"));
+    }
+}
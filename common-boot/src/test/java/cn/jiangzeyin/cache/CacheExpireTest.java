@@ -0,0 +1,75 @@
+package cn.jiangzeyin.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个缓存独立的过期时间和访问后过期
+ *
+ * @author jiangzeyin
+ * data 2018/9/5
+ */
+public class CacheExpireTest {
+
+    private static CacheRegion region(long cacheTime, boolean expireAfterAccess) {
+        CacheInfo cacheInfo = new CacheInfo(null, cacheTime);
+        cacheInfo.setExpireAfterAccess(expireAfterAccess);
+        return new CacheRegion("expire", cacheInfo, 16);
+    }
+
+    @Test
+    public void entriesExpireIndependently() throws InterruptedException {
+        CacheRegion region = region(60_000, false);
+        region.put("short", 1, 100, TimeUnit.MILLISECONDS);
+        region.put("long", 2, 10, TimeUnit.SECONDS);
+        region.put("default", 3);
+        Assert.assertEquals(1, region.get("short"));
+        TimeUnit.MILLISECONDS.sleep(200);
+        Assert.assertNull(region.get("short"));
+        Assert.assertEquals(2, region.get("long"));
+        Assert.assertEquals(3, region.get("default"));
+    }
+
+    @Test
+    public void rewriteResetsDeadline() throws InterruptedException {
+        CacheRegion region = region(60_000, false);
+        region.put("key", 1, 300, TimeUnit.MILLISECONDS);
+        TimeUnit.MILLISECONDS.sleep(200);
+        region.put("key", 2, 300, TimeUnit.MILLISECONDS);
+        TimeUnit.MILLISECONDS.sleep(200);
+        Assert.assertEquals(2, region.get("key"));
+        // 缩短缓存时间
+        region.put("key", 3, 1, TimeUnit.MILLISECONDS);
+        TimeUnit.MILLISECONDS.sleep(20);
+        Assert.assertNull(region.get("key"));
+    }
+
+    @Test
+    public void accessExtendsDeadline() throws InterruptedException {
+        CacheRegion region = region(400, true);
+        region.put("key", 1);
+        for (int i = 0; i < 6; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+            Assert.assertEquals("read " + i, 1, region.get("key"));
+        }
+        TimeUnit.MILLISECONDS.sleep(500);
+        Assert.assertNull(region.get("key"));
+    }
+
+    @Test
+    public void expireRemovesEntries() throws InterruptedException {
+        CacheRegion region = region(60_000, false);
+        for (int i = 0; i < 100; i++) {
+            region.put("key" + i, i, 50, TimeUnit.MILLISECONDS);
+        }
+        region.put("kept", 1);
+        Assert.assertEquals(101, region.size());
+        TimeUnit.MILLISECONDS.sleep(200);
+        region.expire(CacheClock.currentTimeMillis());
+        Assert.assertEquals(1, region.size());
+        Assert.assertEquals(1, region.get("kept"));
+        Assert.assertEquals(100, region.getStatusInfo().getLongValue("expireCount"));
+    }
+}
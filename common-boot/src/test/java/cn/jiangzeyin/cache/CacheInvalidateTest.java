@@ -0,0 +1,80 @@
+package cn.jiangzeyin.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 按前缀和标签批量删除
+ *
+ * @author jiangzeyin
+ * data 2018/9/13
+ */
+public class CacheInvalidateTest {
+
+    private static CacheRegion region() {
+        return new CacheRegion("invalidate", new CacheInfo(null, 60_000), 16);
+    }
+
+    @Test
+    public void invalidatePrefixRemovesOnlyMatchingKeys() {
+        CacheRegion region = region();
+        for (int i = 0; i < 100; i++) {
+            region.put("user:" + i, i);
+            region.put("order:" + i, i);
+        }
+        region.put("user", "no colon");
+        region.put("user;", "next char");
+        Assert.assertEquals(11, region.invalidatePrefix("user:1"));
+        Assert.assertNull(region.get("user:1"));
+        Assert.assertNull(region.get("user:19"));
+        Assert.assertEquals(2, region.get("user:2"));
+        Assert.assertEquals(89, region.invalidatePrefix("user:"));
+        Assert.assertEquals("no colon", region.get("user"));
+        Assert.assertEquals("next char", region.get("user;"));
+        Assert.assertEquals(102, region.size());
+        // 已经删除的不再计数
+        Assert.assertEquals(0, region.invalidatePrefix("user:"));
+    }
+
+    @Test
+    public void invalidateTagRemovesTaggedEntries() {
+        CacheRegion region = region();
+        for (int i = 0; i < 10; i++) {
+            region.put("key" + i, i);
+            Assert.assertTrue(region.tag("key" + i, i % 2 == 0 ? "even" : "odd", "all"));
+        }
+        Assert.assertFalse(region.tag("missing", "even"));
+        Assert.assertEquals(5, region.invalidateTag("even"));
+        Assert.assertNull(region.get("key0"));
+        Assert.assertEquals(1, region.get("key1"));
+        // 被删除的缓存不会重复计数
+        Assert.assertEquals(5, region.invalidateTag("all"));
+        Assert.assertEquals(0, region.invalidateTag("odd"));
+        Assert.assertEquals(0, region.size());
+    }
+
+    @Test
+    public void removedEntryLeavesTagIndex() {
+        CacheRegion region = region();
+        region.put("key", 1);
+        region.tag("key", "tag");
+        region.invalidate("key");
+        region.put("key", 2);
+        // 新写入的缓存没有标签
+        Assert.assertEquals(0, region.invalidateTag("tag"));
+        Assert.assertEquals(2, region.get("key"));
+    }
+
+    @Test
+    public void invalidateAllClearsIndexes() {
+        CacheRegion region = region();
+        for (int i = 0; i < 10; i++) {
+            region.put("key" + i, i);
+            region.tag("key" + i, "tag");
+        }
+        Assert.assertEquals(10, region.invalidateAll());
+        Assert.assertEquals(0, region.invalidatePrefix("key"));
+        Assert.assertEquals(0, region.invalidateTag("tag"));
+        Assert.assertEquals(0, region.size());
+    }
+}
@@ -0,0 +1,166 @@
+package cn.jiangzeyin.cache;
+
+import cn.jiangzeyin.common.TestLog;
+import cn.jiangzeyin.pool.ThreadPoolService;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单次加载和异步刷新
+ *
+ * @author jiangzeyin
+ * data 2018/9/5
+ */
+public class CacheLoadingTest {
+
+    @BeforeClass
+    public static void init() {
+        TestLog.init();
+    }
+
+    private static CacheRegion region(long cacheTime, double refreshAhead) {
+        CacheInfo cacheInfo = new CacheInfo(null, cacheTime);
+        cacheInfo.setRefreshAhead(refreshAhead);
+        return new CacheRegion("loading", cacheInfo, 16);
+    }
+
+    @Test
+    public void concurrentMissesLoadOnce() throws Exception {
+        CacheRegion region = region(60_000, 0);
+        AtomicInteger loadCount = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executorService.submit(() -> region.get("key", key -> {
+                    loadCount.incrementAndGet();
+                    loading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return "value";
+                })));
+            }
+            Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+            // 等待其他线程进入等待
+            TimeUnit.MILLISECONDS.sleep(100);
+            release.countDown();
+            for (Future<Object> future : futures) {
+                Assert.assertEquals("value", future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        Assert.assertEquals(1, loadCount.get());
+        Assert.assertEquals("value", region.get("key"));
+    }
+
+    @Test
+    public void loadFailureIsNotCached() {
+        CacheRegion region = region(60_000, 0);
+        try {
+            region.get("key", key -> {
+                throw new IllegalStateException("fail");
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("fail", e.getMessage());
+        }
+        Assert.assertNull(region.get("key"));
+        Assert.assertEquals("value", region.get("key", key -> "value"));
+    }
+
+    @Test
+    public void getAllLoadsMissingKeysInOneBatch() {
+        CacheRegion region = region(60_000, 0);
+        region.put("a", "cached");
+        List<Set<String>> batches = new ArrayList<>();
+        Map<String, Object> result = region.getAll(Arrays.asList("a", "b", "c", "b"), keys -> {
+            batches.add(new HashSet<>(keys));
+            Map<String, Object> map = new HashMap<>();
+            map.put("b", "loaded");
+            return map;
+        });
+        Assert.assertEquals(1, batches.size());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("b", "c")), batches.get(0));
+        Assert.assertEquals("cached", result.get("a"));
+        Assert.assertEquals("loaded", result.get("b"));
+        Assert.assertFalse(result.containsKey("c"));
+        Assert.assertEquals("loaded", region.get("b"));
+    }
+
+    @Test
+    public void putDuringLoadIsNotOverwritten() throws Exception {
+        CacheRegion region = region(60_000, 0);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> future = CompletableFuture.supplyAsync(() -> region.get("key", key -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return "loaded";
+        }));
+        Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+        region.put("key", "put");
+        release.countDown();
+        Assert.assertEquals("loaded", future.get(5, TimeUnit.SECONDS));
+        // 加载开始后写入的值不会被加载的旧值覆盖
+        Assert.assertEquals("put", region.get("key"));
+    }
+
+    @Test
+    public void refreshAheadServesOldValue() throws Exception {
+        CacheRegion region = region(400, 0.5);
+        region.get("key", key -> "old");
+        TimeUnit.MILLISECONDS.sleep(250);
+        CountDownLatch refreshed = new CountDownLatch(1);
+        Object value = region.get("key", key -> {
+            refreshed.countDown();
+            return "new";
+        });
+        Assert.assertEquals("old", value);
+        Assert.assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"new".equals(region.get("key")) && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        Assert.assertEquals("new", region.get("key"));
+    }
+
+    @Test
+    public void refreshAfterPoolShutdownDoesNotBlockLoaders() throws Exception {
+        CacheRegion region = region(400, 0.5);
+        region.get("key", key -> "old");
+        ThreadPoolService.newCachedThreadPool(ObjectCache.class).shutdown();
+        TimeUnit.MILLISECONDS.sleep(250);
+        // 线程池已经关闭 在当前线程刷新
+        Assert.assertEquals("old", region.get("key", key -> "new"));
+        Assert.assertEquals("new", region.get("key"));
+        region.invalidate("key");
+        Object value = CompletableFuture.supplyAsync(() -> region.get("key", key -> "loaded")).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("loaded", value);
+    }
+}
@@ -0,0 +1,89 @@
+package cn.jiangzeyin.cache;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 独立配置大小的缓存区域
+ *
+ * @author jiangzeyin
+ * data 2018/9/6
+ */
+public class CacheRegionTest {
+
+    @CacheConfig(value = 30, maximumSize = 10, concurrencyLevel = 4)
+    public static class SmallRegion {
+        public static final String SMALL_USER = "region-test-small-user";
+        @CacheConfigField(value = 2, UNIT = TimeUnit.MINUTES)
+        public static final String SMALL_ORDER = "region-test-small-order";
+    }
+
+    @CacheConfig(maximumSize = 1000)
+    public static class LargeRegion {
+        public static final String LARGE_USER = "region-test-large-user";
+    }
+
+    @Test
+    public void configuredKeysRouteToRegion() throws IllegalAccessException {
+        ObjectCache.config(SmallRegion.class);
+        CacheRegion small = ObjectCache.region(SmallRegion.class);
+        Assert.assertSame(small, ObjectCache.region(SmallRegion.SMALL_USER));
+        Assert.assertSame(small, ObjectCache.region(SmallRegion.SMALL_ORDER));
+        Assert.assertNotSame(small, ObjectCache.region("region-test-unknown"));
+        Assert.assertEquals("default", ObjectCache.region("region-test-unknown").getName());
+        // 重复配置使用同一区域
+        ObjectCache.config(SmallRegion.class);
+        Assert.assertSame(small, ObjectCache.region(SmallRegion.class));
+
+        ObjectCache.put(SmallRegion.SMALL_USER, "user");
+        Assert.assertEquals("user", small.get(SmallRegion.SMALL_USER));
+        Assert.assertEquals("user", ObjectCache.get(SmallRegion.SMALL_USER));
+        Assert.assertTrue(ObjectCache.invalidate(SmallRegion.SMALL_USER));
+        Assert.assertNull(small.get(SmallRegion.SMALL_USER));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unconfiguredClassIsRejected() {
+        ObjectCache.region(CacheRegionTest.class);
+    }
+
+    @Test
+    public void regionsAreSizedIndependently() throws IllegalAccessException {
+        ObjectCache.config(SmallRegion.class);
+        ObjectCache.config(LargeRegion.class);
+        CacheRegion small = ObjectCache.region(SmallRegion.class);
+        CacheRegion large = ObjectCache.region(LargeRegion.class);
+        Assert.assertEquals(10, small.getMaximumSize());
+        Assert.assertEquals(1000, large.getMaximumSize());
+        for (int i = 0; i < 100; i++) {
+            small.put("region-test-small-" + i, i);
+            large.put("region-test-large-" + i, i);
+        }
+        Assert.assertEquals(10, small.size());
+        Assert.assertEquals(100, large.size());
+        small.invalidateAll();
+        large.invalidateAll();
+    }
+
+    @Test
+    public void fieldConfigOverridesClassConfig() throws IllegalAccessException {
+        ObjectCache.config(SmallRegion.class);
+        CacheRegion small = ObjectCache.region(SmallRegion.class);
+        JSONArray groups = small.getStatusInfo().getJSONArray("groups");
+        Map<String, Long> cacheTimes = new HashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            JSONObject group = groups.getJSONObject(i);
+            cacheTimes.put(group.getString("name"), group.getLongValue("cacheTime"));
+        }
+        // 类上配置30秒 字段上配置2分钟
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(30), (long) cacheTimes.get("default"));
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(30), (long) cacheTimes.get(SmallRegion.SMALL_USER));
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(2), (long) cacheTimes.get(SmallRegion.SMALL_ORDER));
+    }
+}
@@ -0,0 +1,217 @@
+package cn.jiangzeyin.cache;
+
+import cn.jiangzeyin.common.TestLog;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 节点间同步 两个节点通过本机的转发节点通信 转发时可以丢弃指定序号的包
+ *
+ * @author jiangzeyin
+ * data 2018/9/17
+ */
+public class CacheReplicatorTest {
+    private static final String SECRET = "replicator-test-secret";
+    private static final InetSocketAddress LOCAL = new InetSocketAddress("127.0.0.1", 0);
+
+    private DatagramChannel proxy;
+    private CacheReplicator nodeA;
+    private CacheReplicator nodeB;
+    private final List<CacheReplicator> others = new ArrayList<>();
+    /**
+     * 转发时丢弃一次的序号
+     */
+    private final Set<Long> dropOnce = ConcurrentHashMap.newKeySet();
+    /**
+     * 转发时一直丢弃的序号
+     */
+    private final Set<Long> dropAlways = ConcurrentHashMap.newKeySet();
+
+    @BeforeClass
+    public static void init() {
+        TestLog.init();
+    }
+
+    @Before
+    public void start() throws Exception {
+        proxy = DatagramChannel.open();
+        proxy.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+        proxy.bind(LOCAL);
+        InetSocketAddress proxyAddress = (InetSocketAddress) proxy.getLocalAddress();
+        List<InetSocketAddress> peers = Collections.singletonList(proxyAddress);
+        nodeA = CacheReplicator.open(LOCAL, peers, 4096, SECRET);
+        nodeB = CacheReplicator.open(LOCAL, peers, 4096, SECRET, "cn.jiangzeyin.cache");
+        InetSocketAddress addressA = nodeA.getLocalAddress();
+        InetSocketAddress addressB = nodeB.getLocalAddress();
+        Thread proxyThread = new Thread(() -> forward(addressA, addressB), "replicator-test-proxy");
+        proxyThread.setDaemon(true);
+        proxyThread.start();
+        // 收到心跳后从心跳的序号开始接收
+        await(() -> peerCount(nodeB) == 1 && peerCount(nodeA) == 1, 5000);
+    }
+
+    @After
+    public void stop() throws IOException {
+        nodeA.close();
+        nodeB.close();
+        others.forEach(CacheReplicator::close);
+        proxy.close();
+    }
+
+    /**
+     * A 发送的包转发给B 其他来源的包转发给A
+     */
+    private void forward(InetSocketAddress addressA, InetSocketAddress addressB) {
+        ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+        while (true) {
+            try {
+                buffer.clear();
+                InetSocketAddress source = (InetSocketAddress) proxy.receive(buffer);
+                buffer.flip();
+                if (addressA.equals(source)) {
+                    // 类型在第4个字节 序号在第13个字节
+                    if (buffer.get(4) == 1) {
+                        long seq = buffer.getLong(13);
+                        if (dropAlways.contains(seq) || dropOnce.remove(seq)) {
+                            continue;
+                        }
+                    }
+                    proxy.send(buffer, addressB);
+                } else {
+                    proxy.send(buffer, addressA);
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Test
+    public void lostPacketIsResentAfterNack() throws Exception {
+        dropOnce.add(1L);
+        nodeA.publishWrite("replicator:k1", "v1", expireTime());
+        TimeUnit.MILLISECONDS.sleep(100);
+        Assert.assertNull(ObjectCache.get("replicator:k1"));
+        nodeA.publishWrite("replicator:k2", "v2", expireTime());
+        // 收到2 后发现缺少1 请求重发
+        await(() -> "v2".equals(ObjectCache.get("replicator:k2")), 5000);
+        Assert.assertEquals("v1", ObjectCache.get("replicator:k1"));
+        Assert.assertTrue(nodeA.getStatusInfo().getLongValue("resendCount") >= 1);
+        Assert.assertEquals(0, nodeB.getStatusInfo().getLongValue("resetCount"));
+
+        ObjectCache.put("replicator:k3", "old");
+        nodeA.publishInvalidate("replicator:k3");
+        await(() -> ObjectCache.get("replicator:k3") == null, 5000);
+    }
+
+    @Test
+    public void lastLostPacketIsFoundByHeartbeat() throws Exception {
+        dropOnce.add(1L);
+        nodeA.publishWrite("replicator:last", "v", expireTime());
+        await(() -> "v".equals(ObjectCache.get("replicator:last")), 5000);
+    }
+
+    @Test
+    public void unrecoverableLossResetsCache() throws Exception {
+        dropAlways.add(1L);
+        ObjectCache.put("replicator:stale", "stale");
+        char[] chars = new char[3000];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        for (int i = 0; i < 300 && nodeB.getStatusInfo().getLongValue("resetCount") == 0; i++) {
+            // 每个包两个值
+            nodeA.publishWrite("replicator:reset" + (i * 2), value, expireTime());
+            nodeA.publishWrite("replicator:reset" + (i * 2 + 1), value, expireTime());
+            TimeUnit.MILLISECONDS.sleep(15);
+        }
+        await(() -> nodeB.getStatusInfo().getLongValue("resetCount") >= 1, 10_000);
+        // 计数在清空缓存之前增加
+        await(() -> ObjectCache.get("replicator:stale") == null, 5000);
+    }
+
+    @Test
+    public void forgedPacketIsDropped() throws Exception {
+        // 密钥不同的节点发送的心跳通过转发节点到达A
+        CacheReplicator forged = CacheReplicator.open(LOCAL, Collections.singletonList((InetSocketAddress) proxy.getLocalAddress()), 0,
+                "another-secret-value");
+        others.add(forged);
+        await(() -> nodeA.getStatusInfo().getLongValue("dropCount") >= 1, 5000);
+        Assert.assertEquals(1, peerCount(nodeA));
+    }
+
+    @Test
+    public void unknownSourceIsDropped() throws Exception {
+        // 密钥相同 但是不在B 配置的节点中
+        CacheReplicator unknown = CacheReplicator.open(LOCAL, Collections.singletonList(nodeB.getLocalAddress()), 4096, SECRET);
+        others.add(unknown);
+        ObjectCache.put("replicator:unknown", "old");
+        unknown.publishInvalidate("replicator:unknown");
+        await(() -> nodeB.getStatusInfo().getLongValue("dropCount") >= 1, 5000);
+        TimeUnit.MILLISECONDS.sleep(100);
+        Assert.assertEquals("old", ObjectCache.get("replicator:unknown"));
+        Assert.assertEquals(1, peerCount(nodeB));
+    }
+
+    @Test
+    public void disallowedClassIsNotDeserialized() throws Exception {
+        ObjectCache.put("replicator:bad", "old");
+        nodeA.publishWrite("replicator:bad", new AtomicLong(1), expireTime());
+        nodeA.publishWrite("replicator:list", new ArrayList<>(Arrays.asList("a", "b")), expireTime());
+        nodeA.publishWrite("replicator:value", new Value(), expireTime());
+        await(() -> ObjectCache.get("replicator:value") != null, 5000);
+        Assert.assertEquals(Arrays.asList("a", "b"), ObjectCache.get("replicator:list"));
+        // 配置的包下的类允许
+        Assert.assertTrue(ObjectCache.get("replicator:value") instanceof Value);
+        // 不允许的类只删除本地缓存
+        Assert.assertNull(ObjectCache.get("replicator:bad"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortSecretIsRejected() throws IOException {
+        CacheReplicator.open(LOCAL, Collections.emptyList(), 0, "short");
+    }
+
+    private static long expireTime() {
+        return CacheClock.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+    }
+
+    private static int peerCount(CacheReplicator replicator) {
+        return replicator.getStatusInfo().getIntValue("peerCount");
+    }
+
+    private static void await(BooleanSupplier condition, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > end) {
+                throw new AssertionError("timeout");
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    public static class Value implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,130 @@
+package cn.jiangzeyin.cache;
+
+import cn.jiangzeyin.common.TestLog;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存快照的保存、校验和加载
+ *
+ * @author jiangzeyin
+ * data 2018/9/11
+ */
+public class CacheSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void init() {
+        TestLog.init();
+    }
+
+    private File save(int count) throws IOException {
+        CacheRegion region = new CacheRegion("snapshot", new CacheInfo(null, 60_000), 16);
+        for (int i = 0; i < count; i++) {
+            region.put("key" + i, "value" + i);
+        }
+        region.tag("key0", "tag-a", "tag-b");
+        // 不能序列化的值跳过
+        region.put("object", new Object());
+        File file = new File(folder.getRoot(), "cache.snapshot");
+        Assert.assertEquals(count, CacheSnapshot.save(file, Collections.singletonList(region)));
+        return file;
+    }
+
+    @Test
+    public void saveAndLoadRoundTrip() throws IOException {
+        File file = save(100);
+        CacheSnapshot snapshot = CacheSnapshot.load(file);
+        Assert.assertNotNull(snapshot);
+        // 加载后删除文件
+        Assert.assertFalse(file.exists());
+        Assert.assertEquals(100, snapshot.size());
+        CacheSnapshot.Entry entry = snapshot.take("key0");
+        Assert.assertEquals("value0", entry.value);
+        Assert.assertArrayEquals(new String[]{"tag-a", "tag-b"}, entry.tags);
+        Assert.assertTrue(entry.expireTime > CacheClock.currentTimeMillis());
+        // 每个key 只能取出一次
+        Assert.assertNull(snapshot.take("key0"));
+        Assert.assertNull(snapshot.take("object"));
+        Assert.assertTrue(snapshot.remove("key1"));
+        Assert.assertEquals(1, snapshot.removeIf((key, tags) -> "key9".equals(key)));
+        Assert.assertEquals("value50", snapshot.take("key50").value);
+        Assert.assertEquals(96, snapshot.size());
+    }
+
+    @Test
+    public void expiredEntriesAreSkipped() throws IOException {
+        CacheRegion region = new CacheRegion("snapshot", new CacheInfo(null, 60_000), 16);
+        region.put("short", 1, 1, TimeUnit.MILLISECONDS);
+        region.put("long", 2);
+        File file = new File(folder.getRoot(), "cache.snapshot");
+        sleep();
+        Assert.assertEquals(1, CacheSnapshot.save(file, Collections.singletonList(region)));
+        CacheSnapshot snapshot = CacheSnapshot.load(file);
+        Assert.assertNotNull(snapshot);
+        Assert.assertNull(snapshot.take("short"));
+        Assert.assertEquals(2, snapshot.take("long").value);
+    }
+
+    @Test
+    public void corruptedBodyFailsCrc() throws IOException {
+        File file = save(10);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            long position = randomAccessFile.length() - 20;
+            randomAccessFile.seek(position);
+            int b = randomAccessFile.read();
+            randomAccessFile.seek(position);
+            randomAccessFile.write(b ^ 0xFF);
+        }
+        Assert.assertNull(CacheSnapshot.load(file));
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        File file = save(10);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() - 1);
+        }
+        Assert.assertNull(CacheSnapshot.load(file));
+    }
+
+    @Test
+    public void wrongMagicOrVersionIsRejected() throws IOException {
+        File file = save(10);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.writeInt(0);
+        }
+        Assert.assertNull(CacheSnapshot.load(file));
+
+        file = save(10);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(4);
+            randomAccessFile.writeInt(1);
+        }
+        Assert.assertNull(CacheSnapshot.load(file));
+    }
+
+    @Test
+    public void missingFileReturnsNull() {
+        Assert.assertNull(CacheSnapshot.load(new File(folder.getRoot(), "none")));
+    }
+
+    private static void sleep() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
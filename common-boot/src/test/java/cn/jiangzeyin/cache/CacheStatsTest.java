@@ -0,0 +1,85 @@
+package cn.jiangzeyin.cache;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * 缓存统计
+ *
+ * @author jiangzeyin
+ * data 2018/9/6
+ */
+public class CacheStatsTest {
+
+    @Test
+    public void countsHitsMissesAndLoads() {
+        CacheRegion region = new CacheRegion("stats", new CacheInfo(null, 60_000), 16);
+        region.put("a", 1);
+        region.get("a");
+        region.get("a");
+        region.get("b");
+        region.get("c", key -> "loaded");
+        try {
+            region.get("d", key -> {
+                throw new IllegalStateException();
+            });
+            Assert.fail();
+        } catch (IllegalStateException ignored) {
+        }
+        region.invalidate("a");
+        JSONObject info = region.getStatusInfo();
+        Assert.assertEquals(2, info.getLongValue("hitCount"));
+        // b、c、d 各未命中一次
+        Assert.assertEquals(3, info.getLongValue("missCount"));
+        Assert.assertEquals(1, info.getLongValue("loadSuccessCount"));
+        Assert.assertEquals(1, info.getLongValue("loadFailureCount"));
+        Assert.assertEquals(1, info.getLongValue("invalidateCount"));
+        Assert.assertEquals(1, info.getLongValue("size"));
+        Assert.assertEquals(0.4, info.getDoubleValue("hitRate"), 0.0001);
+    }
+
+    @Test
+    public void groupsByConfiguredKey() {
+        CacheRegion region = new CacheRegion("group", new CacheInfo(null, 60_000), 16);
+        region.config(Collections.singletonList(new CacheInfo("configured", 1000)));
+        region.put("configured", 1);
+        region.get("configured");
+        region.put("other", 2);
+        region.get("missing");
+        JSONArray groups = region.getStatusInfo().getJSONArray("groups");
+        Assert.assertEquals(2, groups.size());
+        JSONObject defaultGroup = groups.getJSONObject(0);
+        Assert.assertEquals("default", defaultGroup.getString("name"));
+        Assert.assertEquals(0, defaultGroup.getLongValue("hitCount"));
+        Assert.assertEquals(1, defaultGroup.getLongValue("missCount"));
+        Assert.assertEquals(1, defaultGroup.getLongValue("size"));
+        JSONObject configured = groups.getJSONObject(1);
+        Assert.assertEquals("configured", configured.getString("name"));
+        Assert.assertEquals(1000, configured.getLongValue("cacheTime"));
+        Assert.assertEquals(1, configured.getLongValue("hitCount"));
+        Assert.assertEquals(1.0, configured.getDoubleValue("hitRate"), 0.0001);
+    }
+
+    @Test
+    public void evictionIsCounted() {
+        CacheRegion region = new CacheRegion("eviction", new CacheInfo(null, 60_000), 16);
+        region.setMaximumSize(10);
+        for (int i = 0; i < 30; i++) {
+            region.put("key" + i, i);
+        }
+        JSONObject info = region.getStatusInfo();
+        Assert.assertEquals(20, info.getLongValue("evictionCount"));
+        Assert.assertEquals(10, info.getLongValue("size"));
+        Assert.assertEquals(10, info.getLongValue("maximumSize"));
+    }
+
+    @Test
+    public void objectCacheListsDefaultRegion() {
+        JSONArray jsonArray = ObjectCache.getCacheStatusInfo();
+        Assert.assertEquals("default", jsonArray.getJSONObject(0).getString("name"));
+    }
+}
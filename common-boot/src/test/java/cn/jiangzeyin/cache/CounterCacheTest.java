@@ -0,0 +1,127 @@
+package cn.jiangzeyin.cache;
+
+import cn.jiangzeyin.common.TestLog;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 高并发计数和定时回调
+ *
+ * @author jiangzeyin
+ * data 2018/9/16
+ */
+public class CounterCacheTest {
+
+    @BeforeClass
+    public static void init() {
+        TestLog.init();
+    }
+
+    @Test
+    public void countsAndWindows() {
+        CounterCache counterCache = new CounterCache("test");
+        counterCache.increment("a");
+        counterCache.add("a", 9);
+        counterCache.add("b", -2);
+        Assert.assertEquals(10, counterCache.get("a"));
+        Assert.assertEquals(-2, counterCache.get("b"));
+        Assert.assertEquals(0, counterCache.get("c"));
+        for (CounterCache.Window window : CounterCache.Window.values()) {
+            Assert.assertEquals(10, counterCache.get("a", window));
+        }
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("a", 10L);
+        expected.put("b", -2L);
+        Assert.assertEquals(expected, counterCache.snapshot());
+        Assert.assertEquals(expected, counterCache.snapshot(CounterCache.Window.MINUTE));
+        Assert.assertTrue(counterCache.remove("b"));
+        Assert.assertEquals(1, counterCache.size());
+    }
+
+    @Test
+    public void concurrentIncrementsAreExact() throws Exception {
+        CounterCache counterCache = new CounterCache("test");
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        counterCache.increment("key" + (i % 4));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(20_000, counterCache.get("key" + i));
+            Assert.assertEquals(20_000, counterCache.get("key" + i, CounterCache.Window.MINUTE));
+        }
+    }
+
+    @Test
+    public void listenerReceivesDeltasWithoutObjectCache() throws InterruptedException {
+        CounterCache counterCache = new CounterCache("listener");
+        BlockingQueue<Map<String, Long>> received = new LinkedBlockingQueue<>();
+        counterCache.setListener(received::add, 50, TimeUnit.MILLISECONDS);
+        counterCache.add("a", 3);
+        Assert.assertEquals(Collections.singletonMap("a", 3L), received.poll(5, TimeUnit.SECONDS));
+        counterCache.add("a", 2);
+        counterCache.add("b", 1);
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("a", 2L);
+        expected.put("b", 1L);
+        Assert.assertEquals(expected, received.poll(5, TimeUnit.SECONDS));
+        // 没有增量时不回调
+        Assert.assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(5, counterCache.get("a"));
+    }
+
+    @Test
+    public void failedDeltaIsKeptForNextNotify() {
+        CounterCache counterCache = new CounterCache("failure");
+        AtomicBoolean fail = new AtomicBoolean(true);
+        List<Map<String, Long>> received = Collections.synchronizedList(new ArrayList<>());
+        counterCache.setListener(deltas -> {
+            if (fail.get()) {
+                throw new IllegalStateException("fail");
+            }
+            received.add(deltas);
+        }, 1, TimeUnit.HOURS);
+        counterCache.add("a", 3);
+        Assert.assertFalse(counterCache.flush());
+        counterCache.add("a", 4);
+        fail.set(false);
+        Assert.assertTrue(counterCache.flush());
+        Assert.assertEquals(Collections.singletonList(Collections.singletonMap("a", 7L)), received);
+        Assert.assertTrue(counterCache.flush());
+        Assert.assertEquals(1, received.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void listenerCanOnlyBeSetOnce() {
+        CounterCache counterCache = new CounterCache("once");
+        counterCache.setListener(deltas -> {
+        }, 1, TimeUnit.HOURS);
+        counterCache.setListener(deltas -> {
+        }, 1, TimeUnit.HOURS);
+    }
+}
@@ -0,0 +1,155 @@
+package cn.jiangzeyin.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * long 类型key 缓存的线性探测和墓碑
+ *
+ * @author jiangzeyin
+ * data 2018/9/14
+ */
+public class LongObjectCacheTest {
+
+    @CacheConfig(value = 30)
+    public static class Config {
+        @CacheConfigField(value = 2, UNIT = TimeUnit.MINUTES, expireAfterAccess = true)
+        public static final String USER = "long-cache-user";
+    }
+
+    @Test
+    public void putGetAndReplace() {
+        LongObjectCache cache = new LongObjectCache("test", 1, TimeUnit.MINUTES);
+        // 0 和key 数组的默认值相同
+        Assert.assertNull(cache.put(0, "zero"));
+        Assert.assertNull(cache.put(-1, "negative"));
+        Assert.assertNull(cache.put(Long.MIN_VALUE, "min"));
+        Assert.assertEquals("zero", cache.get(0));
+        Assert.assertEquals("negative", cache.get(-1));
+        Assert.assertEquals("min", cache.get(Long.MIN_VALUE));
+        Assert.assertNull(cache.get(1));
+        Assert.assertEquals("zero", cache.put(0, "new"));
+        Assert.assertEquals("new", cache.get(0));
+        Assert.assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void manyKeysSurviveResize() {
+        LongObjectCache cache = new LongObjectCache("test", 1, TimeUnit.MINUTES);
+        for (long i = 0; i < 100_000; i++) {
+            cache.put(i * 31, i);
+        }
+        Assert.assertEquals(100_000, cache.size());
+        for (long i = 0; i < 100_000; i++) {
+            Assert.assertEquals(i, cache.get(i * 31));
+        }
+        Assert.assertNull(cache.get(1));
+    }
+
+    @Test
+    public void removeLeavesTombstoneThatIsReused() {
+        LongObjectCache cache = new LongObjectCache("test", 1, TimeUnit.MINUTES);
+        for (long i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        Assert.assertEquals(5L, cache.remove(5));
+        Assert.assertNull(cache.remove(5));
+        Assert.assertNull(cache.get(5));
+        // 墓碑之后探测到的key 仍然能读取
+        for (long i = 0; i < 100; i++) {
+            if (i != 5) {
+                Assert.assertEquals(i, cache.get(i));
+            }
+        }
+        Assert.assertEquals(99, cache.size());
+        Assert.assertNull(cache.put(5, "again"));
+        Assert.assertEquals("again", cache.get(5));
+        Assert.assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void churnDoesNotGrowTable() {
+        LongObjectCache cache = new LongObjectCache("test", 1, TimeUnit.MINUTES);
+        for (long i = 0; i < 200_000; i++) {
+            cache.put(i, i);
+            cache.remove(i);
+        }
+        Assert.assertEquals(0, cache.size());
+        // 扩容时丢弃墓碑 表大小保持在最小容量
+        Assert.assertEquals(16 * 16, cache.getStatusInfo().getLongValue("capacity"));
+    }
+
+    @Test
+    public void expiredEntriesAreIgnoredAndCleaned() throws InterruptedException {
+        LongObjectCache cache = new LongObjectCache("test", 1, TimeUnit.MINUTES);
+        for (long i = 0; i < 10; i++) {
+            cache.put(i, i, 10, TimeUnit.MILLISECONDS);
+        }
+        TimeUnit.MILLISECONDS.sleep(50);
+        for (long i = 0; i < 10; i++) {
+            Assert.assertNull(cache.get(i));
+        }
+        Assert.assertNull(cache.put(1, "new"));
+        Assert.assertNull(cache.remove(2));
+        for (long i = 100; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        Assert.assertEquals(901, cache.size());
+        // 1 被覆盖 2 被删除 不计入过期
+        Assert.assertEquals(8, cache.getStatusInfo().getLongValue("expireCount"));
+    }
+
+    @Test
+    public void configUsesFieldSettings() throws IllegalAccessException {
+        LongObjectCache cache = LongObjectCache.config(Config.class, Config.USER);
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(2), cache.getStatusInfo().getLongValue("cacheTime"));
+        Assert.assertTrue(cache.getStatusInfo().getBooleanValue("expireAfterAccess"));
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(30),
+                LongObjectCache.config(Config.class, null).getStatusInfo().getLongValue("cacheTime"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownConfigKeyIsRejected() throws IllegalAccessException {
+        LongObjectCache.config(Config.class, "missing");
+    }
+
+    @Test
+    public void readersSeeCompleteEntriesDuringResize() throws Exception {
+        LongObjectCache cache = new LongObjectCache("test", 1, TimeUnit.MINUTES);
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] readers = new Future[3];
+            for (int r = 0; r < readers.length; r++) {
+                readers[r] = executorService.submit(() -> {
+                    while (running.get()) {
+                        for (long i = 0; i < 1000; i++) {
+                            Object value = cache.get(i);
+                            if (value != null && (Long) value != i) {
+                                throw new AssertionError(i + " " + value);
+                            }
+                        }
+                    }
+                });
+            }
+            for (long i = 0; i < 50_000; i++) {
+                cache.put(i % 1000, i % 1000);
+                if (i % 3 == 0) {
+                    cache.remove((i * 7) % 1000);
+                }
+            }
+            running.set(false);
+            for (Future<?> reader : readers) {
+                reader.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
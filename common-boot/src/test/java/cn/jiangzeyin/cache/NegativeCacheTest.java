@@ -0,0 +1,101 @@
+package cn.jiangzeyin.cache;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 负缓存 缓存数据不存在的结果
+ *
+ * @author jiangzeyin
+ * data 2018/9/15
+ */
+public class NegativeCacheTest {
+
+    private static CacheRegion region(long negativeTime) {
+        CacheInfo cacheInfo = new CacheInfo(null, 60_000);
+        cacheInfo.setNegativeTime(negativeTime);
+        return new CacheRegion("negative", cacheInfo, 16);
+    }
+
+    @Test
+    public void nullLoadIsCachedAsNegative() {
+        CacheRegion region = region(60_000);
+        AtomicInteger loadCount = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNull(region.get("missing", key -> {
+                loadCount.incrementAndGet();
+                return null;
+            }));
+        }
+        Assert.assertEquals(1, loadCount.get());
+        Assert.assertEquals(Optional.empty(), region.lookup("missing"));
+        Assert.assertNull(region.get("missing"));
+        Assert.assertNull(region.lookup("unknown"));
+        JSONObject info = region.getStatusInfo();
+        // 加载后4次读取 lookup 和get 各一次
+        Assert.assertEquals(6, info.getLongValue("negativeHitCount"));
+    }
+
+    @Test
+    public void nullLoadWithoutNegativeTimeIsNotCached() {
+        CacheRegion region = region(0);
+        AtomicInteger loadCount = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            region.get("missing", key -> {
+                loadCount.incrementAndGet();
+                return null;
+            });
+        }
+        Assert.assertEquals(3, loadCount.get());
+        Assert.assertNull(region.lookup("missing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void putNegativeRequiresNegativeTime() {
+        region(0).putNegative("key");
+    }
+
+    @Test
+    public void negativeEntryExpiresSeparately() throws InterruptedException {
+        CacheRegion region = region(60_000);
+        region.putNegative("key", 50, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(Optional.empty(), region.lookup("key"));
+        TimeUnit.MILLISECONDS.sleep(100);
+        Assert.assertNull(region.lookup("key"));
+        Assert.assertEquals("loaded", region.get("key", key -> "loaded"));
+    }
+
+    @Test
+    public void putReplacesNegativeEntry() {
+        CacheRegion region = region(60_000);
+        region.putNegative("key");
+        Assert.assertNull(region.putIfAbsent("key", "value"));
+        Assert.assertEquals(Optional.of("value"), region.lookup("key"));
+        region.putNegative("key");
+        region.put("key", "other");
+        Assert.assertEquals("other", region.get("key"));
+    }
+
+    @Test
+    public void bulkLoadCachesMissingKeys() {
+        CacheRegion region = region(60_000);
+        AtomicInteger loadCount = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            Map<String, Object> result = region.getAll(Arrays.asList("a", "b"), keys -> {
+                loadCount.incrementAndGet();
+                return Collections.singletonMap("a", "value");
+            });
+            Assert.assertEquals(Collections.singletonMap("a", "value"), result);
+        }
+        Assert.assertEquals(1, loadCount.get());
+        Assert.assertEquals(Optional.empty(), region.lookup("b"));
+    }
+}
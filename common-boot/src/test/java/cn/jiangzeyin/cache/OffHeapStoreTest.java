@@ -0,0 +1,123 @@
+package cn.jiangzeyin.cache;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 堆外存储的slab 分配和复用
+ *
+ * @author jiangzeyin
+ * data 2018/9/10
+ */
+public class OffHeapStoreTest {
+    private static final int SLAB_SIZE = 4 * 1024 * 1024;
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) seed);
+        return OffHeapStore.serialize(bytes);
+    }
+
+    @Test
+    public void writeAndRead() {
+        OffHeapStore store = new OffHeapStore(SLAB_SIZE, 0);
+        OffHeapStore.OffHeapValue value = store.write(OffHeapStore.serialize("hello"));
+        Assert.assertNotNull(value);
+        Assert.assertEquals("hello", store.read(value));
+        Assert.assertEquals(1, store.getCount());
+        Assert.assertEquals(SLAB_SIZE, store.getAllocatedBytes());
+    }
+
+    @Test
+    public void freedChunksAreReused() {
+        // 只有一个slab
+        OffHeapStore store = new OffHeapStore(SLAB_SIZE, 0);
+        List<OffHeapStore.OffHeapValue> values = new ArrayList<>();
+        OffHeapStore.OffHeapValue value;
+        int i = 0;
+        while ((value = store.write(bytes(900, i++))) != null) {
+            values.add(value);
+        }
+        // 900 字节加序列化头 放入1024 的块
+        Assert.assertEquals(SLAB_SIZE / 1024, values.size());
+        Assert.assertEquals(SLAB_SIZE, store.getAllocatedBytes());
+        // slab 已经归属1024 的块 其他大小无法分配
+        Assert.assertNull(store.write(OffHeapStore.serialize("small")));
+
+        store.free(values.get(10));
+        store.free(values.get(20));
+        Assert.assertEquals(values.size() - 2, store.getCount());
+        OffHeapStore.OffHeapValue first = store.write(bytes(900, -1));
+        OffHeapStore.OffHeapValue second = store.write(bytes(900, -2));
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(second);
+        Assert.assertNull(store.write(bytes(900, -3)));
+        Assert.assertEquals(SLAB_SIZE, store.getAllocatedBytes());
+        Assert.assertArrayEquals((byte[]) OffHeapStore.deserialize(bytes(900, -1)), (byte[]) store.read(first));
+        Assert.assertArrayEquals((byte[]) OffHeapStore.deserialize(bytes(900, 11)), (byte[]) store.read(values.get(11)));
+    }
+
+    @Test
+    public void freeIsIdempotent() {
+        OffHeapStore store = new OffHeapStore(SLAB_SIZE, 0);
+        byte[] bytes = OffHeapStore.serialize("value");
+        OffHeapStore.OffHeapValue value = store.write(bytes);
+        store.free(value);
+        store.free(value);
+        Assert.assertNull(store.read(value));
+        Assert.assertEquals(0, store.getCount());
+        Assert.assertEquals(0, store.getUsedBytes());
+    }
+
+    @Test
+    public void oversizedValueIsRejected() {
+        OffHeapStore store = new OffHeapStore(SLAB_SIZE * 2L, 0);
+        Assert.assertNull(store.write(new byte[SLAB_SIZE + 1]));
+        Assert.assertNotNull(store.write(new byte[SLAB_SIZE]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityBelowSlabIsRejected() {
+        new OffHeapStore(SLAB_SIZE - 1, 0);
+    }
+
+    @Test
+    public void evictedEntriesMoveOffHeap() {
+        CacheRegion region = new CacheRegion("offHeap", new CacheInfo(null, 60_000), 16);
+        region.setMaximumSize(10);
+        region.setOffHeap(SLAB_SIZE, 0);
+        for (int i = 0; i < 30; i++) {
+            region.put("key" + i, "value" + i);
+        }
+        for (int i = 0; i < 30; i++) {
+            Assert.assertEquals("value" + i, region.get("key" + i));
+        }
+        JSONObject offHeap = region.getStatusInfo().getJSONObject("offHeap");
+        Assert.assertTrue(offHeap.getLongValue("count") > 0);
+        region.invalidateAll();
+        Assert.assertEquals(0, region.getStatusInfo().getJSONObject("offHeap").getLongValue("count"));
+    }
+
+    @Test
+    public void largeValuesAreWrittenOffHeap() {
+        CacheRegion region = new CacheRegion("threshold", new CacheInfo(null, 60_000), 16);
+        region.setOffHeap(SLAB_SIZE, 512);
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'a');
+        String large = new String(chars);
+        region.put("small", "small");
+        region.put("large", large);
+        Assert.assertEquals(1, region.getStatusInfo().getJSONObject("offHeap").getLongValue("count"));
+        Assert.assertEquals(large, region.get("large"));
+        Assert.assertEquals("small", region.get("small"));
+        // 覆盖后释放原来的块
+        region.put("large", "replaced");
+        Assert.assertEquals(0, region.getStatusInfo().getJSONObject("offHeap").getLongValue("count"));
+        Assert.assertEquals("replaced", region.get("large"));
+    }
+}
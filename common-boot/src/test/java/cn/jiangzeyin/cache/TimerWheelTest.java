@@ -0,0 +1,140 @@
+package cn.jiangzeyin.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分层时间轮
+ *
+ * @author jiangzeyin
+ * data 2018/9/4
+ */
+public class TimerWheelTest {
+    /**
+     * 对齐所有层的起始时间
+     */
+    private static final long START = 1L << 40;
+
+    private final CacheInfo cacheInfo = new CacheInfo(null, 60_000);
+    private final Set<CacheEntity> alive = new HashSet<>();
+    private final Map<String, Long> expired = new HashMap<>();
+
+    private CacheEntity schedule(TimerWheel timerWheel, String key, long delay) {
+        CacheEntity entity = new CacheEntity(key, key, cacheInfo, delay);
+        entity.expireTime = START + delay;
+        alive.add(entity);
+        timerWheel.reschedule(entity);
+        return entity;
+    }
+
+    private void advance(TimerWheel timerWheel, long now) {
+        timerWheel.advance(now, alive::contains, entity -> {
+            alive.remove(entity);
+            Assert.assertNull(entity.getKey(), expired.put(entity.getKey(), now));
+        });
+    }
+
+    private void assertExpired(String key, long expireTime, long tolerance) {
+        Long time = expired.get(key);
+        Assert.assertNotNull(key + " not expired", time);
+        Assert.assertTrue(key + " expired early " + time, time >= expireTime);
+        Assert.assertTrue(key + " expired late " + (time - expireTime), time - expireTime <= tolerance);
+    }
+
+    @Test
+    public void cascadesThroughEveryLevel() {
+        TimerWheel timerWheel = new TimerWheel(START);
+        long[] delays = {
+                10,
+                100,
+                TimeUnit.SECONDS.toMillis(5),
+                TimeUnit.MINUTES.toMillis(5),
+                TimeUnit.HOURS.toMillis(5),
+                TimeUnit.DAYS.toMillis(13),
+                TimeUnit.DAYS.toMillis(40)};
+        for (long delay : delays) {
+            schedule(timerWheel, "key" + delay, delay);
+        }
+        long step = 50;
+        long end = START + TimeUnit.MINUTES.toMillis(6);
+        for (long now = START; now <= end; now += step) {
+            advance(timerWheel, now);
+        }
+        // 较长的时间用更大的步长推进
+        step = TimeUnit.SECONDS.toMillis(10);
+        end = START + TimeUnit.DAYS.toMillis(41);
+        for (long now = START + TimeUnit.MINUTES.toMillis(6); now <= end; now += step) {
+            advance(timerWheel, now);
+            for (long delay : delays) {
+                Long time = expired.get("key" + delay);
+                Assert.assertTrue(time == null || time >= START + delay);
+            }
+        }
+        assertExpired("key10", START + 10, 50 + 64);
+        assertExpired("key100", START + 100, 50 + 64);
+        assertExpired("key" + TimeUnit.SECONDS.toMillis(5), START + TimeUnit.SECONDS.toMillis(5), 50 + 64);
+        assertExpired("key" + TimeUnit.MINUTES.toMillis(5), START + TimeUnit.MINUTES.toMillis(5), 50 + 64);
+        for (int i = 4; i < delays.length; i++) {
+            assertExpired("key" + delays[i], START + delays[i], step + 64);
+        }
+        Assert.assertTrue(alive.isEmpty());
+    }
+
+    @Test
+    public void largeJumpExpiresOnlyDueEntries() {
+        TimerWheel timerWheel = new TimerWheel(START);
+        for (int i = 1; i <= 1000; i++) {
+            schedule(timerWheel, "key" + i, i * 1000L);
+        }
+        advance(timerWheel, START);
+        // 一次推进超过多层的跨度
+        advance(timerWheel, START + 500_000);
+        Assert.assertEquals(500, expired.size());
+        for (int i = 1; i <= 500; i++) {
+            Assert.assertTrue(expired.containsKey("key" + i));
+        }
+        advance(timerWheel, START + 2_000_000);
+        Assert.assertEquals(1000, expired.size());
+    }
+
+    @Test
+    public void removedEntriesAreSkipped() {
+        TimerWheel timerWheel = new TimerWheel(START);
+        CacheEntity entity = schedule(timerWheel, "removed", 100);
+        schedule(timerWheel, "kept", 100);
+        advance(timerWheel, START);
+        alive.remove(entity);
+        timerWheel.reschedule(entity);
+        advance(timerWheel, START + 1000);
+        Assert.assertFalse(expired.containsKey("removed"));
+        Assert.assertTrue(expired.containsKey("kept"));
+        Assert.assertNull(entity.timerPrev);
+        Assert.assertNull(entity.timerNext);
+    }
+
+    @Test
+    public void extendedEntriesMoveToNewDeadline() {
+        TimerWheel timerWheel = new TimerWheel(START);
+        CacheEntity entity = schedule(timerWheel, "key", 100);
+        advance(timerWheel, START);
+        // 写入后延长 到期时发现未过期会重新放入
+        entity.expireTime = START + 10_000;
+        advance(timerWheel, START + 1000);
+        Assert.assertTrue(expired.isEmpty());
+        // 缩短后重新放入
+        entity.expireTime = START + 2000;
+        timerWheel.reschedule(entity);
+        advance(timerWheel, START + 1500);
+        Assert.assertTrue(expired.isEmpty());
+        for (long now = START + 1550; now <= START + 3000; now += 50) {
+            advance(timerWheel, now);
+        }
+        assertExpired("key", START + 2000, 50 + 64);
+    }
+}
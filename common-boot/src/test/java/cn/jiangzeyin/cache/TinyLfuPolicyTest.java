@@ -0,0 +1,153 @@
+package cn.jiangzeyin.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * W-TinyLFU 淘汰策略
+ *
+ * @author jiangzeyin
+ * data 2018/9/3
+ */
+public class TinyLfuPolicyTest {
+    private final CacheInfo cacheInfo = new CacheInfo(null, 60_000);
+    private final Set<String> evicted = new HashSet<>();
+
+    private CacheEntity entity(String key) {
+        return new CacheEntity(key, key, cacheInfo, 60_000);
+    }
+
+    private TinyLfuPolicy policy(long maximum, boolean weighted) {
+        return new TinyLfuPolicy(maximum, weighted, entity -> evicted.add(entity.getKey()));
+    }
+
+    @Test
+    public void sketchCountsUpToFifteen() {
+        FrequencySketch sketch = new FrequencySketch();
+        sketch.ensureCapacity(512);
+        int hash = "hot".hashCode();
+        Assert.assertEquals(0, sketch.frequency(hash));
+        for (int i = 0; i < 5; i++) {
+            sketch.increment(hash);
+        }
+        Assert.assertEquals(5, sketch.frequency(hash));
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(hash);
+        }
+        Assert.assertEquals(15, sketch.frequency(hash));
+    }
+
+    @Test
+    public void sketchHalvesAfterSampleSize() {
+        FrequencySketch sketch = new FrequencySketch();
+        sketch.ensureCapacity(8);
+        int hash = "hot".hashCode();
+        for (int i = 0; i < 8; i++) {
+            sketch.increment(hash);
+        }
+        Assert.assertEquals(8, sketch.frequency(hash));
+        // 采样数为容量的10 倍 达到后全部减半
+        for (int i = 0; i < 80; i++) {
+            sketch.increment(("key" + i).hashCode());
+        }
+        Assert.assertTrue(sketch.frequency(hash) < 8);
+    }
+
+    @Test
+    public void sizeNeverExceedsMaximum() {
+        TinyLfuPolicy policy = policy(100, false);
+        for (int i = 0; i < 1000; i++) {
+            policy.afterWrite(entity("key" + i));
+            Assert.assertTrue(policy.size() <= 100);
+        }
+        Assert.assertEquals(100, policy.size());
+        Assert.assertEquals(900, evicted.size());
+    }
+
+    @Test
+    public void frequentEntriesSurviveScan() {
+        TinyLfuPolicy policy = policy(100, false);
+        List<CacheEntity> hot = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            CacheEntity entity = entity("hot" + i);
+            hot.add(entity);
+            policy.afterWrite(entity);
+        }
+        for (int round = 0; round < 10; round++) {
+            for (CacheEntity entity : hot) {
+                policy.afterRead(entity);
+            }
+            // 写入时消费读缓冲区
+            policy.afterWrite(entity("warm" + round));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            policy.afterWrite(entity("scan" + i));
+        }
+        for (CacheEntity entity : hot) {
+            Assert.assertFalse(entity.getKey(), evicted.contains(entity.getKey()));
+            Assert.assertNotEquals(CacheEntity.QUEUE_DEAD, entity.queueType);
+        }
+        Assert.assertEquals(100, policy.size());
+    }
+
+    @Test
+    public void shrinkMaximumEvicts() {
+        TinyLfuPolicy policy = policy(100, false);
+        for (int i = 0; i < 100; i++) {
+            policy.afterWrite(entity("key" + i));
+        }
+        Assert.assertTrue(evicted.isEmpty());
+        policy.setMaximum(10);
+        Assert.assertEquals(10, policy.size());
+        Assert.assertEquals(90, evicted.size());
+    }
+
+    @Test
+    public void removeUnlinks() {
+        TinyLfuPolicy policy = policy(10, false);
+        CacheEntity entity = entity("key");
+        policy.afterWrite(entity);
+        policy.afterRemove(entity);
+        Assert.assertEquals(0, policy.size());
+        Assert.assertEquals(CacheEntity.QUEUE_DEAD, entity.queueType);
+        // 已经移除的缓存再次写入不会加入队列
+        policy.afterWrite(entity);
+        Assert.assertEquals(0, policy.size());
+    }
+
+    @Test
+    public void weightedEviction() {
+        TinyLfuPolicy policy = policy(100, true);
+        for (int i = 0; i < 20; i++) {
+            CacheEntity entity = entity("key" + i);
+            entity.weight = 10;
+            policy.afterWrite(entity);
+            Assert.assertTrue(policy.weightedSize() <= 100);
+        }
+        Assert.assertEquals(policy.size() * 10, policy.weightedSize());
+        Assert.assertEquals(20 - policy.size(), evicted.size());
+        long weightedSize = policy.weightedSize();
+        CacheEntity large = entity("large");
+        large.weight = 101;
+        policy.afterWrite(large);
+        // 超过最大权重的缓存直接淘汰 不影响其他缓存
+        Assert.assertTrue(evicted.contains("large"));
+        Assert.assertEquals(weightedSize, policy.weightedSize());
+    }
+
+    @Test
+    public void regionBoundedByMaximumSize() {
+        CacheRegion region = new CacheRegion("test", new CacheInfo(null, 60_000), 16);
+        region.setMaximumSize(50);
+        for (int i = 0; i < 500; i++) {
+            region.put("key" + i, i);
+        }
+        Assert.assertEquals(50, region.size());
+        Assert.assertEquals(50, region.getWeightedSize());
+    }
+}
@@ -0,0 +1,101 @@
+package cn.jiangzeyin.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按权重限制缓存容量
+ *
+ * @author jiangzeyin
+ * data 2018/9/12
+ */
+public class WeigherTest {
+    private final DefaultWeigher weigher = new DefaultWeigher();
+
+    @Test
+    public void estimatesCommonTypes() {
+        // 字符串 对象头16 + 24 + 每个字符2
+        Assert.assertEquals(40, weigher.weigh(null, ""));
+        Assert.assertEquals(40 + 200, weigher.weigh(null, new String(new char[100])));
+        Assert.assertEquals(24, weigher.weigh(null, 1L));
+        Assert.assertEquals(16 + 800, weigher.weigh(null, new long[100]));
+        Assert.assertEquals(16 + 100, weigher.weigh(null, new byte[100]));
+        Assert.assertEquals(0, weigher.weigh(null, null));
+        Assert.assertEquals(40 + 40, weigher.weigh("", ""));
+    }
+
+    @Test
+    public void largeCollectionsAreSampled() {
+        List<String> small = new ArrayList<>();
+        List<String> large = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            if (i < 64) {
+                small.add("abcd");
+            }
+            large.add("abcd");
+        }
+        int smallWeight = weigher.weigh(null, small);
+        int largeWeight = weigher.weigh(null, large);
+        // 元素大小相同 按抽样放大后和元素个数成正比
+        long element = (smallWeight - 48) / 64;
+        Assert.assertEquals(48 + element * 10_000, largeWeight);
+        Map<String, Object> map = new HashMap<>();
+        map.put("key", "value");
+        Assert.assertTrue(weigher.weigh(null, map) > weigher.weigh(null, Collections.emptyMap()));
+    }
+
+    @Test
+    public void deepNestingIsBounded() {
+        Object value = "leaf";
+        for (int i = 0; i < 100; i++) {
+            value = Collections.singletonList(value);
+        }
+        Assert.assertTrue(weigher.weigh(null, value) < 1000);
+    }
+
+    @Test
+    public void regionStaysUnderMaximumWeight() {
+        CacheRegion region = new CacheRegion("weight", new CacheInfo(null, 60_000), 16);
+        region.setMaximumWeight(10_000, weigher);
+        String value = new String(new char[100]);
+        for (int i = 0; i < 1000; i++) {
+            region.put("key" + i, value);
+            Assert.assertTrue(region.getWeightedSize() <= 10_000);
+        }
+        Assert.assertTrue(region.size() > 0);
+        Assert.assertTrue(region.size() < 1000);
+        Assert.assertEquals(10_000, region.getMaximumWeight());
+    }
+
+    @Test
+    public void replacementUpdatesWeight() {
+        CacheRegion region = new CacheRegion("weight", new CacheInfo(null, 60_000), 16);
+        region.setMaximumWeight(1_000_000, (key, value) -> ((String) value).length());
+        region.put("key", "12345");
+        Assert.assertEquals(5, region.getWeightedSize());
+        region.put("key", "1234567890");
+        Assert.assertEquals(10, region.getWeightedSize());
+        region.invalidate("key");
+        Assert.assertEquals(0, region.getWeightedSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeWeightIsRejected() {
+        CacheRegion region = new CacheRegion("weight", new CacheInfo(null, 60_000), 16);
+        region.setMaximumWeight(100, (key, value) -> -1);
+        region.put("key", "value");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void sizeAndWeightCannotBeCombined() {
+        CacheRegion region = new CacheRegion("weight", new CacheInfo(null, 60_000), 16);
+        region.setMaximumSize(100);
+        region.setMaximumWeight(100, weigher);
+    }
+}
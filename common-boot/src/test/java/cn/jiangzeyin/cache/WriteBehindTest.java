@@ -0,0 +1,155 @@
+package cn.jiangzeyin.cache;
+
+import cn.jiangzeyin.common.TestLog;
+import cn.jiangzeyin.pool.ThreadPoolService;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 缓存异步批量写入
+ * <p>
+ * 最后一个测试会关闭写入线程池
+ *
+ * @author jiangzeyin
+ * data 2018/9/16
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class WriteBehindTest {
+
+    @BeforeClass
+    public static void init() {
+        TestLog.init();
+    }
+
+    /**
+     * 记录每批写入的数据
+     */
+    private static class RecordWriter implements CacheWriter {
+        private final List<Map<String, Object>> batches = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void write(Map<String, Object> entries) {
+            batches.add(new HashMap<>(entries));
+        }
+
+        int count() {
+            synchronized (batches) {
+                int count = 0;
+                for (Map<String, Object> batch : batches) {
+                    count += batch.size();
+                }
+                return count;
+            }
+        }
+    }
+
+    private static void await(WriteBehind writeBehind, long writeCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writeBehind.getWriteCount() < writeCount && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    @Test
+    public void fullBatchIsWrittenInPool() throws InterruptedException {
+        RecordWriter writer = new RecordWriter();
+        WriteBehind writeBehind = new WriteBehind("test", writer, TimeUnit.HOURS.toMillis(1), 10);
+        for (int i = 0; i < 25; i++) {
+            writeBehind.offer("key" + i, i);
+        }
+        await(writeBehind, 20);
+        Assert.assertEquals(20, writeBehind.getWriteCount());
+        for (Map<String, Object> batch : writer.batches) {
+            Assert.assertEquals(10, batch.size());
+        }
+        // 不满一批的等待间隔
+        Assert.assertEquals(5, writeBehind.getPendingCount());
+        Assert.assertEquals(0, writeBehind.flush());
+        Assert.assertEquals(25, writer.count());
+        Assert.assertEquals(3, writeBehind.getBatchCount());
+    }
+
+    @Test
+    public void intervalWritesPartialBatch() throws InterruptedException {
+        RecordWriter writer = new RecordWriter();
+        WriteBehind writeBehind = new WriteBehind("test", writer, 50, 100);
+        writeBehind.offer("key", 1);
+        writeBehind.tick(CacheClock.currentTimeMillis());
+        Assert.assertEquals(0, writeBehind.getWriteCount());
+        TimeUnit.MILLISECONDS.sleep(60);
+        writeBehind.tick(CacheClock.currentTimeMillis());
+        await(writeBehind, 1);
+        Assert.assertEquals(Collections.singletonMap("key", 1), writer.batches.get(0));
+    }
+
+    @Test
+    public void sameKeyIsCoalesced() {
+        RecordWriter writer = new RecordWriter();
+        CacheRegion region = new CacheRegion("writer", new CacheInfo(null, 60_000), 16);
+        region.setWriter(writer, 1, TimeUnit.HOURS, 100);
+        for (int i = 0; i < 10; i++) {
+            region.put("key", i);
+        }
+        region.merge("key", 100, (old, value) -> (Integer) old + (Integer) value);
+        region.put("other", "value");
+        JSONObject info = region.getStatusInfo().getJSONObject("writer");
+        Assert.assertEquals(2, info.getIntValue("pendingCount"));
+        Assert.assertEquals(0, region.flushWriter());
+        Assert.assertEquals(1, writer.batches.size());
+        Assert.assertEquals(109, writer.batches.get(0).get("key"));
+        Assert.assertEquals("value", writer.batches.get(0).get("other"));
+    }
+
+    @Test
+    public void failedBatchIsRetried() {
+        AtomicBoolean fail = new AtomicBoolean(true);
+        RecordWriter recordWriter = new RecordWriter();
+        WriteBehind writeBehind = new WriteBehind("test", entries -> {
+            if (fail.get()) {
+                throw new IllegalStateException("fail");
+            }
+            recordWriter.write(entries);
+        }, TimeUnit.HOURS.toMillis(1), 100);
+        writeBehind.offer("a", 1);
+        writeBehind.offer("b", 1);
+        Assert.assertEquals(2, writeBehind.flush());
+        Assert.assertEquals(1, writeBehind.getFailureCount());
+        // 失败期间有新值的key 使用新值
+        writeBehind.offer("a", 2);
+        fail.set(false);
+        Assert.assertEquals(0, writeBehind.flush());
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("a", 2);
+        expected.put("b", 1);
+        Assert.assertEquals(expected, recordWriter.batches.get(0));
+        Assert.assertEquals(2, writeBehind.getWriteCount());
+    }
+
+    @Test
+    public void writeAfterPoolShutdownIsKeptForFlush() throws InterruptedException {
+        ThreadPoolService.newCachedThreadPool(WriteBehind.class).shutdown();
+        RecordWriter writer = new RecordWriter();
+        WriteBehind writeBehind = new WriteBehind("test", writer, 10, 5);
+        for (int i = 0; i < 20; i++) {
+            writeBehind.offer("key" + i, i);
+        }
+        TimeUnit.MILLISECONDS.sleep(20);
+        writeBehind.tick(CacheClock.currentTimeMillis());
+        Assert.assertEquals(0, writer.count());
+        Assert.assertEquals(20, writeBehind.getPendingCount());
+        Assert.assertEquals(0, writeBehind.flush());
+        Assert.assertEquals(20, writer.count());
+    }
+}
@@ -0,0 +1,133 @@
+package cn.jiangzeyin.cache.spring;
+
+import cn.jiangzeyin.cache.Cached;
+import cn.jiangzeyin.cache.ObjectCache;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.boot.test.util.EnvironmentTestUtils;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Cached} 注解和CacheManager 注册
+ *
+ * @author jiangzeyin
+ * data 2018/9/15
+ */
+public class CachedTest {
+
+    public static class UserService {
+        private final AtomicInteger callCount = new AtomicInteger();
+
+        @Cached(key = "cached-test-user:{0}")
+        public String getUser(int id) {
+            callCount.incrementAndGet();
+            return "user" + id;
+        }
+
+        @Cached
+        public String find(String name, int age) {
+            callCount.incrementAndGet();
+            return name + age;
+        }
+
+        @Cached(key = "cached-test-error:{0}")
+        public String fail(int id) throws IOException {
+            callCount.incrementAndGet();
+            throw new IOException("fail" + id);
+        }
+
+        public int notCached() {
+            return callCount.incrementAndGet();
+        }
+
+        public int getCallCount() {
+            return callCount.get();
+        }
+    }
+
+    @Configuration
+    public static class ServiceConfiguration {
+        @Bean
+        public UserService userService() {
+            return new UserService();
+        }
+    }
+
+    private static AnnotationConfigApplicationContext context(String... pairs) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        EnvironmentTestUtils.addEnvironment(context, pairs);
+        context.register(CachedConfiguration.class, ServiceConfiguration.class);
+        context.refresh();
+        return context;
+    }
+
+    @Test
+    public void cacheManagerIsOffByDefault() {
+        try (AnnotationConfigApplicationContext context = context()) {
+            Assert.assertTrue(context.getBeansOfType(CacheManager.class).isEmpty());
+        }
+        try (AnnotationConfigApplicationContext context = context("cache.springCacheManager=true")) {
+            Assert.assertTrue(context.getBean(CacheManager.class) instanceof ObjectCacheManager);
+        }
+    }
+
+    @Test
+    public void cachedMethodIsInvokedOnce() {
+        try (AnnotationConfigApplicationContext context = context()) {
+            UserService userService = context.getBean(UserService.class);
+            Assert.assertEquals("user1", userService.getUser(1));
+            Assert.assertEquals("user1", userService.getUser(1));
+            Assert.assertEquals("user2", userService.getUser(2));
+            Assert.assertEquals(2, userService.getCallCount());
+            Assert.assertEquals("user1", ObjectCache.get("cached-test-user:1"));
+            Assert.assertEquals("tom3", userService.find("tom", 3));
+            Assert.assertEquals("tom3", userService.find("tom", 3));
+            Assert.assertEquals(3, userService.getCallCount());
+            Assert.assertEquals(4, userService.notCached());
+            Assert.assertEquals(5, userService.notCached());
+            ObjectCache.invalidate("cached-test-user:1");
+            Assert.assertEquals("user1", userService.getUser(1));
+            Assert.assertEquals(6, userService.getCallCount());
+        }
+    }
+
+    @Test
+    public void checkedExceptionIsRethrown() {
+        try (AnnotationConfigApplicationContext context = context()) {
+            UserService userService = context.getBean(UserService.class);
+            for (int i = 0; i < 2; i++) {
+                try {
+                    userService.fail(1);
+                    Assert.fail();
+                } catch (IOException e) {
+                    Assert.assertEquals("fail1", e.getMessage());
+                }
+            }
+            // 异常不缓存
+            Assert.assertEquals(2, userService.getCallCount());
+        }
+    }
+
+    @Test
+    public void keyTemplate() throws NoSuchMethodException {
+        Method method = UserService.class.getMethod("find", String.class, int.class);
+        Assert.assertEquals("a-tom-3-b", CachedKeyTemplate.compile("a-{0}-{1}-b", method).generate(new Object[]{"tom", 3}));
+        Assert.assertEquals("fixed", CachedKeyTemplate.compile("fixed", method).generate(new Object[]{"tom", 3}));
+        Assert.assertEquals(UserService.class.getName() + ".find:tom,3",
+                CachedKeyTemplate.compile("", method).generate(new Object[]{"tom", 3}));
+        for (String template : new String[]{"a-{2}", "a-{x}", "a-{0"}) {
+            try {
+                CachedKeyTemplate.compile(template, method);
+                Assert.fail(template);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+}
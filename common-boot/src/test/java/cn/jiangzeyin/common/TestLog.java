@@ -0,0 +1,32 @@
+package cn.jiangzeyin.common;
+
+import ch.qos.logback.classic.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+/**
+ * 测试中使用的系统日志 只输出到控制台 不依赖spring 环境
+ *
+ * @author jiangzeyin
+ * data 2018/9/19
+ */
+public final class TestLog {
+    private TestLog() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static synchronized void init() {
+        try {
+            Field field = DefaultSystemLog.class.getDeclaredField("LOG_TYPE_LOGGER_MAP");
+            field.setAccessible(true);
+            Map<DefaultSystemLog.LogType, Logger> map = (Map<DefaultSystemLog.LogType, Logger>) field.get(null);
+            for (DefaultSystemLog.LogType type : DefaultSystemLog.LogType.values()) {
+                map.putIfAbsent(type, (Logger) LoggerFactory.getLogger(type.toString()));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
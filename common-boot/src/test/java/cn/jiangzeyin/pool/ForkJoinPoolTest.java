@@ -0,0 +1,136 @@
+package cn.jiangzeyin.pool;
+
+import cn.jiangzeyin.StringUtil;
+import cn.jiangzeyin.common.TestLog;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 工作窃取线程池
+ *
+ * @author jiangzeyin
+ * data 2018/9/17
+ */
+public class ForkJoinPoolTest {
+
+    @PoolConfig(value = 3, TYPE = PoolType.ForkJoin, asyncMode = true, adaptive = true)
+    public static class ForkJoinConfigPool {
+    }
+
+    @PoolConfig(TYPE = PoolType.ForkJoin)
+    public static class ForkJoinDefaultPool {
+    }
+
+    @BeforeClass
+    public static void init() {
+        TestLog.init();
+    }
+
+    private static JSONObject statusInfo(Class cls) {
+        String name = StringUtil.simplifyClassName(cls.getName());
+        JSONArray jsonArray = ThreadPoolService.getThreadPoolStatusInfo();
+        for (int i = 0; i < jsonArray.size(); i++) {
+            JSONObject jsonObject = jsonArray.getJSONObject(i);
+            if (name.equals(jsonObject.getString("name"))) {
+                return jsonObject;
+            }
+        }
+        throw new AssertionError(name);
+    }
+
+    @Test
+    public void configCreatesForkJoinPool() {
+        ExecutorService executorService = ThreadPoolService.newCachedThreadPool(ForkJoinConfigPool.class);
+        Assert.assertTrue(executorService instanceof ForkJoinPool);
+        ForkJoinPool forkJoinPool = (ForkJoinPool) executorService;
+        Assert.assertEquals(3, forkJoinPool.getParallelism());
+        Assert.assertTrue(forkJoinPool.getAsyncMode());
+        // 同一个class 返回同一个对象
+        Assert.assertSame(executorService, ThreadPoolService.newCachedThreadPool(ForkJoinConfigPool.class));
+
+        ForkJoinPool defaultPool = (ForkJoinPool) ThreadPoolService.newCachedThreadPool(ForkJoinDefaultPool.class);
+        Assert.assertEquals(Runtime.getRuntime().availableProcessors(), defaultPool.getParallelism());
+        Assert.assertFalse(defaultPool.getAsyncMode());
+    }
+
+    @Test
+    public void recursiveTaskRunsOnNamedWorkers() throws Exception {
+        ForkJoinPool forkJoinPool = (ForkJoinPool) ThreadPoolService.newCachedThreadPool(ForkJoinConfigPool.class);
+        Assert.assertEquals(Long.valueOf(5_000_050_000L), forkJoinPool.submit(new SumTask(1, 100_000)).get(10, TimeUnit.SECONDS));
+        String threadName = forkJoinPool.submit(() -> Thread.currentThread().getName()).get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(threadName, threadName.startsWith(ForkJoinConfigPool.class.getName() + "-"));
+    }
+
+    @Test
+    public void statusInfoReportsForkJoinCounters() throws Exception {
+        ForkJoinPool forkJoinPool = (ForkJoinPool) ThreadPoolService.newCachedThreadPool(ForkJoinConfigPool.class);
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            forkJoinPool.execute(() -> {
+                started.countDown();
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        // 所有工作线程都在等待 之后提交的任务排队
+        for (int i = 0; i < 5; i++) {
+            forkJoinPool.execute(() -> {
+            });
+        }
+        try {
+            Assert.assertEquals(5, ThreadPoolService.getPoolQueuedTasks(ForkJoinConfigPool.class));
+            JSONObject jsonObject = statusInfo(ForkJoinConfigPool.class);
+            Assert.assertEquals(PoolType.ForkJoin.name(), jsonObject.getString("poolType"));
+            Assert.assertEquals(3, jsonObject.getIntValue("parallelism"));
+            Assert.assertTrue(jsonObject.getBooleanValue("asyncMode"));
+            Assert.assertEquals(5, jsonObject.getIntValue("queueSize"));
+            Assert.assertTrue(jsonObject.getIntValue("activeCount") >= 3);
+            // 没有拒绝策略
+            Assert.assertEquals(0, jsonObject.getIntValue("rejectedExecutionCount"));
+            Assert.assertFalse(jsonObject.containsKey("adaptive"));
+        } finally {
+            latch.countDown();
+        }
+        Assert.assertTrue(forkJoinPool.awaitQuiescence(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, ThreadPoolService.getPoolQueuedTasks(ForkJoinConfigPool.class));
+    }
+
+    private static class SumTask extends RecursiveTask<Long> {
+        private final long from;
+        private final long to;
+
+        SumTask(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= 1000) {
+                long sum = 0;
+                for (long i = from; i <= to; i++) {
+                    sum += i;
+                }
+                return sum;
+            }
+            long middle = (from + to) >>> 1;
+            SumTask left = new SumTask(from, middle);
+            left.fork();
+            return new SumTask(middle + 1, to).compute() + left.join();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package cn.jiangzeyin.pool;
+
+import cn.jiangzeyin.common.TestLog;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 哈希时间轮定时任务 一圈4 格 每格10 毫秒
+ *
+ * @author jiangzeyin
+ * data 2018/9/18
+ */
+public class HashedWheelSchedulerTest {
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final HashedWheelScheduler scheduler = new HashedWheelScheduler("test", executorService, 10, 4);
+
+    @PoolConfig(value = 1, maximumPoolSize = 1, QUEUE = QueueType.Synchronous, HANDLER = PolicyHandler.Discard)
+    public static class DiscardPool {
+    }
+
+    @BeforeClass
+    public static void init() {
+        TestLog.init();
+    }
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void ticksPerWheelIsRoundedToPowerOfTwo() {
+        Assert.assertEquals(4, scheduler.getStatusInfo().getIntValue("ticksPerWheel"));
+        HashedWheelScheduler wheel = new HashedWheelScheduler("test", executorService, 10, 5);
+        Assert.assertEquals(8, wheel.getStatusInfo().getIntValue("ticksPerWheel"));
+        wheel.shutdownNow();
+    }
+
+    @Test
+    public void timersSpanningRoundsNeverFireEarly() throws Exception {
+        long[] delays = {5, 35, 45, 85, 150, 230};
+        AtomicLong[] fired = new AtomicLong[delays.length];
+        ScheduledFuture<?>[] futures = new ScheduledFuture[delays.length];
+        long start = System.nanoTime();
+        for (int i = delays.length - 1; i >= 0; i--) {
+            AtomicLong time = fired[i] = new AtomicLong();
+            futures[i] = scheduler.schedule(() -> time.set(System.nanoTime()), delays[i], TimeUnit.MILLISECONDS);
+        }
+        Assert.assertEquals(delays.length, scheduler.getPendingCount());
+        for (int i = 0; i < delays.length; i++) {
+            futures[i].get(5, TimeUnit.SECONDS);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(fired[i].get() - start);
+            // 超过一圈的任务等剩余圈数减到0 才执行
+            Assert.assertTrue(delays[i] + " " + elapsed, elapsed >= delays[i]);
+            Assert.assertTrue(delays[i] + " " + elapsed, elapsed < delays[i] + 1000);
+        }
+        Assert.assertEquals(0, scheduler.getPendingCount());
+        Assert.assertEquals(delays.length, scheduler.getStatusInfo().getLongValue("expiredCount"));
+    }
+
+    @Test
+    public void cancelledTimerDoesNotRun() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        ScheduledFuture<?> future = scheduler.schedule(count::incrementAndGet, 100, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> other = scheduler.schedule(count::incrementAndGet, 150, TimeUnit.MILLISECONDS);
+        // 等加入时间轮后再取消
+        TimeUnit.MILLISECONDS.sleep(30);
+        Assert.assertTrue(future.cancel(false));
+        Assert.assertTrue(future.isCancelled());
+        other.get(5, TimeUnit.SECONDS);
+        TimeUnit.MILLISECONDS.sleep(50);
+        Assert.assertEquals(1, count.get());
+        Assert.assertEquals(0, scheduler.getPendingCount());
+        // 加入时间轮之前取消
+        ScheduledFuture<?> pending = scheduler.schedule(count::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(pending.cancel(false));
+        TimeUnit.MILLISECONDS.sleep(50);
+        Assert.assertEquals(1, count.get());
+        Assert.assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void fixedRateRepeatsUntilCancelled() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(5);
+        ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(() -> {
+            count.incrementAndGet();
+            latch.countDown();
+        }, 0, 20, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        future.cancel(false);
+        TimeUnit.MILLISECONDS.sleep(50);
+        int runs = count.get();
+        TimeUnit.MILLISECONDS.sleep(100);
+        Assert.assertEquals(runs, count.get());
+    }
+
+    @Test
+    public void callerRunsRejectionFailsTimerOffWheelThread() throws Exception {
+        // 唯一的线程被占用 调用者执行策略会在提交线程中执行
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        HashedWheelScheduler wheel = new HashedWheelScheduler("test", executor, 10, 4);
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            AtomicReference<String> thread = new AtomicReference<>();
+            ScheduledFuture<?> future = wheel.schedule(() -> thread.set(Thread.currentThread().getName()), 10, TimeUnit.MILLISECONDS);
+            assertRejected(future);
+            Assert.assertNull(thread.get());
+            Assert.assertEquals(1, wheel.getStatusInfo().getLongValue("rejectedCount"));
+        } finally {
+            latch.countDown();
+            wheel.shutdownNow();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void poolPolicyIsNotUsedForTimers() throws Exception {
+        ScheduledExecutorService scheduledPool = ThreadPoolService.newScheduledPool(DiscardPool.class);
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        ThreadPoolService.newCachedThreadPool(DiscardPool.class).execute(() -> {
+            started.countDown();
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            // 丢弃策略不会让任务一直等待
+            assertRejected(scheduledPool.schedule(() -> "value", 10, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(1, ThreadPoolService.getPoolRejectedExecutionCount(DiscardPool.class));
+        } finally {
+            latch.countDown();
+        }
+        Assert.assertEquals("value", scheduledPool.schedule(() -> "value", 10, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shutdownCancelsPendingTimers() throws Exception {
+        ScheduledFuture<?> future = scheduler.schedule(() -> {
+        }, 1, TimeUnit.MINUTES);
+        TimeUnit.MILLISECONDS.sleep(30);
+        List<Runnable> unprocessed = scheduler.shutdownNow();
+        Assert.assertEquals(1, unprocessed.size());
+        Assert.assertTrue(future.isCancelled());
+        Assert.assertTrue(scheduler.isTerminated());
+        try {
+            scheduler.schedule(() -> {
+            }, 1, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    private static void assertRejected(ScheduledFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
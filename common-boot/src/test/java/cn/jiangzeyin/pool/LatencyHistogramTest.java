@@ -0,0 +1,88 @@
+package cn.jiangzeyin.pool;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 耗时直方图的桶计算和分位数
+ *
+ * @author jiangzeyin
+ * data 2018/9/18
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        for (int i = 0; i < 128; i++) {
+            Assert.assertEquals(i, LatencyHistogram.indexOf(i));
+            Assert.assertEquals(i, LatencyHistogram.valueOf(i));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguousAtPowersOfTwo() {
+        // 每翻一倍64 个桶
+        Assert.assertEquals(128, LatencyHistogram.indexOf(128));
+        Assert.assertEquals(128, LatencyHistogram.indexOf(129));
+        Assert.assertEquals(191, LatencyHistogram.indexOf(255));
+        Assert.assertEquals(192, LatencyHistogram.indexOf(256));
+        Assert.assertEquals(255, LatencyHistogram.indexOf(511));
+        Assert.assertEquals(256, LatencyHistogram.indexOf(512));
+        for (int bits = 7; bits < 40; bits++) {
+            long power = 1L << bits;
+            Assert.assertEquals(LatencyHistogram.indexOf(power - 1) + 1, LatencyHistogram.indexOf(power));
+        }
+    }
+
+    @Test
+    public void indexIsMonotonicWithBoundedError() {
+        int last = -1;
+        for (long value = 0; value < 1 << 20; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            Assert.assertTrue(index == last || index == last + 1);
+            last = index;
+            if (value >= 128) {
+                // 桶的中间值和实际值的相对误差不超过1/128
+                long middle = LatencyHistogram.valueOf(index);
+                Assert.assertTrue(value + " " + middle, Math.abs(middle - value) * 128 <= value);
+            }
+        }
+    }
+
+    @Test
+    public void maximumValueFitsLastBucket() {
+        int index = LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE);
+        long middle = LatencyHistogram.valueOf(index);
+        Assert.assertTrue(middle <= LatencyHistogram.MAX_VALUE);
+        Assert.assertTrue(middle > LatencyHistogram.MAX_VALUE / 2);
+        // 负数和超过最大值的耗时不会越界
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+        JSONObject jsonObject = histogram.getStatusInfo();
+        Assert.assertEquals(2, jsonObject.getLongValue("count"));
+        Assert.assertEquals(0, jsonObject.getDoubleValue("p50"), 0);
+        Assert.assertEquals(middle / 1000D, jsonObject.getDoubleValue("max"), 0);
+    }
+
+    @Test
+    public void percentilesUseBucketMiddle() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        JSONObject empty = histogram.getStatusInfo();
+        Assert.assertEquals(0, empty.getLongValue("count"));
+        Assert.assertEquals(0, empty.getDoubleValue("p99"), 0);
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        JSONObject jsonObject = histogram.getStatusInfo();
+        Assert.assertEquals(1000, jsonObject.getLongValue("count"));
+        Assert.assertEquals(0.5005, jsonObject.getDoubleValue("mean"), 0.0001);
+        Assert.assertEquals(0.5, jsonObject.getDoubleValue("p50"), 0.5 / 64);
+        Assert.assertEquals(0.99, jsonObject.getDoubleValue("p99"), 0.99 / 64);
+        Assert.assertEquals(0.999, jsonObject.getDoubleValue("p999"), 0.999 / 64);
+        Assert.assertEquals(1.0, jsonObject.getDoubleValue("max"), 1.0 / 64);
+    }
+}
@@ -0,0 +1,164 @@
+package cn.jiangzeyin.pool;
+
+import cn.jiangzeyin.common.TestLog;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线程池自动调整核心数 手动传入采样时间和任务数
+ *
+ * @author jiangzeyin
+ * data 2018/9/17
+ */
+public class PoolSizeControllerTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final StubExecutor executor = new StubExecutor(2, 16);
+    private final PoolSizeController controller = new PoolSizeController("test", executor, 2, 16);
+    private long now;
+
+    @BeforeClass
+    public static void init() {
+        TestLog.init();
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 模拟一秒内到达和完成的任务
+     */
+    private void second(long tasks, long runMillis) {
+        executor.taskCount += tasks;
+        executor.completedTaskCount += tasks;
+        for (long i = 0; i < tasks; i++) {
+            controller.afterExecute(TimeUnit.MILLISECONDS.toNanos(runMillis));
+        }
+        now += SECOND;
+        controller.sample(now);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unboundedMaximumIsRejected() {
+        new PoolSizeController("test", executor, 2, Integer.MAX_VALUE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximumMustExceedCore() {
+        new PoolSizeController("test", executor, 2, 2);
+    }
+
+    @Test
+    public void growthFollowsLittlesLawAndAtMostDoubles() {
+        // 100/s * 50ms / 0.8 = 6.25 需要7 个线程 每次最多翻倍
+        second(100, 50);
+        Assert.assertEquals(4, executor.getCorePoolSize());
+        second(100, 50);
+        Assert.assertEquals(7, executor.getCorePoolSize());
+        second(100, 50);
+        Assert.assertEquals(7, executor.getCorePoolSize());
+        JSONObject jsonObject = controller.getStatusInfo();
+        Assert.assertEquals(2, jsonObject.getIntValue("resizeCount"));
+        Assert.assertEquals(100, jsonObject.getDoubleValue("throughput"), 0.001);
+        Assert.assertEquals(50, jsonObject.getDoubleValue("averageRunMillis"), 0.001);
+        Assert.assertTrue(jsonObject.getString("lastResize").startsWith("4 -> 7"));
+    }
+
+    @Test
+    public void growthIsCappedAtMaximum() {
+        for (int i = 0; i < 5; i++) {
+            second(1000, 100);
+        }
+        Assert.assertEquals(16, executor.getCorePoolSize());
+    }
+
+    @Test
+    public void shrinkNeedsConsecutiveSamples() {
+        executor.setCorePoolSize(8);
+        second(10, 10);
+        second(10, 10);
+        Assert.assertEquals(8, executor.getCorePoolSize());
+        // 第三次才减少 每次减少差值的一半
+        second(10, 10);
+        Assert.assertEquals(5, executor.getCorePoolSize());
+        second(10, 10);
+        second(10, 10);
+        second(10, 10);
+        Assert.assertEquals(4, executor.getCorePoolSize());
+    }
+
+    @Test
+    public void shrinkCountResetsWhenLoadReturns() {
+        executor.setCorePoolSize(7);
+        second(10, 10);
+        second(10, 10);
+        // 7 个线程刚好满足
+        second(100, 50);
+        second(10, 10);
+        second(10, 10);
+        Assert.assertEquals(7, executor.getCorePoolSize());
+    }
+
+    @Test
+    public void backlogWithoutCompletionDoubles() {
+        for (int i = 0; i < 5; i++) {
+            executor.getQueue().offer(() -> {
+            });
+        }
+        now += SECOND;
+        controller.sample(now);
+        Assert.assertEquals(4, executor.getCorePoolSize());
+    }
+
+    @Test
+    public void neverShrinksBelowMinimum() {
+        for (int i = 0; i < 10; i++) {
+            second(0, 0);
+        }
+        Assert.assertEquals(2, executor.getCorePoolSize());
+        Assert.assertEquals(0, controller.getStatusInfo().getIntValue("resizeCount"));
+    }
+
+    /**
+     * 任务数由测试设置 不实际执行任务
+     */
+    private static class StubExecutor extends ThreadPoolExecutor {
+        private long taskCount;
+        private long completedTaskCount;
+
+        StubExecutor(int corePoolSize, int maximumPoolSize) {
+            super(corePoolSize, maximumPoolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        }
+
+        @Override
+        public long getTaskCount() {
+            return taskCount;
+        }
+
+        @Override
+        public long getCompletedTaskCount() {
+            return completedTaskCount;
+        }
+
+        @Override
+        public int getPoolSize() {
+            return getCorePoolSize();
+        }
+
+        @Override
+        public void setCorePoolSize(int corePoolSize) {
+            // 队列不为空时增加核心数会启动线程 采样已经读取了队列长度
+            getQueue().clear();
+            super.setCorePoolSize(corePoolSize);
+        }
+    }
+}
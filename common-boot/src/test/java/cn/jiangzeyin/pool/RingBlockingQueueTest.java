@@ -0,0 +1,199 @@
+package cn.jiangzeyin.pool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 无锁环形队列
+ *
+ * @author jiangzeyin
+ * data 2018/9/17
+ */
+public class RingBlockingQueueTest {
+
+    @Test
+    public void capacityIsRoundedToPowerOfTwo() {
+        RingBlockingQueue<Integer> queue = new RingBlockingQueue<>(5);
+        Assert.assertEquals(8, queue.remainingCapacity());
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        Assert.assertFalse(queue.offer(8));
+        Assert.assertEquals(8, queue.size());
+        Assert.assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    public void singleCapacityDoesNotOverwrite() {
+        RingBlockingQueue<Integer> queue = new RingBlockingQueue<>(1);
+        // 最少两个槽位
+        Assert.assertEquals(2, queue.remainingCapacity());
+        Assert.assertTrue(queue.offer(1));
+        Assert.assertTrue(queue.offer(2));
+        Assert.assertFalse(queue.offer(3));
+        Assert.assertEquals(Integer.valueOf(1), queue.poll());
+        Assert.assertEquals(Integer.valueOf(2), queue.poll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCapacityIsRejected() {
+        new RingBlockingQueue<>(0);
+    }
+
+    @Test
+    public void fifoAcrossWrapAround() {
+        RingBlockingQueue<Integer> queue = new RingBlockingQueue<>(4);
+        Assert.assertNull(queue.poll());
+        Assert.assertNull(queue.peek());
+        Assert.assertTrue(queue.isEmpty());
+        // 多次绕回后槽位序号仍然正确
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(queue.offer(i));
+            Assert.assertTrue(queue.offer(i + 1000));
+            Assert.assertEquals(Integer.valueOf(i), queue.peek());
+            Assert.assertEquals(Integer.valueOf(i), queue.poll());
+            Assert.assertEquals(Integer.valueOf(i + 1000), queue.poll());
+        }
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullIsRejected() {
+        new RingBlockingQueue<>(4).offer(null);
+    }
+
+    @Test
+    public void drainToMovesInOrder() {
+        RingBlockingQueue<Integer> queue = new RingBlockingQueue<>(8);
+        for (int i = 0; i < 6; i++) {
+            queue.offer(i);
+        }
+        List<Integer> list = new ArrayList<>();
+        Assert.assertEquals(2, queue.drainTo(list, 2));
+        Assert.assertEquals(4, queue.drainTo(list));
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), list);
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void iteratorIsSnapshotWithoutRemove() {
+        RingBlockingQueue<Integer> queue = new RingBlockingQueue<>(8);
+        queue.offer(1);
+        queue.offer(2);
+        Iterator<Integer> iterator = queue.iterator();
+        queue.offer(3);
+        Assert.assertEquals(Integer.valueOf(1), iterator.next());
+        try {
+            iterator.remove();
+            Assert.fail();
+        } catch (UnsupportedOperationException ignored) {
+        }
+        Assert.assertEquals(Integer.valueOf(2), iterator.next());
+        Assert.assertFalse(iterator.hasNext());
+        Assert.assertFalse(queue.remove(1));
+        Assert.assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void timedOfferAndPollWait() throws InterruptedException {
+        RingBlockingQueue<Integer> queue = new RingBlockingQueue<>(2);
+        Assert.assertNull(queue.poll(20, TimeUnit.MILLISECONDS));
+        queue.put(0);
+        queue.put(1);
+        Assert.assertFalse(queue.offer(2, 20, TimeUnit.MILLISECONDS));
+        Thread consumer = new Thread(() -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+                queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        // 等待消费后唤醒
+        Assert.assertTrue(queue.offer(2, 5, TimeUnit.SECONDS));
+        consumer.join();
+        Assert.assertEquals(Integer.valueOf(1), queue.take());
+        Assert.assertEquals(Integer.valueOf(2), queue.take());
+    }
+
+    @Test
+    public void concurrentProducersAndConsumers() throws Exception {
+        int producers = 4;
+        int perProducer = 50_000;
+        RingBlockingQueue<Integer> queue = new RingBlockingQueue<>(64);
+        AtomicIntegerArray seen = new AtomicIntegerArray(producers * perProducer);
+        ExecutorService executorService = Executors.newFixedThreadPool(producers * 2);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int base = p * perProducer;
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.put(base + i);
+                    }
+                    return null;
+                }));
+            }
+            for (int c = 0; c < producers; c++) {
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        seen.incrementAndGet(queue.take());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        // 每个元素只被取出一次
+        for (int i = 0; i < seen.length(); i++) {
+            Assert.assertEquals(1, seen.get(i));
+        }
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void poolRemoveAndPurgeAreNotSupported() throws InterruptedException {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new RingBlockingQueue<>(4));
+        try {
+            Object lock = new Object();
+            synchronized (lock) {
+                executor.execute(() -> {
+                    synchronized (lock) {
+                        lock.notifyAll();
+                    }
+                });
+                Runnable queued = () -> {
+                };
+                executor.execute(queued);
+                Assert.assertFalse(executor.remove(queued));
+                // 取消的任务需要通过迭代器删除
+                Assert.assertTrue(executor.submit(queued).cancel(false));
+                try {
+                    executor.purge();
+                    Assert.fail();
+                } catch (UnsupportedOperationException ignored) {
+                }
+            }
+        } finally {
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+}
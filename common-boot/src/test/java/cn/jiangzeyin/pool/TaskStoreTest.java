@@ -0,0 +1,227 @@
+package cn.jiangzeyin.pool;
+
+import cn.jiangzeyin.common.TestLog;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 关闭时保存没有执行的任务 下次启动时重新执行
+ *
+ * @author jiangzeyin
+ * data 2018/9/18
+ */
+public class TaskStoreTest {
+    private static final AtomicInteger COUNT = new AtomicInteger();
+    private static volatile CountDownLatch replayed;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @PoolConfig(value = 1, maximumPoolSize = 1, QUEUE = QueueType.Linked, queueMaxSize = 10, shutdownTimeout = 1, persistOnShutdown = true)
+    public static class PersistPool {
+    }
+
+    @PoolConfig(value = 1, maximumPoolSize = 1, QUEUE = QueueType.Linked, queueMaxSize = 10, shutdownTimeout = 1)
+    public static class NoPersistPool {
+    }
+
+    @PoolConfig(value = 1, maximumPoolSize = 1, QUEUE = QueueType.Linked, queueMaxSize = 1, HANDLER = PolicyHandler.Abort)
+    public static class AbortPool {
+    }
+
+    public static class NoConfigPool {
+    }
+
+    public static class CountTask implements Runnable, Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int value;
+
+        CountTask(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public void run() {
+            COUNT.addAndGet(value);
+            CountDownLatch latch = replayed;
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+    }
+
+    @BeforeClass
+    public static void init() {
+        TestLog.init();
+    }
+
+    @Before
+    public void reset() {
+        COUNT.set(0);
+        replayed = null;
+    }
+
+    @Test
+    public void saveSkipsUnserializableAndAppends() throws Exception {
+        File directory = new File(folder.getRoot(), "tasks");
+        Assert.assertEquals(2, TaskStore.save(directory, PersistPool.class, Arrays.asList(new CountTask(1), () -> {
+        }, new CountTask(2))));
+        Assert.assertEquals(1, TaskStore.save(directory, PersistPool.class, Arrays.asList(new CountTask(4))));
+        // 没有可以保存的任务时不创建文件
+        Assert.assertEquals(0, TaskStore.save(directory, NoPersistPool.class, Arrays.asList(() -> {
+        })));
+        Assert.assertFalse(new File(directory, NoPersistPool.class.getName() + ".tasks").exists());
+
+        replayed = new CountDownLatch(3);
+        Assert.assertEquals(3, ThreadPoolService.replayStoredTasks(directory));
+        Assert.assertTrue(replayed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(7, COUNT.get());
+        // 执行后删除文件
+        Assert.assertEquals(0, ThreadPoolService.replayStoredTasks(directory));
+    }
+
+    @Test
+    public void replaySkipsUnknownPoolAndCorruptedTask() throws Exception {
+        File directory = folder.getRoot();
+        File unknown = new File(directory, "cn.jiangzeyin.pool.MissingPool.tasks");
+        Assert.assertTrue(unknown.createNewFile());
+        // 没有线程池配置的类不读取
+        Assert.assertEquals(1, TaskStore.save(directory, NoConfigPool.class, Arrays.asList(new CountTask(8))));
+        Assert.assertEquals(1, TaskStore.save(directory, PersistPool.class, Arrays.asList(new CountTask(1))));
+        // 可序列化的lambda 不在允许的类中
+        Assert.assertEquals(1, TaskStore.save(directory, PersistPool.class, Arrays.asList((Runnable & Serializable) () -> COUNT.addAndGet(100))));
+        try (DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(new File(directory, PersistPool.class.getName() + ".tasks"), true))) {
+            outputStream.writeInt(3);
+            outputStream.write(new byte[]{1, 2, 3});
+            // 长度超过文件剩余字节
+            outputStream.writeInt(Integer.MAX_VALUE);
+            outputStream.write(new byte[]{1, 2, 3});
+        }
+        replayed = new CountDownLatch(1);
+        Assert.assertEquals(1, ThreadPoolService.replayStoredTasks(directory));
+        Assert.assertTrue(replayed.await(5, TimeUnit.SECONDS));
+        TimeUnit.MILLISECONDS.sleep(50);
+        Assert.assertEquals(1, COUNT.get());
+        // 没有对应线程池的文件保留
+        Assert.assertTrue(unknown.exists());
+        Assert.assertTrue(new File(directory, NoConfigPool.class.getName() + ".tasks").exists());
+        Assert.assertEquals(0, ThreadPoolService.replayStoredTasks(new File(directory, "none")));
+    }
+
+    @Test
+    public void rejectedTasksAreSavedAgain() throws Exception {
+        File directory = folder.getRoot();
+        Assert.assertEquals(3, TaskStore.save(directory, AbortPool.class, Arrays.asList(new CountTask(1), new CountTask(2), new CountTask(4))));
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        ThreadPoolService.newCachedThreadPool(AbortPool.class).execute(() -> {
+            started.countDown();
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        try {
+            // 唯一的线程被占用 队列只能放一个任务 其余两个被拒绝
+            Assert.assertEquals(1, ThreadPoolService.replayStoredTasks(directory));
+            Assert.assertTrue(new File(directory, AbortPool.class.getName() + ".tasks").exists());
+        } finally {
+            latch.countDown();
+        }
+        int count = 1;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (count < 3 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+            count += ThreadPoolService.replayStoredTasks(directory);
+        }
+        Assert.assertEquals(3, count);
+        deadline = System.currentTimeMillis() + 5000;
+        while (COUNT.get() < 7 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        Assert.assertEquals(7, COUNT.get());
+        ThreadPoolService.shutdown(AbortPool.class, null);
+    }
+
+    @Test
+    public void drainPersistsQueuedTasksAfterTimeout() throws Exception {
+        File directory = folder.getRoot();
+        blockAndQueue(PersistPool.class);
+        // 等待1 秒后中断正在执行的任务 队列中的任务保存
+        Assert.assertEquals(4, ThreadPoolService.shutdown(PersistPool.class, directory));
+        Assert.assertEquals(0, COUNT.get());
+        Assert.assertTrue(new File(directory, PersistPool.class.getName() + ".tasks").exists());
+
+        replayed = new CountDownLatch(3);
+        Assert.assertEquals(3, ThreadPoolService.replayStoredTasks(directory));
+        Assert.assertTrue(replayed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, COUNT.get());
+        ThreadPoolService.shutdown(PersistPool.class, null);
+    }
+
+    @Test
+    public void drainWithoutPersistOnlyCountsRemaining() throws Exception {
+        File directory = folder.getRoot();
+        blockAndQueue(NoPersistPool.class);
+        Assert.assertEquals(4, ThreadPoolService.shutdown(NoPersistPool.class, directory));
+        Assert.assertEquals(0, TaskStore.replay(directory));
+    }
+
+    @Test
+    public void drainWithoutConfigReportsUnfinishedTasks() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        ThreadPoolService.newCachedThreadPool(NoConfigPool.class).execute(() -> {
+            started.countDown();
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        try {
+            // 不等待 正在执行的任务计入剩余任务
+            Assert.assertEquals(1, ThreadPoolService.shutdown(NoConfigPool.class, folder.newFolder()));
+        } finally {
+            latch.countDown();
+        }
+        Assert.assertEquals(0, ThreadPoolService.shutdown(NoConfigPool.class, null));
+    }
+
+    /**
+     * 唯一的线程被占用 队列中三个可以序列化的任务和一个不能序列化的任务
+     */
+    private static void blockAndQueue(Class poolClass) throws InterruptedException {
+        ExecutorService executorService = ThreadPoolService.newCachedThreadPool(poolClass);
+        CountDownLatch started = new CountDownLatch(1);
+        executorService.execute(() -> {
+            started.countDown();
+            try {
+                TimeUnit.MINUTES.sleep(1);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        executorService.execute(new CountTask(1));
+        executorService.execute(new CountTask(1));
+        executorService.execute(() -> COUNT.addAndGet(100));
+        executorService.execute(new CountTask(1));
+    }
+}
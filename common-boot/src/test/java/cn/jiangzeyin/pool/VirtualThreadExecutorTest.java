@@ -0,0 +1,184 @@
+package cn.jiangzeyin.pool;
+
+import cn.jiangzeyin.common.TestLog;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 虚拟线程池 不支持的jdk 使用普通线程池 执行器本身使用普通线程工厂测试
+ *
+ * @author jiangzeyin
+ * data 2018/9/17
+ */
+public class VirtualThreadExecutorTest {
+
+    @PoolConfig(TYPE = PoolType.Virtual, maximumPoolSize = 2)
+    public static class VirtualPool {
+    }
+
+    @BeforeClass
+    public static void init() {
+        TestLog.init();
+    }
+
+    private static boolean supportVirtualThread() {
+        String version = System.getProperty("java.specification.version");
+        return !version.startsWith("1.") && Integer.parseInt(version) >= 21;
+    }
+
+    private static VirtualThreadExecutor newExecutor(int maximumPoolSize, int queueSize) {
+        return new VirtualThreadExecutor(maximumPoolSize, new LinkedBlockingQueue<>(queueSize), Executors.defaultThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy(), new LatencyHistogram(), new LatencyHistogram());
+    }
+
+    @Test
+    public void factoryMatchesJdk() {
+        Assert.assertEquals(supportVirtualThread(), VirtualThreadExecutor.virtualThreadFactory() != null);
+    }
+
+    @Test
+    public void virtualPoolFallsBackToExecutor() throws Exception {
+        ExecutorService executorService = ThreadPoolService.newCachedThreadPool(VirtualPool.class);
+        // 不支持时使用普通线程池
+        Assert.assertEquals(supportVirtualThread(), executorService instanceof VirtualThreadExecutor);
+        Assert.assertEquals("ok", executorService.submit(() -> "ok").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void concurrencyIsBoundedBySemaphore() throws InterruptedException {
+        VirtualThreadExecutor executor = newExecutor(2, 100);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertTrue(maxRunning.get() <= 2);
+        Assert.assertEquals(20, executor.getTaskCount());
+        Assert.assertEquals(20, executor.getCompletedTaskCount());
+        Assert.assertEquals(0, executor.getPoolSize());
+        Assert.assertTrue(executor.getLargestPoolSize() >= 2);
+    }
+
+    @Test
+    public void fullQueueAndShutdownAreRejected() throws InterruptedException {
+        VirtualThreadExecutor executor = newExecutor(1, 1);
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        while (executor.getActiveCount() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        AtomicInteger count = new AtomicInteger();
+        executor.execute(count::incrementAndGet);
+        try {
+            executor.execute(count::incrementAndGet);
+            Assert.fail();
+        } catch (RejectedExecutionException ignored) {
+        }
+        latch.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.isShutdown());
+        try {
+            executor.execute(count::incrementAndGet);
+            Assert.fail();
+        } catch (RejectedExecutionException ignored) {
+        }
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertTrue(executor.isTerminated());
+        Assert.assertEquals(1, count.get());
+    }
+
+    @Test
+    public void shutdownNowReturnsQueuedTasks() throws InterruptedException {
+        VirtualThreadExecutor executor = newExecutor(1, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger interrupted = new AtomicInteger();
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                TimeUnit.SECONDS.sleep(10);
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Runnable queued = () -> {
+        };
+        executor.execute(queued);
+        Assert.assertTrue(executor.remove(queued));
+        executor.execute(queued);
+        List<Runnable> tasks = executor.shutdownNow();
+        // 返回提交的原任务
+        Assert.assertEquals(1, tasks.size());
+        Assert.assertSame(queued, tasks.get(0));
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, interrupted.get());
+    }
+
+    @Test
+    public void shutdownDuringEnqueueWaitsForAcceptedTask() throws Exception {
+        CountDownLatch offered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // 任务入队后暂停 模拟入队和计数之间执行关闭
+        LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>() {
+            @Override
+            public boolean offer(Runnable runnable) {
+                boolean offer = super.offer(runnable);
+                offered.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return offer;
+            }
+        };
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(1, queue, Executors.defaultThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy(), new LatencyHistogram(), new LatencyHistogram());
+        AtomicInteger ran = new AtomicInteger();
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> execute = callers.submit(() -> executor.execute(ran::incrementAndGet));
+            Assert.assertTrue(offered.await(5, TimeUnit.SECONDS));
+            Future<?> shutdown = callers.submit(executor::shutdown);
+            TimeUnit.MILLISECONDS.sleep(50);
+            // 已经入队的任务没有执行 不能终止
+            Assert.assertFalse(executor.isTerminated());
+            release.countDown();
+            execute.get(5, TimeUnit.SECONDS);
+            shutdown.get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, ran.get());
+            Assert.assertTrue(queue.isEmpty());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+}
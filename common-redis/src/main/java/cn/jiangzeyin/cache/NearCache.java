@@ -0,0 +1,188 @@
+package cn.jiangzeyin.cache;
+
+import cn.jiangzeyin.common.DefaultSystemLog;
+import cn.jiangzeyin.redis.RedisCacheManagerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.UUID;
+
+/**
+ * redis 近端缓存
+ * <p>
+ * 开启后{@link RedisObjectCache#get(String, int)} 先读取本地的{@link CacheRegion} 不存在时再读取redis
+ * {@link RedisObjectCache} 的set、delete、expire 会删除本地缓存 并通过redis 频道通知其他节点删除
+ * <p>
+ * 所有写入redis 的节点都需要开启 否则其他节点收不到通知 只能等待本地缓存过期
+ *
+ * @author jiangzeyin
+ * data 2018/9/13
+ * @since 1.1.24
+ */
+@CacheConfig(value = 60, maximumSize = 10000)
+public final class NearCache {
+    /**
+     * 通知频道 不能是public 否则会被{@link ObjectCache#config(Class)} 当做缓存key
+     */
+    private static final String CHANNEL = "common-boot:near-cache:invalidate";
+    /**
+     * 当前节点id 忽略自己发送的通知
+     */
+    private static final String NODE_ID = UUID.randomUUID().toString();
+    private static final String SEPARATOR = "\n";
+    private static volatile CacheRegion cacheRegion;
+    private static RedisMessageListenerContainer listenerContainer;
+    /**
+     * 发送通知的模板 和监听使用同一个连接工厂
+     */
+    private static volatile RedisTemplate<String, Object> channelTemplate;
+
+    private NearCache() {
+    }
+
+    /**
+     * 使用默认配置开启 本地缓存60秒 最多10000条
+     *
+     * @throws IllegalAccessException e
+     */
+    public static void enable() throws IllegalAccessException {
+        enable(NearCache.class);
+    }
+
+    /**
+     * 开启近端缓存
+     *
+     * @param cls 本地缓存的配置类 通过{@link CacheConfig} 配置缓存时间和容量
+     * @throws IllegalAccessException e
+     */
+    public static synchronized void enable(Class cls) throws IllegalAccessException {
+        RedisTemplate<String, Object> redisTemplate = channelTemplate;
+        if (listenerContainer == null) {
+            redisTemplate = RedisCacheManagerFactory.getRedisTemplate(RedisCacheConfig.getDefaultDatabase());
+            RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+            container.setConnectionFactory(redisTemplate.getConnectionFactory());
+            container.addMessageListener(new InvalidateListener(redisTemplate), new ChannelTopic(CHANNEL));
+            container.afterPropertiesSet();
+            container.start();
+            listenerContainer = container;
+        }
+        enable(cls, redisTemplate);
+    }
+
+    /**
+     * 开启近端缓存
+     *
+     * @param cls           本地缓存的配置类
+     * @param redisTemplate 发送通知的模板 需要和监听使用同一个连接工厂
+     * @throws IllegalAccessException e
+     */
+    static synchronized void enable(Class cls, RedisTemplate<String, Object> redisTemplate) throws IllegalAccessException {
+        ObjectCache.config(cls);
+        CacheRegion region = ObjectCache.region(cls);
+        channelTemplate = redisTemplate;
+        if (cacheRegion != null && cacheRegion != region) {
+            cacheRegion.invalidateAll();
+        }
+        cacheRegion = region;
+    }
+
+    /**
+     * 关闭近端缓存 并清空本地缓存
+     */
+    public static synchronized void disable() {
+        CacheRegion region = cacheRegion;
+        cacheRegion = null;
+        channelTemplate = null;
+        if (region != null) {
+            region.invalidateAll();
+        }
+        if (listenerContainer != null) {
+            try {
+                listenerContainer.destroy();
+            } catch (Exception e) {
+                DefaultSystemLog.ERROR().error("关闭近端缓存监听失败", e);
+            }
+            listenerContainer = null;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return cacheRegion != null;
+    }
+
+    /**
+     * 读取本地缓存 不存在时读取redis
+     *
+     * @param key      key
+     * @param database 数据库编号
+     * @return object
+     */
+    static Object get(String key, int database) {
+        CacheRegion region = cacheRegion;
+        if (region == null) {
+            return RedisObjectCache.getRemote(key, database);
+        }
+        return region.get(localKey(key, database), s -> RedisObjectCache.getRemote(key, database));
+    }
+
+    /**
+     * 删除本地缓存并通知其他节点
+     *
+     * @param key      key
+     * @param database 数据库编号
+     */
+    static void invalidate(String key, int database) {
+        CacheRegion region = cacheRegion;
+        if (region == null) {
+            return;
+        }
+        region.invalidate(localKey(key, database));
+        RedisTemplate<String, Object> redisTemplate = channelTemplate;
+        if (redisTemplate == null) {
+            return;
+        }
+        // 频道和数据库无关 使用监听的连接发送 保证其他节点能收到
+        redisTemplate.convertAndSend(CHANNEL, NODE_ID + SEPARATOR + database + SEPARATOR + key);
+    }
+
+    private static String localKey(String key, int database) {
+        return database + ":" + key;
+    }
+
+    /**
+     * 接收其他节点的删除通知
+     */
+    static class InvalidateListener implements MessageListener {
+        private final RedisTemplate<String, Object> redisTemplate;
+
+        InvalidateListener(RedisTemplate<String, Object> redisTemplate) {
+            this.redisTemplate = redisTemplate;
+        }
+
+        @Override
+        public void onMessage(Message message, byte[] pattern) {
+            CacheRegion region = cacheRegion;
+            if (region == null) {
+                return;
+            }
+            Object body;
+            try {
+                body = redisTemplate.getValueSerializer().deserialize(message.getBody());
+            } catch (RuntimeException e) {
+                DefaultSystemLog.ERROR().error("近端缓存通知解析失败", e);
+                return;
+            }
+            if (!(body instanceof String)) {
+                return;
+            }
+            String[] items = ((String) body).split(SEPARATOR, 3);
+            if (items.length != 3 || NODE_ID.equals(items[0])) {
+                return;
+            }
+            region.invalidate(items[1] + ":" + items[2]);
+        }
+    }
+}
@@ -3,8 +3,12 @@ package cn.jiangzeyin.cache;
 import cn.jiangzeyin.redis.RedisCacheManagerFactory;
 import org.springframework.cache.Cache;
 import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
@@ -32,17 +36,29 @@ public class RedisObjectCache {
     }
 
     /**
-     * 获取指定数据库中的value
+     * 获取指定数据库中的value 开启近端缓存后优先读取本地缓存
      *
      * @param key      key
      * @param database 数据库编号
      * @return object
+     * @see NearCache
      */
     public static Object get(String key, int database) {
         Objects.requireNonNull(key);
         if (database < 0) {
             throw new RuntimeException("database error");
         }
+        return NearCache.get(key, database);
+    }
+
+    /**
+     * 从redis 中获取 不存在时读取数据源
+     *
+     * @param key      key
+     * @param database 数据库编号
+     * @return object
+     */
+    static Object getRemote(String key, int database) {
         RedisCacheManager redisCacheManager = RedisCacheManagerFactory.getRedisCacheManager(database);
         String group = RedisCacheConfig.getKeyGroup(key, database);
         Cache cache = redisCacheManager.getCache(group);
@@ -93,6 +109,59 @@ public class RedisObjectCache {
         String group = RedisCacheConfig.getKeyGroup(key, database);
         Cache cache = redisCacheManager.getCache(group);
         cache.put(key, object);
+        NearCache.invalidate(key, database);
+    }
+
+    /**
+     * 计数增加 值以redis 原生数字保存 不能通过get 读取 使用increment(key, 0, database) 读取当前值
+     *
+     * @param key      key
+     * @param delta    增量
+     * @param database 数据库编号
+     * @return 增加后的值
+     */
+    public static Long increment(String key, long delta, int database) {
+        Objects.requireNonNull(key);
+        if (database < 0) {
+            throw new RuntimeException("database error");
+        }
+        RedisTemplate<String, Object> redisTemplate = RedisCacheManagerFactory.getRedisTemplate(database);
+        byte[] rawKey = rawKey(redisTemplate, key);
+        return redisTemplate.execute((RedisCallback<Long>) connection -> connection.incrBy(rawKey, delta));
+    }
+
+    /**
+     * 批量增加计数 使用管道一次提交 可以作为{@link CounterCache} 的回调
+     *
+     * @param deltas   key 和增量
+     * @param database 数据库编号
+     * @see #increment(String, long, int)
+     */
+    public static void incrementAll(Map<String, Long> deltas, int database) {
+        Objects.requireNonNull(deltas);
+        if (database < 0) {
+            throw new RuntimeException("database error");
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        RedisTemplate<String, Object> redisTemplate = RedisCacheManagerFactory.getRedisTemplate(database);
+        Map<byte[], Long> rawDeltas = new LinkedHashMap<>(deltas.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Long> entry : deltas.entrySet()) {
+            rawDeltas.put(rawKey(redisTemplate, entry.getKey()), entry.getValue());
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<byte[], Long> entry : rawDeltas.entrySet()) {
+                connection.incrBy(entry.getKey(), entry.getValue());
+            }
+            return null;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] rawKey(RedisTemplate<String, Object> redisTemplate, String key) {
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        return keySerializer.serialize(key);
     }
 
     public static void delete(String key) {
@@ -107,6 +176,7 @@ public class RedisObjectCache {
         }
         RedisTemplate<String, Object> redisTemplate = RedisCacheManagerFactory.getRedisTemplate(database);
         redisTemplate.delete(key);
+        NearCache.invalidate(key, database);
     }
 
     public static void expire(String key, long time, TimeUnit timeUnit) {
@@ -130,6 +200,7 @@ public class RedisObjectCache {
         }
         RedisTemplate<String, Object> redisTemplate = RedisCacheManagerFactory.getRedisTemplate(database);
         redisTemplate.expire(key, time, timeUnit);
+        NearCache.invalidate(key, database);
     }
 
     /**
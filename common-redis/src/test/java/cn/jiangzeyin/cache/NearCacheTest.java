@@ -0,0 +1,120 @@
+package cn.jiangzeyin.cache;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 近端缓存的删除通知
+ *
+ * @author jiangzeyin
+ * data 2018/9/13
+ */
+public class NearCacheTest {
+    private static final String CHANNEL = "common-boot:near-cache:invalidate";
+    private final JdkSerializationRedisSerializer serializer = new JdkSerializationRedisSerializer();
+    private RedisTemplate<String, Object> redisTemplate;
+    private CacheRegion region;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void enable() throws IllegalAccessException {
+        redisTemplate = Mockito.mock(RedisTemplate.class);
+        Mockito.doReturn(serializer).when(redisTemplate).getValueSerializer();
+        NearCache.enable(NearCache.class, redisTemplate);
+        region = ObjectCache.region(NearCache.class);
+    }
+
+    @After
+    public void disable() {
+        NearCache.disable();
+    }
+
+    private void receive(String body) {
+        DefaultMessage message = new DefaultMessage(CHANNEL.getBytes(StandardCharsets.UTF_8), serializer.serialize(body));
+        new NearCache.InvalidateListener(redisTemplate).onMessage(message, null);
+    }
+
+    @Test
+    public void channelIsNotCacheKey() {
+        Assert.assertNotSame(region, ObjectCache.region(CHANNEL));
+    }
+
+    @Test
+    public void otherNodeInvalidationEvictsLocalEntry() {
+        region.put("0:user", "local");
+        region.put("1:user", "other database");
+        receive("other-node\n0\nuser");
+        Assert.assertNull(region.get("0:user"));
+        Assert.assertEquals("other database", region.get("1:user"));
+    }
+
+    @Test
+    public void invalidatePublishesThroughListenerTemplate() {
+        region.put("3:user", "local");
+        NearCache.invalidate("user", 3);
+        Assert.assertNull(region.get("3:user"));
+        ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(redisTemplate).convertAndSend(Mockito.eq(CHANNEL), captor.capture());
+        String body = (String) captor.getValue();
+        Assert.assertTrue(body.endsWith("\n3\nuser"));
+
+        // 自己发送的通知忽略
+        region.put("3:user", "reloaded");
+        receive(body);
+        Assert.assertEquals("reloaded", region.get("3:user"));
+    }
+
+    @Test
+    public void malformedMessageIsIgnored() {
+        region.put("0:user", "local");
+        receive("other-node\n0");
+        Assert.assertEquals("local", region.get("0:user"));
+    }
+
+    /**
+     * 加载中的key 被删除后 加载的旧值不写入本地缓存
+     */
+    private void assertLoadingDropped(Runnable invalidate) throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> future = CompletableFuture.supplyAsync(() -> region.get("0:user", key -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return "v1";
+        }));
+        Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+        invalidate.run();
+        release.countDown();
+        // 调用方拿到加载的值 但是不缓存
+        Assert.assertEquals("v1", future.get(5, TimeUnit.SECONDS));
+        Assert.assertNull(region.get("0:user"));
+        Assert.assertEquals("v2", region.get("0:user", key -> "v2"));
+    }
+
+    @Test
+    public void setDuringLoadDropsLoadedValue() throws Exception {
+        // RedisObjectCache.set 写入redis 后删除本地缓存
+        assertLoadingDropped(() -> NearCache.invalidate("user", 0));
+    }
+
+    @Test
+    public void otherNodeInvalidationDuringLoadDropsLoadedValue() throws Exception {
+        assertLoadingDropped(() -> receive("other-node\n0\nuser"));
+    }
+}